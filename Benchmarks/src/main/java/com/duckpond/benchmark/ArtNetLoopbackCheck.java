@@ -0,0 +1,299 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import heronarts.lx.LX;
+import heronarts.lx.LXEngine;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.output.ArtNetDatagram;
+import heronarts.lx.output.IndexBuffer;
+import heronarts.lx.output.LXBufferOutput;
+import com.duckpond.ArtNetOutput;
+import com.duckpond.OfflineRenderer;
+
+/**
+ * Sends frames of the DuckPond installation through ArtNetOutput and
+ * through LX's own ArtNetDatagram, each controller redirected to its own
+ * loopback UDP receiver, and fails unless every packet is byte-identical.
+ * With Suppress on, it checks that exactly the packets whose data changed
+ * arrive, plus all of them once Keep-Alive has passed. Then it measures
+ * the cost per frame of both, that ArtNetOutput allocates nothing per
+ * frame, and how many packets suppression saves on a few patterns.
+ *
+ * Run with: java -cp ... com.duckpond.benchmark.ArtNetLoopbackCheck
+ */
+public class ArtNetLoopbackCheck {
+
+  private static final int CHECK_FRAMES = 100;
+  private static final int WARMUP_FRAMES = 20000;
+  private static final int TIMED_FRAMES = 20000;
+  private static final long RECEIVE_TIMEOUT_MS = 2000;
+  private static final long SILENCE_MS = 50;
+  private static final double KEEP_ALIVE_SECONDS = 0.2;
+
+  private static final String[] SUPPRESSION_PATTERNS = { "TestStrip", "StarField", "LavaDreams" };
+  private static final int SUPPRESSION_FRAMES = 600;
+
+  private static final String LOOPBACK = "127.0.0.1";
+
+  public static void main(String[] args) throws Exception {
+    LX lx = BenchmarkModel.createLX();
+    LXModel model = lx.getModel();
+    List<ArtNetOutput.Route> fixtureRoutes =
+      ArtNetOutput.Route.load(lx.getMediaFile(LX.Media.FIXTURES, BenchmarkModel.FIXTURE + ".lxf"));
+
+    // One receiver per controller for each path, so universes stay apart
+    Map<String, DatagramChannel> duckpondReceivers = new LinkedHashMap<String, DatagramChannel>();
+    Map<String, DatagramChannel> lxReceivers = new LinkedHashMap<String, DatagramChannel>();
+    List<ArtNetOutput.Route> routes = new ArrayList<ArtNetOutput.Route>();
+    List<ArtNetDatagram> datagrams = new ArrayList<ArtNetDatagram>();
+    DatagramSocket lxSocket = new DatagramSocket();
+    for (ArtNetOutput.Route route : fixtureRoutes) {
+      if (!duckpondReceivers.containsKey(route.host)) {
+        duckpondReceivers.put(route.host, receiver());
+        lxReceivers.put(route.host, receiver());
+      }
+      int port = ((InetSocketAddress) duckpondReceivers.get(route.host).getLocalAddress()).getPort();
+      routes.add(route.withHost(LOOPBACK, port));
+
+      ArtNetDatagram datagram = new ArtNetDatagram(lx,
+        new IndexBuffer(indices(model, route), LXBufferOutput.ByteOrder.RGB, route.channel), route.universe);
+      datagram.setSocket(lxSocket);
+      datagram.setAddress(InetAddress.getByName(LOOPBACK));
+      datagram.setPort(((InetSocketAddress) lxReceivers.get(route.host).getLocalAddress()).getPort());
+      datagram.setSequenceEnabled(route.sequenceEnabled);
+      lx.engine.addOutput(datagram);
+      datagrams.add(datagram);
+    }
+    ArtNetOutput output = new ArtNetOutput(lx, routes);
+    lx.engine.addOutput(output);
+    ArtNetOutput.UniverseMap map = output.getUniverseMap();
+    System.out.println(String.format("%d routes, %d packets, %d of %d points",
+      routes.size(), map.packetCount, map.pointCount, model.size));
+
+    Random random = new Random(0x0a27);
+    int[] colors = new int[model.size];
+    int mismatches = 0;
+    for (int frame = 0; frame < CHECK_FRAMES; frame++) {
+      for (int i = 0; i < colors.length; i++) {
+        colors[i] = 0xff000000 | random.nextInt(0x1000000);
+      }
+      mismatches += compare("Frame " + frame, output, datagrams, colors, duckpondReceivers, lxReceivers, duckpondReceivers.keySet());
+    }
+    System.out.println(String.format("%d frames compared with LX ArtNetDatagram, %d mismatches", CHECK_FRAMES, mismatches));
+
+    // Only the controller whose point changed gets a packet, until the keep-alive
+    output.suppressUnchanged.setValue(true);
+    output.keepAlive.setValue(output.keepAlive.range.max);
+    Set<String> none = new HashSet<String>();
+    int suppressionErrors = 0;
+    for (int i = 0; i < colors.length; i++) {
+      colors[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    suppressionErrors += compare("New frame", output, datagrams, colors, duckpondReceivers, lxReceivers, duckpondReceivers.keySet());
+    for (ArtNetOutput.Route route : fixtureRoutes) {
+      int index = indices(model, route)[0];
+      colors[index] ^= 0x00ffffff;
+      suppressionErrors += compare("Changed " + route.host, output, datagrams, colors, duckpondReceivers, lxReceivers,
+        new HashSet<String>(Arrays.asList(route.host)));
+    }
+    suppressionErrors += compare("Unchanged frame", output, datagrams, colors, duckpondReceivers, lxReceivers, none);
+    output.keepAlive.setValue(KEEP_ALIVE_SECONDS);
+    Thread.sleep((long) (KEEP_ALIVE_SECONDS * 1000) + 10);
+    suppressionErrors += compare("Keep-alive", output, datagrams, colors, duckpondReceivers, lxReceivers, duckpondReceivers.keySet());
+    System.out.println(String.format("Suppression: %d sent, %d suppressed, %d errors",
+      output.getPacketsSent(), output.getPacketsSuppressed(), suppressionErrors));
+    mismatches += suppressionErrors;
+    output.suppressUnchanged.setValue(false);
+
+    // Receivers are closed so that the timing isn't of the receive side
+    for (DatagramChannel receiver : duckpondReceivers.values()) {
+      receiver.close();
+    }
+    for (DatagramChannel receiver : lxReceivers.values()) {
+      receiver.close();
+    }
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+      output.send(colors);
+      for (ArtNetDatagram datagram : datagrams) {
+        datagram.send(colors);
+      }
+    }
+    long allocated = threads.getCurrentThreadAllocatedBytes();
+    long start = System.nanoTime();
+    for (int frame = 0; frame < TIMED_FRAMES; frame++) {
+      output.send(colors);
+    }
+    long duckpondNanos = System.nanoTime() - start;
+    allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+    long lxAllocated = threads.getCurrentThreadAllocatedBytes();
+    start = System.nanoTime();
+    for (int frame = 0; frame < TIMED_FRAMES; frame++) {
+      for (ArtNetDatagram datagram : datagrams) {
+        datagram.send(colors);
+      }
+    }
+    long lxNanos = System.nanoTime() - start;
+    lxAllocated = threads.getCurrentThreadAllocatedBytes() - lxAllocated;
+
+    System.out.println(String.format("ArtNetOutput     %8.2f us/frame %8.1f B/frame",
+      duckpondNanos / 1e3 / TIMED_FRAMES, (double) allocated / TIMED_FRAMES));
+    System.out.println(String.format("LX ArtNetDatagram %7.2f us/frame %8.1f B/frame",
+      lxNanos / 1e3 / TIMED_FRAMES, (double) lxAllocated / TIMED_FRAMES));
+
+    reportSuppression(lx, output);
+
+    boolean failed = (mismatches > 0) || (allocated > 0);
+    if (allocated > 0) {
+      System.out.println("ArtNetOutput allocated " + allocated + " bytes over " + TIMED_FRAMES + " frames");
+    }
+    output.dispose();
+    lxSocket.close();
+    lx.dispose();
+    System.out.println(failed ? "FAILED" : "OK");
+    System.exit(failed ? 1 : 0);
+  }
+
+  // Sends a frame both ways and checks that exactly the expected hosts got identical packets
+  private static int compare(String label, ArtNetOutput output, List<ArtNetDatagram> datagrams, int[] colors,
+      Map<String, DatagramChannel> duckpondReceivers, Map<String, DatagramChannel> lxReceivers, Set<String> expectedHosts) throws Exception {
+    output.send(colors);
+    for (ArtNetDatagram datagram : datagrams) {
+      datagram.send(colors);
+    }
+    int errors = 0;
+    for (String host : duckpondReceivers.keySet()) {
+      boolean expected = expectedHosts.contains(host);
+      Map<Integer, byte[]> actual = receive(duckpondReceivers.get(host), expected ? RECEIVE_TIMEOUT_MS : SILENCE_MS);
+      Map<Integer, byte[]> reference = receive(lxReceivers.get(host), RECEIVE_TIMEOUT_MS);
+      if (!expected) {
+        if (!actual.isEmpty()) {
+          System.out.println(label + " " + host + ": unchanged universes " + actual.keySet() + " were sent");
+          errors++;
+        }
+        continue;
+      }
+      if (!actual.keySet().equals(reference.keySet())) {
+        System.out.println(label + " " + host + ": universes " + actual.keySet() + ", LX sent " + reference.keySet());
+        errors++;
+        continue;
+      }
+      for (Integer universe : reference.keySet()) {
+        if (!Arrays.equals(actual.get(universe), reference.get(universe))) {
+          System.out.println(label + " " + host + " universe " + universe + " differs from LX");
+          errors++;
+        }
+      }
+    }
+    return errors;
+  }
+
+  // Packets sent and suppressed for a few patterns, rendered by stepping the engine
+  private static void reportSuppression(LX lx, ArtNetOutput output) throws Exception {
+    output.suppressUnchanged.setValue(true);
+    output.keepAlive.setValue(1);
+    lx.engine.output.enabled.setValue(false);
+    lx.engine.setFixedDeltaMs(1000.0 / 60);
+    LXEngine.Frame frame = new LXEngine.Frame(lx);
+    for (String name : SUPPRESSION_PATTERNS) {
+      OfflineRenderer.soloPattern(lx, OfflineRenderer.createPattern(lx, name));
+      long sent = output.getPacketsSent();
+      long suppressed = output.getPacketsSuppressed();
+      long start = System.nanoTime();
+      for (int f = 0; f < SUPPRESSION_FRAMES; f++) {
+        lx.engine.run();
+        lx.engine.getFrameNonThreadSafe(frame);
+        output.send(frame.getColors());
+      }
+      sent = output.getPacketsSent() - sent;
+      suppressed = output.getPacketsSuppressed() - suppressed;
+      System.out.println(String.format("%-12s %6d sent %6d suppressed (%.0f%%) in %.2f s",
+        name, sent, suppressed, 100.0 * suppressed / (sent + suppressed), (System.nanoTime() - start) / 1e9));
+    }
+  }
+
+  private static DatagramChannel receiver() throws Exception {
+    DatagramChannel channel = DatagramChannel.open();
+    channel.bind(new InetSocketAddress(LOOPBACK, 0));
+    channel.configureBlocking(false);
+    return channel;
+  }
+
+  // Points of a route resolved independently of ArtNetOutput
+  private static int[] indices(LXModel model, ArtNetOutput.Route route) {
+    List<LXPoint> points = new ArrayList<LXPoint>();
+    for (String tag : route.tags) {
+      for (LXModel sub : model.sub(tag)) {
+        points.addAll(Arrays.asList(sub.points));
+      }
+    }
+    if (route.tags.isEmpty()) {
+      points.addAll(Arrays.asList(model.points));
+    }
+    int end = (route.num < 0) ? points.size() : Math.min(route.start + route.num, points.size());
+    int[] indices = new int[end - route.start];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = points.get(route.start + i).index;
+    }
+    return indices;
+  }
+
+  // Packets of a frame keyed by universe
+  private static Map<Integer, byte[]> receive(DatagramChannel channel, long timeoutMs) throws Exception {
+    Map<Integer, byte[]> packets = new HashMap<Integer, byte[]>();
+    ByteBuffer buffer = ByteBuffer.allocate(ArtNetOutput.HEADER_LENGTH + ArtNetOutput.MAX_DATA_LENGTH);
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (packets.isEmpty() && System.currentTimeMillis() < deadline) {
+      buffer.clear();
+      while (channel.receive(buffer) != null) {
+        buffer.flip();
+        byte[] packet = new byte[buffer.remaining()];
+        buffer.get(packet);
+        packets.put((packet[14] & 0xff) | ((packet[15] & 0x7f) << 8), packet);
+        buffer.clear();
+      }
+      if (packets.isEmpty()) {
+        Thread.sleep(1);
+      }
+    }
+    return packets;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.util.Collection;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import heronarts.lx.LX;
+import com.duckpond.UmbrellaGeometry;
+
+/**
+ * Runs the DuckPond benchmarks with the GC profiler attached and prints a
+ * per-pattern summary of ns/frame, ns/LED and bytes allocated per frame.
+ *
+ * Accepts the regular JMH command line, e.g.
+ * BenchmarkMain PatternBenchmark -p pattern=StarField,CosmicDust
+ */
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .addProfiler(GCProfiler.class)
+      .build();
+
+    Collection<RunResult> results = new Runner(options).run();
+
+    int leds = countLeds();
+    System.out.println();
+    System.out.println("DuckPond pattern cost (" + leds + " LEDs)");
+    System.out.println(String.format("%-20s %12s %10s %12s", "Pattern", "ns/frame", "ns/LED", "B/frame"));
+    for (RunResult result : results) {
+      String pattern = result.getParams().getParam("pattern");
+      if (pattern == null) {
+        continue;
+      }
+      String precision = result.getParams().getParam("precision");
+      if ("FAST".equals(precision)) {
+        pattern += " fast";
+      }
+      String keyframes = result.getParams().getParam("keyframes");
+      if (keyframes != null && Double.parseDouble(keyframes) > 0) {
+        pattern += " key" + keyframes;
+      }
+      String lod = result.getParams().getParam("lod");
+      if (lod != null && Integer.parseInt(lod) > 1) {
+        pattern += " lod" + lod;
+      }
+      if ("true".equals(result.getParams().getParam("singlePrecision"))) {
+        pattern += " float";
+      }
+      String threads = result.getParams().getParam("threads");
+      if (threads != null) {
+        pattern += (threads.equals("0") ? " serial" : " x" + threads);
+      }
+      double nsPerFrame = result.getPrimaryResult().getScore();
+      System.out.println(String.format("%-20s %12.0f %10.1f %12.1f",
+        pattern, nsPerFrame, nsPerFrame / leds, allocatedBytes(result)));
+    }
+  }
+
+  private static int countLeds() throws Exception {
+    LX lx = BenchmarkModel.createLX();
+    try {
+      return UmbrellaGeometry.get(lx.getModel()).size;
+    } finally {
+      lx.dispose();
+    }
+  }
+
+  private static double allocatedBytes(RunResult result) {
+    // The secondary result key carries a leading separator in some JMH versions
+    for (String key : result.getSecondaryResults().keySet()) {
+      if (key.endsWith("gc.alloc.rate.norm")) {
+        Result<?> alloc = result.getSecondaryResults().get(key);
+        return alloc.getScore();
+      }
+    }
+    return Double.NaN;
+  }
+}
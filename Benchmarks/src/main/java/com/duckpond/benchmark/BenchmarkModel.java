@@ -0,0 +1,74 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import heronarts.lx.LX;
+import heronarts.lx.structure.JsonFixture;
+
+/**
+ * Builds an LX instance whose model is the real DuckPond installation,
+ * loaded from the umbrellas.lxf fixture bundled in the LX package.
+ */
+public class BenchmarkModel {
+
+  public static final String FIXTURE = "umbrellas";
+
+  private static final String[] FIXTURE_FILES = {
+    "umbrella.lxf",
+    "umbrellas.lxf"
+  };
+
+  /**
+   * Create an LX instance with a private media folder containing the
+   * DuckPond fixture definitions and the umbrellas fixture added.
+   */
+  public static LX createLX() throws IOException {
+    File media = Files.createTempDirectory("duckpond-benchmark").toFile();
+    media.deleteOnExit();
+    File fixtures = new File(media, "Fixtures");
+    fixtures.mkdirs();
+    fixtures.deleteOnExit();
+    for (String name : FIXTURE_FILES) {
+      File file = new File(fixtures, name);
+      try (InputStream in = BenchmarkModel.class.getResourceAsStream("/" + name)) {
+        if (in == null) {
+          throw new IOException("Fixture resource not found: " + name);
+        }
+        Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      file.deleteOnExit();
+    }
+
+    LX.Flags flags = new LX.Flags();
+    flags.mediaPath = media.getAbsolutePath();
+    flags.loadPreferences = false;
+    LX lx = new LX(flags);
+    lx.structure.addFixture(new JsonFixture(lx, FIXTURE));
+    return lx;
+  }
+}
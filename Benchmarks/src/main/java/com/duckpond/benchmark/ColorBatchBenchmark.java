@@ -0,0 +1,145 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.duckpond.ColorBatch;
+import com.duckpond.ColorSpace;
+import com.duckpond.Float4;
+import com.duckpond.Gradient;
+
+/**
+ * Per-color cost of the ColorBatch conversions over the 80 points of one
+ * umbrella, scalar against the vector layer of the jar. Needs Java 17 or
+ * later, the forks are started with the incubator vector module.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class ColorBatchBenchmark {
+
+  public static final int POINTS = 80;
+
+  @Param({ "scalar", "vector" })
+  public String batch;
+
+  private ColorBatch instance;
+
+  private final float[] pos = new float[POINTS];
+  private final float[] red = new float[POINTS];
+  private final float[] green = new float[POINTS];
+  private final float[] blue = new float[POINTS];
+  private final float[] x = new float[POINTS];
+  private final float[] y = new float[POINTS];
+  private final float[] z = new float[POINTS];
+  private final float[] outX = new float[POINTS];
+  private final float[] outY = new float[POINTS];
+  private final float[] outZ = new float[POINTS];
+  private final int[] packed = new int[POINTS];
+
+  private Gradient nearest;
+  private Gradient linear;
+
+  @Setup
+  public void setup() {
+    if (this.batch.equals("scalar")) {
+      this.instance = ColorBatch.scalar();
+    } else {
+      this.instance = ColorBatch.get();
+      if (this.instance == ColorBatch.scalar()) {
+        throw new IllegalStateException("The vector layer is not available on this JVM");
+      }
+    }
+    Random random = new Random(0x0d0c);
+    Float4 color = new Float4(0.0);
+    for (int i = 0; i < POINTS; i++) {
+      this.pos[i] = (random.nextFloat() - 0.5f) * 4f;
+      this.red[i] = random.nextFloat();
+      this.green[i] = random.nextFloat();
+      this.blue[i] = random.nextFloat();
+      ColorSpace.rgbToOklab(this.red[i], this.green[i], this.blue[i], 1.0, color);
+      this.x[i] = (float) color.x;
+      this.y[i] = (float) color.y;
+      this.z[i] = (float) color.z;
+    }
+    Float4[] stops = {
+      new Float4(0xff0000, 0.00),
+      new Float4(0x00ff00, 0.33),
+      new Float4(0x0000ff, 0.67),
+      new Float4(0xff0000, 1.00)
+    };
+    this.nearest = new Gradient(stops, Gradient.ColorMode.RGB, 256, Gradient.Interpolation.NEAREST);
+    this.linear = new Gradient(stops, Gradient.ColorMode.RGB, 256, Gradient.Interpolation.LINEAR);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public int[] oklab2rgb() {
+    this.instance.oklab2rgb(this.x, this.y, this.z, this.packed, 0, POINTS);
+    return this.packed;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public float[] oklab2srgb() {
+    this.instance.oklab2srgb(this.x, this.y, this.z, this.outX, this.outY, this.outZ, 0, POINTS);
+    return this.outX;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public float[] srgb2oklab() {
+    this.instance.srgb2oklab(this.red, this.green, this.blue, this.outX, this.outY, this.outZ, 0, POINTS);
+    return this.outX;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public float[] reflectNearest() {
+    this.instance.sample(this.nearest, ColorBatch.Wrap.REFLECT, this.pos, this.outX, this.outY, this.outZ, 0, POINTS);
+    return this.outX;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public float[] reflectLinear() {
+    this.instance.sample(this.linear, ColorBatch.Wrap.REFLECT, this.pos, this.outX, this.outY, this.outZ, 0, POINTS);
+    return this.outX;
+  }
+}
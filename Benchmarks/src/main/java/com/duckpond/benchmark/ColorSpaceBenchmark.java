@@ -0,0 +1,108 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.duckpond.ColorSpace;
+import com.duckpond.Float4;
+
+/**
+ * Per-color cost of the Oklab conversions, both allocating and in-place,
+ * and of the fused Oklab to packed RGB output path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorSpaceBenchmark {
+
+  public static final int SAMPLES = 1024;
+
+  private final Float4[] srgb = new Float4[SAMPLES];
+  private final Float4[] oklab = new Float4[SAMPLES];
+  private final Float4 out = new Float4(0.0);
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0x0d0c);
+    for (int i = 0; i < SAMPLES; i++) {
+      this.srgb[i] = new Float4(random.nextDouble(), random.nextDouble(), random.nextDouble(), 1.0);
+      this.oklab[i] = ColorSpace.srgb2oklab(this.srgb[i]);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void oklab2srgb(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(ColorSpace.oklab2srgb(this.oklab[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void oklab2srgbInPlace(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(ColorSpace.oklab2srgb(this.oklab[i], this.out).x);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void oklab2rgbPacked(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(ColorSpace.oklab2rgb(this.oklab[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void srgb2oklab(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(ColorSpace.srgb2oklab(this.srgb[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void srgb2oklabInPlace(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(ColorSpace.srgb2oklab(this.srgb[i], this.out).x);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.util.Random;
+import com.duckpond.FastMath;
+
+/**
+ * Measures the error of FastMath against java.lang.Math over the argument
+ * ranges the pattern kernels use, and fails if any exceeds the bound
+ * documented in FastMath.
+ *
+ * Run with: java -cp ... com.duckpond.benchmark.FastMathCheck
+ */
+public class FastMathCheck {
+
+  private static final int SAMPLES = 10000000;
+
+  private static final double SIN_BOUND = 3e-7;
+  private static final double ATAN2_BOUND = 2e-8;
+  private static final double EXP_BOUND = 5e-12;
+  private static final double POW_BOUND = 1e-11;
+
+  private static boolean failed = false;
+
+  public static void main(String[] args) {
+    Random random = new Random(0x0d0c);
+
+    double sinError = 0.0;
+    double cosError = 0.0;
+    double atan2Error = 0.0;
+    double expError = 0.0;
+    double powError = 0.0;
+
+    for (int i = 0; i < SAMPLES; i++) {
+      // Kernels feed phases that grow with run time
+      double x = (random.nextDouble() - 0.5) * 2e4;
+      sinError = Math.max(sinError, Math.abs(FastMath.sin(x) - Math.sin(x)));
+      cosError = Math.max(cosError, Math.abs(FastMath.cos(x) - Math.cos(x)));
+
+      double ay = (random.nextDouble() - 0.5) * 200.0;
+      double ax = (random.nextDouble() - 0.5) * 200.0;
+      atan2Error = Math.max(atan2Error, Math.abs(FastMath.atan2(ay, ax) - Math.atan2(ay, ax)));
+
+      double e = (random.nextDouble() - 0.5) * 1400.0;
+      expError = Math.max(expError, relative(FastMath.exp(e), Math.exp(e)));
+
+      double base = Math.exp((random.nextDouble() - 0.5) * 40.0);
+      double exponent = (random.nextDouble() - 0.5) * 8.0;
+      double scale = 1.0 + Math.abs(exponent * Math.log(base) / Math.log(2.0));
+      powError = Math.max(powError, relative(FastMath.pow(base, exponent), Math.pow(base, exponent)) / scale);
+    }
+
+    report("sin", sinError, SIN_BOUND);
+    report("cos", cosError, SIN_BOUND);
+    report("atan2", atan2Error, ATAN2_BOUND);
+    report("exp", expError, EXP_BOUND);
+    report("pow", powError, POW_BOUND);
+
+    // Special values must match java.lang.Math exactly
+    double[] special = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+    for (double a : special) {
+      checkSame("exp", FastMath.exp(a), Math.exp(a));
+      for (double b : special) {
+        checkSame("atan2", FastMath.atan2(a, b), Math.atan2(a, b));
+        checkSame("pow", FastMath.pow(a, b), Math.pow(a, b));
+      }
+    }
+
+    System.out.println(failed ? "FAILED" : "OK");
+    System.exit(failed ? 1 : 0);
+  }
+
+  private static double relative(double approx, double exact) {
+    return (exact == 0.0) ? Math.abs(approx) : Math.abs((approx - exact) / exact);
+  }
+
+  private static void report(String name, double error, double bound) {
+    boolean ok = error <= bound;
+    failed |= !ok;
+    System.out.println(String.format("%-8s max error %.3e  bound %.0e  %s", name, error, bound, ok ? "ok" : "EXCEEDED"));
+  }
+
+  private static void checkSame(String name, double approx, double exact) {
+    if (Double.doubleToLongBits(approx) != Double.doubleToLongBits(exact)) {
+      failed = true;
+      System.out.println(name + " special value mismatch: " + approx + " != " + exact);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.util.Random;
+import com.duckpond.ColorBatch;
+import com.duckpond.ColorSpace;
+import com.duckpond.FastMath;
+import com.duckpond.Float4;
+import com.duckpond.Float4f;
+import com.duckpond.Gradient;
+
+/**
+ * Measures what the single precision kernels give up against the double
+ * ones: the color conversions and gradient samplers in 8-bit codes and
+ * Oklab distance, and FastMath.sinf/cosf over growing phase ranges.
+ * Fails if any float conversion lands more than one code away from the
+ * double result, or sinf/cosf exceed the bound documented in FastMath.
+ * When the JVM provides the vectorized ColorBatch, it is checked against
+ * the scalar one as documented in ColorBatch.
+ *
+ * Run with: java -cp ... com.duckpond.benchmark.FloatPrecisionCheck, adding
+ * --add-modules jdk.incubator.vector on Java 17+ for the ColorBatch check.
+ */
+public class FloatPrecisionCheck {
+
+  private static final int SAMPLES = 2000000;
+
+  private static final int CODE_BOUND = 1;
+
+  private static final double SINF_BOUND = 4e-7;
+
+  // Batch length, not a multiple of any vector length
+  private static final int BATCH_SIZE = 1003;
+
+  private static final double BATCH_BOUND = 2e-6;
+
+  // Phase ranges the kernels reach after seconds, minutes and hours
+  private static final float[] PHASE_RANGES = { 10f, 1e3f, 1e5f };
+
+  private static boolean failed = false;
+
+  public static void main(String[] args) {
+    Random random = new Random(0x0d0c);
+    Float4 d = new Float4(0.0);
+    Float4f f = new Float4f(0f);
+
+    // Oklab to packed RGB, over the sRGB gamut plus a margin around it
+    int maxCode = 0;
+    int differing = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      double r = random.nextDouble() * 1.1 - 0.05;
+      double g = random.nextDouble() * 1.1 - 0.05;
+      double b = random.nextDouble() * 1.1 - 0.05;
+      ColorSpace.rgbToOklab(r, g, b, 1.0, d);
+      int rgbD = ColorSpace.oklab2rgb(d.x, d.y, d.z);
+      int rgbF = ColorSpace.oklab2rgb((float) d.x, (float) d.y, (float) d.z);
+      int diff = codeDiff(rgbD, rgbF);
+      maxCode = Math.max(maxCode, diff);
+      if (diff != 0) {
+        differing++;
+      }
+    }
+    reportCodes("oklab2rgb", maxCode, differing, SAMPLES);
+
+    // sRGB to Oklab
+    double oklabError = 0.0;
+    for (int i = 0; i < SAMPLES; i++) {
+      float r = random.nextFloat();
+      float g = random.nextFloat();
+      float b = random.nextFloat();
+      ColorSpace.rgbToOklab(r, g, b, 1.0, d);
+      ColorSpace.rgbToOklab(r, g, b, 1f, f);
+      oklabError = Math.max(oklabError, deltaE(d, f));
+    }
+    System.out.println(String.format("%-17s max dE %.3e", "srgb2oklab", oklabError));
+
+    // Gradient samplers, both interpolations, over the repeat range
+    for (Gradient.Interpolation interpolation : Gradient.Interpolation.values()) {
+      Gradient gradient = new Gradient(rainbow(), Gradient.ColorMode.RGB, 256, interpolation);
+      double gradientError = 0.0;
+      maxCode = 0;
+      differing = 0;
+      for (int i = 0; i < SAMPLES; i++) {
+        float pos = (random.nextFloat() - 0.5f) * 8f;
+        gradient.repeat(pos, d);
+        gradient.repeat(pos, f);
+        gradientError = Math.max(gradientError, deltaE(d, f));
+        int diff = codeDiff(ColorSpace.oklab2rgb(d), ColorSpace.oklab2rgb(f));
+        maxCode = Math.max(maxCode, diff);
+        if (diff != 0) {
+          differing++;
+        }
+      }
+      String name = "gradient " + interpolation.name().toLowerCase();
+      System.out.println(String.format("%-17s max dE %.3e", name, gradientError));
+      reportCodes(name, maxCode, differing, SAMPLES);
+    }
+
+    // sinf/cosf against the exact value of the same float argument, and
+    // against the double phase the argument was rounded from
+    for (float range : PHASE_RANGES) {
+      double sinError = 0.0;
+      double phaseError = 0.0;
+      for (int i = 0; i < SAMPLES; i++) {
+        double x = (random.nextDouble() - 0.5) * 2.0 * range;
+        float xf = (float) x;
+        sinError = Math.max(sinError, Math.abs(FastMath.sinf(xf) - Math.sin(xf)));
+        sinError = Math.max(sinError, Math.abs(FastMath.cosf(xf) - Math.cos(xf)));
+        phaseError = Math.max(phaseError, Math.abs(FastMath.sinf(xf) - Math.sin(x)));
+      }
+      boolean ok = sinError <= SINF_BOUND;
+      failed |= !ok;
+      System.out.println(String.format("sinf |x| < %-6.0e  max error %.3e  vs double phase %.3e  %s",
+        range, sinError, phaseError, ok ? "ok" : "EXCEEDED"));
+    }
+
+    checkBatch(random);
+
+    System.out.println(failed ? "FAILED" : "OK");
+    System.exit(failed ? 1 : 0);
+  }
+
+  /**
+   * The ColorBatch this JVM picked against the scalar one, on a length
+   * that leaves a tail after the last full vector
+   */
+  private static void checkBatch(Random random) {
+    ColorBatch batch = ColorBatch.get();
+    ColorBatch scalar = ColorBatch.scalar();
+    System.out.println("ColorBatch " + batch.getName());
+    if (batch == scalar) {
+      return;
+    }
+
+    int n = BATCH_SIZE;
+    float[] x = new float[n];
+    float[] y = new float[n];
+    float[] z = new float[n];
+    float[][] expected = { new float[n], new float[n], new float[n] };
+    float[][] actual = { new float[n], new float[n], new float[n] };
+    int[] packedExpected = new int[n];
+    int[] packedActual = new int[n];
+
+    int packedDiff = 0;
+    double srgbError = 0.0;
+    double oklabError = 0.0;
+    int sampleDiff = 0;
+    for (int round = 0; round < SAMPLES / n; round++) {
+      for (int i = 0; i < n; i++) {
+        x[i] = random.nextFloat() * 1.1f - 0.05f;
+        y[i] = random.nextFloat() * 1.1f - 0.05f;
+        z[i] = random.nextFloat() * 1.1f - 0.05f;
+      }
+      scalar.srgb2oklab(x, y, z, expected[0], expected[1], expected[2], 0, n);
+      batch.srgb2oklab(x, y, z, actual[0], actual[1], actual[2], 0, n);
+      oklabError = Math.max(oklabError, maxError(expected, actual, n));
+
+      scalar.oklab2rgb(expected[0], expected[1], expected[2], packedExpected, 0, n);
+      batch.oklab2rgb(expected[0], expected[1], expected[2], packedActual, 0, n);
+      for (int i = 0; i < n; i++) {
+        if (packedExpected[i] != packedActual[i]) {
+          packedDiff++;
+        }
+      }
+
+      scalar.oklab2srgb(expected[0], expected[1], expected[2], x, y, z, 0, n);
+      batch.oklab2srgb(expected[0], expected[1], expected[2], actual[0], actual[1], actual[2], 0, n);
+      srgbError = Math.max(srgbError, maxError(new float[][] { x, y, z }, actual, n));
+
+      for (int i = 0; i < n; i++) {
+        x[i] = (random.nextFloat() - 0.5f) * 8f;
+      }
+      for (Gradient.Interpolation interpolation : Gradient.Interpolation.values()) {
+        Gradient gradient = Gradient.get(rainbow(), Gradient.ColorMode.RGB, 256, interpolation);
+        for (ColorBatch.Wrap wrap : ColorBatch.Wrap.values()) {
+          scalar.sample(gradient, wrap, x, expected[0], expected[1], expected[2], 0, n);
+          batch.sample(gradient, wrap, x, actual[0], actual[1], actual[2], 0, n);
+          if (maxError(expected, actual, n) != 0.0) {
+            sampleDiff++;
+          }
+        }
+      }
+    }
+    reportBatch("oklab2rgb", packedDiff == 0, "differing colors " + packedDiff);
+    reportBatch("gradients", sampleDiff == 0, "differing batches " + sampleDiff);
+    reportBatch("oklab2srgb", srgbError <= BATCH_BOUND, String.format("max error %.3e", srgbError));
+    reportBatch("srgb2oklab", oklabError <= BATCH_BOUND, String.format("max error %.3e", oklabError));
+  }
+
+  private static double maxError(float[][] expected, float[][] actual, int n) {
+    double error = 0.0;
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < n; i++) {
+        error = Math.max(error, Math.abs(expected[c][i] - actual[c][i]));
+      }
+    }
+    return error;
+  }
+
+  private static void reportBatch(String name, boolean ok, String detail) {
+    failed |= !ok;
+    System.out.println(String.format("  %-15s %s  %s", name, detail, ok ? "ok" : "EXCEEDED"));
+  }
+
+  private static Float4[] rainbow() {
+    return new Float4[] {
+      new Float4(0xff0000, 0.00),
+      new Float4(0xffff00, 0.17),
+      new Float4(0x00ff00, 0.33),
+      new Float4(0x29fefe, 0.50),
+      new Float4(0x0000ff, 0.67),
+      new Float4(0xff00ff, 0.83),
+      new Float4(0xff0000, 1.00)
+    };
+  }
+
+  private static double deltaE(Float4 d, Float4f f) {
+    double dL = d.x - f.x;
+    double da = d.y - f.y;
+    double db = d.z - f.z;
+    return Math.sqrt(dL * dL + da * da + db * db);
+  }
+
+  private static int codeDiff(int c1, int c2) {
+    int max = 0;
+    for (int shift = 0; shift < 24; shift += 8) {
+      max = Math.max(max, Math.abs(((c1 >> shift) & 0xff) - ((c2 >> shift) & 0xff)));
+    }
+    return max;
+  }
+
+  private static void reportCodes(String name, int maxCode, int differing, int samples) {
+    boolean ok = maxCode <= CODE_BOUND;
+    failed |= !ok;
+    System.out.println(String.format("%-17s max code diff %d  differing %.4f%%  %s",
+      name, maxCode, 100.0 * differing / samples, ok ? "ok" : "EXCEEDED"));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.duckpond.Float4;
+import com.duckpond.Gradient;
+
+/**
+ * Per-sample cost of the three gradient wrap modes, for nearest and
+ * linear sampling, into a Float4 and straight to packed sRGB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradientBenchmark {
+
+  public static final int SAMPLES = 1024;
+
+  @Param({ "NEAREST", "LINEAR" })
+  public Gradient.Interpolation interpolation;
+
+  private final double[] positions = new double[SAMPLES];
+  private final Float4 out = new Float4(0.0);
+  private Gradient gradient;
+
+  @Setup
+  public void setup() {
+    // Same stops as SpringPattern's rainbow
+    this.gradient = new Gradient(new Float4[] {
+      new Float4(0xff0000, 0.00),
+      new Float4(0xffbd96, 0.10),
+      new Float4(0xffff00, 0.17),
+      new Float4(0xc3ffa9, 0.25),
+      new Float4(0x00ff00, 0.33),
+      new Float4(0xd1ffbf, 0.38),
+      new Float4(0xaffff3, 0.44),
+      new Float4(0x29fefe, 0.50),
+      new Float4(0x637eff, 0.59),
+      new Float4(0x0000ff, 0.67),
+      new Float4(0x9c3fff, 0.75),
+      new Float4(0xff00ff, 0.83),
+      new Float4(0xffc2b0, 0.92),
+      new Float4(0xff0000, 1.00)
+    }, Gradient.ColorMode.RGB, Gradient.DEFAULT_RESOLUTION, this.interpolation);
+
+    // Patterns feed positions well outside [0, 1]
+    Random random = new Random(0x0d0c);
+    for (int i = 0; i < SAMPLES; i++) {
+      this.positions[i] = random.nextDouble() * 4.0 - 2.0;
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void clamp(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(this.gradient.clamp(this.positions[i], this.out).x);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void repeat(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(this.gradient.repeat(this.positions[i], this.out).x);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void reflect(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(this.gradient.reflect(this.positions[i], this.out).x);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SAMPLES)
+  public void reflectRgb(Blackhole bh) {
+    for (int i = 0; i < SAMPLES; i++) {
+      bh.consume(this.gradient.reflectRgb(this.positions[i]));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.benchmark;
+
+import com.duckpond.OutputTable;
+
+import heronarts.lx.output.LXOutput;
+
+/**
+ * Checks OutputTable against LX's GammaTable: rounded to 8 bits, the
+ * table at brightness step k / 255 must be within one code of the curve LX
+ * generates for that step, for a range of gammas and white points. Then
+ * dithers every input of a dim curve for a number of frames and checks
+ * that the average output matches the table value to within the bound of
+ * carrying the error, and reports how many distinct levels a dark fade
+ * gets with and without dithering.
+ *
+ * Run with: java -cp ... com.duckpond.benchmark.OutputTableCheck
+ */
+public class OutputTableCheck {
+
+  private static final double[] GAMMAS = { 1.0, 1.8, 2.2, 2.8 };
+
+  private static final int[] WHITE_POINTS = { 255, 200, 128 };
+
+  private static final double DIM_BRIGHTNESS = 0.1;
+
+  private static final int FRAMES = 100;
+
+  public static void main(String[] args) {
+    boolean failed = false;
+
+    // Table rounded to 8 bits against LX's curve for each brightness step
+    OutputTable table = new OutputTable();
+    byte[] curve = new byte[256];
+    int maxCode = 0;
+    int differing = 0;
+    int compared = 0;
+    for (double gamma : GAMMAS) {
+      for (int whitePoint : WHITE_POINTS) {
+        for (int level = 0; level < LXOutput.GammaTable.NUM_STEPS; level++) {
+          LXOutput.GammaTable.Curve.generate(curve, level, gamma, whitePoint);
+          table.update(gamma, level / 255.0, whitePoint, whitePoint, whitePoint);
+          for (int i = 0; i < 256; i++) {
+            int rounded = (table.red[i] + (1 << (OutputTable.FRACTION_BITS - 1))) >> OutputTable.FRACTION_BITS;
+            int diff = Math.abs(rounded - (curve[i] & 0xff));
+            maxCode = Math.max(maxCode, diff);
+            if (diff != 0) {
+              ++differing;
+            }
+            ++compared;
+          }
+        }
+      }
+    }
+    boolean curveOk = maxCode <= 1;
+    failed |= !curveOk;
+    System.out.println(String.format("LX curve          max code diff %d  differing %.4f%%  %s",
+      maxCode, 100.0 * differing / compared, curveOk ? "ok" : "EXCEEDED"));
+
+    // Dithered average of a dim curve over FRAMES frames
+    table.update(2.2, DIM_BRIGHTNESS, 255, 255, 255);
+    byte[] error = new byte[256];
+    double maxError = 0;
+    int dithered = 0;
+    int rounded = 0;
+    int lastRounded = -1;
+    double lastAverage = -1;
+    for (int i = 0; i < 256; i++) {
+      long sum = 0;
+      for (int f = 0; f < FRAMES; f++) {
+        sum += OutputTable.dither(table.red[i], error, i);
+      }
+      double average = (double) sum / FRAMES;
+      maxError = Math.max(maxError, Math.abs(average - (double) table.red[i] / (1 << OutputTable.FRACTION_BITS)));
+      if (average != lastAverage) {
+        ++dithered;
+        lastAverage = average;
+      }
+      int r = (table.red[i] + (1 << (OutputTable.FRACTION_BITS - 1))) >> OutputTable.FRACTION_BITS;
+      if (r != lastRounded) {
+        ++rounded;
+        lastRounded = r;
+      }
+    }
+    // The carried error is below one code, so the sum is off by less than that
+    double bound = 1.0 / FRAMES;
+    boolean ditherOk = maxError <= bound;
+    failed |= !ditherOk;
+    System.out.println(String.format("Dither average    max error %.4f codes, bound %.4f  %s",
+      maxError, bound, ditherOk ? "ok" : "EXCEEDED"));
+    System.out.println(String.format("Fade at %.0f%%       %d distinct levels rounded, %d dithered",
+      100 * DIM_BRIGHTNESS, rounded, dithered));
+
+    if (failed) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.pattern;
+
+import heronarts.lx.LX;
+import com.duckpond.benchmark.BenchmarkModel;
+import com.duckpond.expr.Kernel;
+
+/**
+ * Checks the pattern files bundled with ExpressionPattern against the
+ * hand-written patterns they mirror. Both are stepped at 60 fps for a
+ * minute with each precision, and every frame must match exactly. Also
+ * reports the terms hoisted out of the kernels and the frame time of both,
+ * use PatternBenchmark with -p pattern=Spring,Spring.json for a proper
+ * measurement.
+ *
+ * Run with: java -cp ... com.duckpond.pattern.ExpressionPatternCheck
+ */
+public class ExpressionPatternCheck {
+
+  private static final String[] PATTERNS = { "Spring", "Summer", "Autumn", "Winter" };
+
+  private static final int FRAMES = 3600;
+
+  private static final int WARMUP_FRAMES = 600;
+
+  public static void main(String[] args) throws Exception {
+    LX lx = BenchmarkModel.createLX();
+    boolean failed = false;
+    try {
+      System.out.println(String.format("%-8s %-6s %6s %6s %10s %12s %12s  %s",
+        "Pattern", "Math", "frame", "point", "LEDs diff", "ns/frame", "file ns", "Status"));
+      for (String name : PATTERNS) {
+        for (UmbrellaPattern.Precision precision : UmbrellaPattern.Precision.values()) {
+          UmbrellaPattern written = PatternBenchmark.createPattern(lx, name);
+          ExpressionPattern expression = (ExpressionPattern) PatternBenchmark.createPattern(lx, name + ".json");
+          written.precision.setValue(precision);
+          expression.precision.setValue(precision);
+          expression.awaitKernel();
+
+          long differing = 0;
+          long writtenNs = 0;
+          long expressionNs = 0;
+          for (int frame = 0; frame < FRAMES; frame++) {
+            long t0 = System.nanoTime();
+            written.run(PatternBenchmark.FRAME_MS);
+            long t1 = System.nanoTime();
+            expression.run(PatternBenchmark.FRAME_MS);
+            long t2 = System.nanoTime();
+            if (frame >= WARMUP_FRAMES) {
+              writtenNs += t1 - t0;
+              expressionNs += t2 - t1;
+            }
+            int[] a = written.getColors();
+            int[] b = expression.getColors();
+            for (int i = 0; i < a.length; i++) {
+              if (a[i] != b[i]) {
+                differing++;
+              }
+            }
+          }
+
+          Kernel kernel = expression.getPatternFile().compile(precision == UmbrellaPattern.Precision.FAST);
+          boolean ok = differing == 0;
+          failed |= !ok;
+          int measured = FRAMES - WARMUP_FRAMES;
+          System.out.println(String.format("%-8s %-6s %6d %6d %10d %12d %12d  %s",
+            name, precision, kernel.frameSize, kernel.fieldCount, differing,
+            writtenNs / measured, expressionNs / measured, ok ? "OK" : "FAIL"));
+          written.dispose();
+          expression.dispose();
+        }
+      }
+    } finally {
+      lx.dispose();
+    }
+    if (failed) {
+      System.exit(1);
+    }
+  }
+}
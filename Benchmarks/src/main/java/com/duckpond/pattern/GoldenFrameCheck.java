@@ -0,0 +1,350 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.pattern;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import org.openjdk.jmh.annotations.Param;
+import heronarts.lx.LX;
+import com.duckpond.ColorSpace;
+import com.duckpond.Float4;
+import com.duckpond.FrameFile;
+import com.duckpond.benchmark.BenchmarkModel;
+
+/**
+ * Renders every pattern in com.duckpond.pattern at fixed times on the
+ * umbrellas.lxf model and compares the frames against stored golden
+ * frames, with a per-LED tolerance in Oklab deltaE. The same run measures
+ * the frame rate of each pattern, so a change to the kernels, Gradient,
+ * ColorSpace or Float4 is checked for both look and cost.
+ *
+ * Each pattern is stepped at 60 fps from a fresh instance, capturing the
+ * frames listed in CAPTURE_FRAMES. Goldens are FrameFiles named after the
+ * pattern in the golden directory. Exits with 1 if any pattern deviates
+ * by more than the tolerance, has no golden, or is missing from the
+ * pattern list of PatternBenchmark.
+ *
+ * Run with: java -cp ... com.duckpond.pattern.GoldenFrameCheck [options]
+ *   --update          Write the current frames as the new goldens
+ *   --golden DIR      Golden directory, default golden or Benchmarks/golden
+ *   --tolerance DE    Largest allowed Oklab deltaE per LED, default 0.02
+ *   --precision P     EXACT or FAST
+ *   --float           Render with the patterns' Float switch on
+ *   --record FILE     Append the results to a tab separated history file
+ */
+public class GoldenFrameCheck {
+
+  public static final double FRAME_MS = PatternBenchmark.FRAME_MS;
+
+  // Frames captured per pattern, 1/60 s to one minute in
+  static final int[] CAPTURE_FRAMES = { 1, 60, 450, 1800, 3600 };
+
+  // Frames before this one don't count towards the frame rate
+  private static final int WARMUP_FRAMES = 600;
+
+  public static final double DEFAULT_TOLERANCE = 0.02;
+
+  private static class Result {
+    final String pattern;
+    double maxDeltaE = 0;
+    double sumDeltaE = 0;
+    int samples = 0;
+    int failedLeds = 0;
+    double nsPerFrame = 0;
+    int points = 0;
+    String error = null;
+
+    Result(String pattern) {
+      this.pattern = pattern;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    boolean update = false;
+    File golden = null;
+    double tolerance = DEFAULT_TOLERANCE;
+    UmbrellaPattern.Precision precision = UmbrellaPattern.Precision.EXACT;
+    boolean singlePrecision = false;
+    File record = null;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+      case "--update":
+        update = true;
+        break;
+      case "--golden":
+        golden = new File(args[++i]);
+        break;
+      case "--tolerance":
+        tolerance = Double.parseDouble(args[++i]);
+        break;
+      case "--precision":
+        precision = UmbrellaPattern.Precision.valueOf(args[++i].toUpperCase(Locale.ROOT));
+        break;
+      case "--float":
+        singlePrecision = true;
+        break;
+      case "--record":
+        record = new File(args[++i]);
+        break;
+      default:
+        System.err.println("Unknown argument: " + args[i]);
+        System.exit(2);
+      }
+    }
+    if (update && singlePrecision) {
+      System.err.println("Goldens are rendered in double precision, --update can't be combined with --float");
+      System.exit(2);
+    }
+    if (golden == null) {
+      golden = new File("golden").isDirectory() ? new File("golden") : new File("Benchmarks/golden");
+    }
+    if (update) {
+      golden.mkdirs();
+    }
+
+    LX lx = BenchmarkModel.createLX();
+    List<String> patterns = findPatterns();
+    List<Result> results = new ArrayList<Result>();
+    for (String name : patterns) {
+      Result result = new Result(name);
+      try {
+        run(lx, name, new File(golden, name + ".dpf"), update, tolerance, precision, singlePrecision, result);
+      } catch (IOException x) {
+        result.error = x.getMessage();
+      }
+      results.add(result);
+    }
+    lx.dispose();
+
+    String mode = precision + (singlePrecision ? "/FLOAT" : "");
+    boolean failed = report(results, update, tolerance, mode);
+    for (String name : missingBenchmarks(patterns)) {
+      System.out.println(name + " is missing from the PatternBenchmark pattern list");
+      failed = true;
+    }
+    if (record != null) {
+      record(record, results, mode);
+    }
+    System.exit(failed ? 1 : 0);
+  }
+
+  private static void run(LX lx, String name, File file, boolean update, double tolerance, UmbrellaPattern.Precision precision, boolean singlePrecision, Result result) throws Exception {
+    UmbrellaPattern pattern = PatternBenchmark.createPattern(lx, name);
+    pattern.precision.setValue(precision);
+    pattern.singlePrecision.setValue(singlePrecision);
+    if (pattern instanceof ExpressionPattern) {
+      ((ExpressionPattern) pattern).awaitKernel();
+    }
+    int points = lx.getModel().points.length;
+    int[] expected = new int[points];
+    result.points = points;
+
+    FrameFile.Writer writer = null;
+    FrameFile reader = null;
+    if (update) {
+      writer = new FrameFile.Writer(file, points, CAPTURE_FRAMES.length, 1000.0 / FRAME_MS, FRAME_MS, name);
+    } else if (!file.exists()) {
+      throw new IOException("No golden frames, run with --update");
+    } else {
+      reader = FrameFile.open(file);
+      if (reader.points != points || reader.frames != CAPTURE_FRAMES.length) {
+        reader.close();
+        throw new IOException("Golden frames don't match the model, run with --update");
+      }
+    }
+
+    Float4 actualOklab = new Float4(0.0);
+    Float4 expectedOklab = new Float4(0.0);
+    int last = CAPTURE_FRAMES[CAPTURE_FRAMES.length - 1];
+    int capture = 0;
+    long start = 0;
+    try {
+      for (int frame = 1; frame <= last; frame++) {
+        if (frame == WARMUP_FRAMES + 1) {
+          start = System.nanoTime();
+        }
+        pattern.run(FRAME_MS);
+        if (frame != CAPTURE_FRAMES[capture]) {
+          continue;
+        }
+        int[] colors = pattern.getColors();
+        if (writer != null) {
+          writer.writeFrame(colors);
+        } else {
+          reader.readFrame(capture, expected);
+          for (int i = 0; i < points; i++) {
+            double deltaE = deltaE(colors[i], expected[i], actualOklab, expectedOklab);
+            result.maxDeltaE = Math.max(result.maxDeltaE, deltaE);
+            result.sumDeltaE += deltaE;
+            result.samples++;
+            if (deltaE > tolerance) {
+              result.failedLeds++;
+            }
+          }
+        }
+        capture++;
+      }
+      result.nsPerFrame = (double) (System.nanoTime() - start) / (last - WARMUP_FRAMES);
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+      if (reader != null) {
+        reader.close();
+      }
+      pattern.dispose();
+    }
+  }
+
+  private static double deltaE(int actual, int expected, Float4 actualOklab, Float4 expectedOklab) {
+    if (actual == expected) {
+      return 0;
+    }
+    toOklab(actual, actualOklab);
+    toOklab(expected, expectedOklab);
+    double dL = actualOklab.x - expectedOklab.x;
+    double da = actualOklab.y - expectedOklab.y;
+    double db = actualOklab.z - expectedOklab.z;
+    return Math.sqrt(dL * dL + da * da + db * db);
+  }
+
+  private static void toOklab(int rgb, Float4 out) {
+    ColorSpace.rgbToOklab(
+      ((rgb >>> 16) & 0xff) / 255.0,
+      ((rgb >>> 8) & 0xff) / 255.0,
+      (rgb & 0xff) / 255.0,
+      1.0, out);
+  }
+
+  private static boolean report(List<Result> results, boolean update, double tolerance, String mode) {
+    boolean failed = false;
+    System.out.println();
+    System.out.println("DuckPond golden frames (" + mode + ", " + (update ? "updated" : "tolerance " + tolerance) + ")");
+    System.out.println(String.format("%-20s %10s %10s %8s %12s %10s  %s", "Pattern", "max dE", "mean dE", "LEDs>tol", "ns/frame", "ns/LED", "Status"));
+    for (Result result : results) {
+      String status;
+      if (result.error != null) {
+        status = "FAIL " + result.error;
+        failed = true;
+      } else if (update) {
+        status = "updated";
+      } else if (result.failedLeds > 0) {
+        status = "FAIL";
+        failed = true;
+      } else {
+        status = "ok";
+      }
+      double mean = (result.samples > 0) ? result.sumDeltaE / result.samples : 0;
+      System.out.println(String.format(Locale.ROOT, "%-20s %10.5f %10.5f %8d %12.0f %10.1f  %s",
+        result.pattern, result.maxDeltaE, mean, result.failedLeds, result.nsPerFrame,
+        (result.points > 0) ? result.nsPerFrame / result.points : 0, status));
+    }
+    return failed;
+  }
+
+  private static void record(File file, List<Result> results, String mode) throws IOException {
+    boolean header = !file.exists();
+    String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.ROOT).format(new Date());
+    try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+      if (header) {
+        out.println("timestamp\tpattern\tprecision\tmaxDeltaE\tledsOverTolerance\tnsPerFrame");
+      }
+      for (Result result : results) {
+        out.println(String.format(Locale.ROOT, "%s\t%s\t%s\t%.5f\t%d\t%.0f",
+          timestamp, result.pattern, mode, result.maxDeltaE, result.failedLeds, result.nsPerFrame));
+      }
+    }
+  }
+
+  /**
+   * Patterns that PatternBenchmark doesn't measure, as its pattern list
+   * has to be kept up to date by hand
+   */
+  static List<String> missingBenchmarks(List<String> patterns) throws NoSuchFieldException {
+    Param param = PatternBenchmark.class.getField("pattern").getAnnotation(Param.class);
+    List<String> missing = new ArrayList<String>(patterns);
+    missing.removeAll(Arrays.asList(param.value()));
+    return missing;
+  }
+
+  /**
+   * Names of all concrete UmbrellaPattern classes packaged next to
+   * UmbrellaPattern, without the Pattern suffix
+   */
+  static List<String> findPatterns() throws IOException, URISyntaxException {
+    String prefix = UmbrellaPattern.class.getPackage().getName().replace('.', '/') + "/";
+    File location = new File(UmbrellaPattern.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    List<String> classes = new ArrayList<String>();
+    if (location.isDirectory()) {
+      String[] files = new File(location, prefix).list();
+      if (files != null) {
+        for (String file : files) {
+          classes.add(file);
+        }
+      }
+    } else {
+      try (JarFile jar = new JarFile(location)) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          String entry = entries.nextElement().getName();
+          if (entry.startsWith(prefix) && entry.indexOf('/', prefix.length()) < 0) {
+            classes.add(entry.substring(prefix.length()));
+          }
+        }
+      }
+    }
+
+    List<String> patterns = new ArrayList<String>();
+    for (String file : classes) {
+      if (!file.endsWith("Pattern.class") || file.indexOf('$') >= 0) {
+        continue;
+      }
+      String className = file.substring(0, file.length() - ".class".length());
+      Class<?> cls;
+      try {
+        cls = Class.forName(UmbrellaPattern.class.getPackage().getName() + "." + className);
+      } catch (ClassNotFoundException x) {
+        continue;
+      }
+      if (UmbrellaPattern.class.isAssignableFrom(cls) && !Modifier.isAbstract(cls.getModifiers())) {
+        patterns.add(className.substring(0, className.length() - "Pattern".length()));
+      }
+    }
+    Collections.sort(patterns);
+    return patterns;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.pattern;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import heronarts.lx.LX;
+import com.duckpond.RenderPool;
+import com.duckpond.benchmark.BenchmarkModel;
+
+/**
+ * Measures how parallel umbrella rendering scales with the size of the
+ * shared render pool. A thread count of 0 renders serially on the calling
+ * thread and serves as the baseline.
+ *
+ * Scale past 8 threads with e.g. -p threads=0,1,2,4,8,16
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelPatternBenchmark {
+
+  @Param({
+    "CosmicDust",
+    "StarField"
+  })
+  public String pattern;
+
+  @Param({ "0", "1", "2", "4", "8" })
+  public int threads;
+
+  private LX lx;
+  private UmbrellaPattern instance;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    this.lx = BenchmarkModel.createLX();
+    this.instance = PatternBenchmark.createPattern(this.lx, this.pattern);
+    if (this.threads > 0) {
+      RenderPool.setThreads(this.threads);
+      this.instance.parallel.setValue(true);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.lx.dispose();
+  }
+
+  @Benchmark
+  public void run() {
+    this.instance.run(PatternBenchmark.FRAME_MS);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.pattern;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import heronarts.lx.LX;
+import heronarts.lx.ModelBuffer;
+import com.duckpond.benchmark.BenchmarkModel;
+
+/**
+ * Measures one frame of each DuckPond pattern on the umbrellas.lxf model.
+ * Lives in the pattern package so it can call the protected run method
+ * directly, without the LX mixer, effects or modulators in the loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternBenchmark {
+
+  public static final double FRAME_MS = 1000.0 / 60.0;
+
+  // Every pattern in the package, GoldenFrameCheck fails on a missing one
+  @Param({
+    "AfterRain",
+    "AuroraFlow",
+    "Autumn",
+    "CosmicDust",
+    "DeepOcean",
+    "DesertDream",
+    "Expression",
+    "FireBreathing",
+    "InTheJungle",
+    "LavaDreams",
+    "MidnightMirage",
+    "Spring",
+    "StarField",
+    "Summer",
+    "SunsetPlaya",
+    "SunsetSunrise",
+    "TestStrip",
+    "Winter"
+  })
+  public String pattern;
+
+  // Compare with -p precision=EXACT,FAST
+  @Param({ "EXACT" })
+  public UmbrellaPattern.Precision precision;
+
+  // Keyframe rate in Hz, compare with e.g. -p keyframes=0,15
+  @Param({ "0" })
+  public double keyframes;
+
+  // Spoke level of detail, compare with e.g. -p lod=1,2,3
+  @Param({ "1" })
+  public int lod;
+
+  // Float kernels, compare with -p singlePrecision=false,true
+  @Param({ "false" })
+  public boolean singlePrecision;
+
+  private LX lx;
+  private UmbrellaPattern instance;
+
+  /**
+   * Creates a pattern by class name without the Pattern suffix, or an
+   * ExpressionPattern for a name ending in .json, like Spring.json
+   */
+  public static UmbrellaPattern createPattern(LX lx, String name) throws Exception {
+    UmbrellaPattern pattern;
+    if (name.endsWith(".json")) {
+      ExpressionPattern expression = new ExpressionPattern(lx);
+      expression.file.setValue(name);
+      pattern = expression;
+    } else {
+      Class<?> cls = Class.forName("com.duckpond.pattern." + name + "Pattern");
+      pattern = (UmbrellaPattern) cls.getConstructor(LX.class).newInstance(lx);
+    }
+    pattern.setBuffer(new ModelBuffer(lx));
+    return pattern;
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    this.lx = BenchmarkModel.createLX();
+    this.instance = createPattern(this.lx, this.pattern);
+    this.instance.precision.setValue(this.precision);
+    this.instance.keyframeRate.setValue(this.keyframes);
+    this.instance.lodFactor.setValue(this.lod);
+    this.instance.singlePrecision.setValue(this.singlePrecision);
+    if (this.instance instanceof ExpressionPattern) {
+      ((ExpressionPattern) this.instance).awaitKernel();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.lx.dispose();
+  }
+
+  @Benchmark
+  public void run() {
+    this.instance.run(FRAME_MS);
+  }
+}
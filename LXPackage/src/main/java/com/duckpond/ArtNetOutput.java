@@ -0,0 +1,543 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import heronarts.lx.LX;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+import heronarts.lx.output.LXOutput;
+import heronarts.lx.parameter.BooleanParameter;
+import heronarts.lx.parameter.BoundedParameter;
+import heronarts.lx.parameter.LXParameter;
+
+/**
+ * Art-Net output that writes colors straight into preallocated packets.
+ *
+ * The routes, which points go to which host, universe and channel, are
+ * read from the "outputs" of a JSON fixture file. From them a universe map
+ * is computed once per model: for every packet, the color index and byte
+ * offset of each of its points. Sending a frame is then a pass over flat
+ * arrays that writes the gamma corrected bytes into direct ByteBuffers,
+ * followed by one send per packet on a single non-blocking
+ * DatagramChannel, with all universes of a controller sent back to back.
+ * Nothing is allocated per frame.
+ *
+ * A route longer than a universe continues in the next universe, 170
+ * points per universe. Only RGB routes with literal values are supported.
+ *
+ * With Suppress on, a packet whose DMX data is the same as the last one
+ * sent is skipped, except that every packet is re-sent at least every
+ * Keep-Alive seconds so controllers don't time out and a lost packet is
+ * eventually repaired.
+ *
+ * With Dither on, colors go through an OutputTable with 8 fractional bits
+ * instead of LX's 8-bit gamma table, and the rounding error of every byte
+ * is carried to the next frame. Dithered bytes keep changing on partial
+ * levels, so fewer packets are suppressed.
+ */
+public final class ArtNetOutput extends LXOutput {
+
+  public static final int ARTNET_PORT = 6454;
+  public static final int HEADER_LENGTH = 18;
+  public static final int MAX_DATA_LENGTH = 512;
+
+  private static final int BYTES_PER_POINT = 3;
+  private static final int SEQUENCE_INDEX = 12;
+
+  /**
+   * One Art-Net output of a fixture: a range of the points with the given
+   * tags, or of all points, starting at a channel of a universe
+   */
+  public static class Route {
+    public final String host;
+    public final int port;
+    public final int universe;
+    public final int channel;
+    public final List<String> tags;
+    public final int start;
+    public final int num;
+    public final boolean sequenceEnabled;
+
+    public Route(String host, int port, int universe, int channel, List<String> tags, int start, int num, boolean sequenceEnabled) {
+      if (universe < 0 || universe > 0x7fff) {
+        throw new IllegalArgumentException("Art-Net universe out of range: " + universe);
+      }
+      if (channel < 0 || channel > MAX_DATA_LENGTH - BYTES_PER_POINT) {
+        throw new IllegalArgumentException("Art-Net channel out of range: " + channel);
+      }
+      this.host = host;
+      this.port = port;
+      this.universe = universe;
+      this.channel = channel;
+      this.tags = tags;
+      this.start = start;
+      this.num = num;
+      this.sequenceEnabled = sequenceEnabled;
+    }
+
+    /**
+     * Same route sent to another host, for example a loopback receiver
+     */
+    public Route withHost(String host, int port) {
+      return new Route(host, port, this.universe, this.channel, this.tags, this.start, this.num, this.sequenceEnabled);
+    }
+
+    @Override
+    public String toString() {
+      return "artnet://" + this.host + ":" + this.port + "/" + this.universe + "@" + this.channel + " " + this.tags;
+    }
+
+    /**
+     * Reads the Art-Net routes from the "outputs" of a JSON fixture file.
+     * Outputs of other protocols are skipped.
+     */
+    public static List<Route> load(File file) throws IOException {
+      JsonObject fixture;
+      try (Reader reader = new FileReader(file)) {
+        fixture = JsonParser.parseReader(reader).getAsJsonObject();
+      } catch (RuntimeException x) {
+        throw new IOException("Invalid fixture file " + file + ": " + x.getMessage(), x);
+      }
+      List<Route> routes = new ArrayList<Route>();
+      if (!fixture.has("outputs")) {
+        return routes;
+      }
+      for (JsonElement element : fixture.getAsJsonArray("outputs")) {
+        JsonObject output = element.getAsJsonObject();
+        if (!"artnet".equalsIgnoreCase(getString(output, "protocol", ""))) {
+          continue;
+        }
+        String byteOrder = getString(output, "byteOrder", "rgb");
+        if (!"rgb".equalsIgnoreCase(byteOrder)) {
+          throw new IOException("Unsupported byte order " + byteOrder + " in " + file);
+        }
+        List<String> tags = new ArrayList<String>();
+        if (output.has("tags")) {
+          JsonArray array = output.getAsJsonArray("tags");
+          for (JsonElement tag : array) {
+            tags.add(tag.getAsString());
+          }
+        }
+        try {
+          routes.add(new Route(
+            getString(output, "host", null),
+            getInt(output, "port", ARTNET_PORT),
+            getInt(output, "universe", 0),
+            getInt(output, "channel", 0),
+            tags,
+            getInt(output, "start", 0),
+            getInt(output, "num", -1),
+            output.has("sequenceEnabled") && output.get("sequenceEnabled").getAsBoolean()
+          ));
+        } catch (RuntimeException x) {
+          throw new IOException("Invalid Art-Net output in " + file + ": " + x.getMessage(), x);
+        }
+      }
+      return routes;
+    }
+
+    private static String getString(JsonObject object, String key, String defaultValue) {
+      return object.has(key) ? object.get(key).getAsString() : defaultValue;
+    }
+
+    private static int getInt(JsonObject object, String key, int defaultValue) {
+      if (!object.has(key)) {
+        return defaultValue;
+      }
+      JsonElement value = object.get(key);
+      if (!value.isJsonPrimitive() || !((JsonPrimitive) value).isNumber()) {
+        throw new IllegalArgumentException(key + " must be a literal number, not " + value);
+      }
+      return value.getAsInt();
+    }
+  }
+
+  /**
+   * Packets and the position of every routed point in them, for one model
+   * generation. Packets of the same host are adjacent.
+   */
+  public static class UniverseMap {
+
+    private final WeakReference<LXModel> model;
+    private final int generation;
+
+    public final int packetCount;
+
+    /** Number of routed points over all packets */
+    public final int pointCount;
+
+    final InetSocketAddress[] address;
+    final int[] universe;
+    final boolean[] sequenceEnabled;
+
+    /** DMX data length of each packet, even as Art-Net requires */
+    final int[] dataLength;
+
+    /** Offsets of each packet's points in pointIndex, length packetCount + 1 */
+    final int[] packetStart;
+
+    /** Color index of each routed point */
+    final int[] pointIndex;
+
+    /** Offset of each routed point's red byte in its packet */
+    final int[] byteOffset;
+
+    private UniverseMap(LXModel model, List<Route> routes) {
+      this.model = new WeakReference<LXModel>(model);
+      this.generation = model.getGeneration();
+
+      // Group points by host, port and universe, in route order
+      Map<String, List<int[]>> packets = new LinkedHashMap<String, List<int[]>>();
+      Map<String, Route> packetRoute = new LinkedHashMap<String, Route>();
+      Map<String, Integer> packetUniverse = new LinkedHashMap<String, Integer>();
+      Map<String, List<String>> hostPackets = new LinkedHashMap<String, List<String>>();
+      for (Route route : routes) {
+        List<LXPoint> points = resolvePoints(model, route);
+        int universe = route.universe;
+        int offset = route.channel;
+        for (LXPoint point : points) {
+          if (offset + BYTES_PER_POINT > MAX_DATA_LENGTH) {
+            universe++;
+            offset = 0;
+          }
+          String host = route.host + ":" + route.port;
+          String key = host + "/" + universe;
+          List<int[]> packet = packets.get(key);
+          if (packet == null) {
+            packet = new ArrayList<int[]>();
+            packets.put(key, packet);
+            packetRoute.put(key, route);
+            packetUniverse.put(key, universe);
+            List<String> keys = hostPackets.get(host);
+            if (keys == null) {
+              keys = new ArrayList<String>();
+              hostPackets.put(host, keys);
+            }
+            keys.add(key);
+          }
+          packet.add(new int[] { point.index, offset });
+          offset += BYTES_PER_POINT;
+        }
+      }
+
+      int count = packets.size();
+      int total = 0;
+      for (List<int[]> packet : packets.values()) {
+        total += packet.size();
+      }
+      this.packetCount = count;
+      this.pointCount = total;
+      this.address = new InetSocketAddress[count];
+      this.universe = new int[count];
+      this.sequenceEnabled = new boolean[count];
+      this.dataLength = new int[count];
+      this.packetStart = new int[count + 1];
+      this.pointIndex = new int[total];
+      this.byteOffset = new int[total];
+
+      int p = 0;
+      int i = 0;
+      for (List<String> keys : hostPackets.values()) {
+        for (String key : keys) {
+          Route route = packetRoute.get(key);
+          this.address[p] = new InetSocketAddress(route.host, route.port);
+          this.universe[p] = packetUniverse.get(key);
+          this.sequenceEnabled[p] = route.sequenceEnabled;
+          this.packetStart[p] = i;
+          int length = 0;
+          for (int[] entry : packets.get(key)) {
+            this.pointIndex[i] = entry[0];
+            this.byteOffset[i] = HEADER_LENGTH + entry[1];
+            length = Math.max(length, entry[1] + BYTES_PER_POINT);
+            i++;
+          }
+          this.dataLength[p] = length + (length & 1);
+          p++;
+        }
+      }
+      this.packetStart[count] = i;
+    }
+
+    private static List<LXPoint> resolvePoints(LXModel model, Route route) {
+      List<LXPoint> points = new ArrayList<LXPoint>();
+      if (route.tags.isEmpty()) {
+        for (LXPoint point : model.points) {
+          points.add(point);
+        }
+      } else {
+        for (String tag : route.tags) {
+          for (LXModel sub : model.sub(tag)) {
+            for (LXPoint point : sub.points) {
+              points.add(point);
+            }
+          }
+        }
+      }
+      int start = Math.min(route.start, points.size());
+      int end = (route.num < 0) ? points.size() : Math.min(start + route.num, points.size());
+      if (end - start < route.num) {
+        LX.log("Art-Net route " + route + " has only " + (end - start) + " of " + route.num + " points");
+      }
+      return points.subList(start, end);
+    }
+
+    /**
+     * Whether this map still describes the given model
+     */
+    public boolean isValid(LXModel model) {
+      return this.model.get() == model && this.generation == model.getGeneration();
+    }
+  }
+
+  public final BooleanParameter suppressUnchanged =
+    new BooleanParameter("Suppress", false)
+    .setDescription("Skip packets whose data hasn't changed since they were last sent");
+
+  public final BoundedParameter keepAlive =
+    new BoundedParameter("Keep-Alive", 1, 0.1, 10)
+    .setUnits(LXParameter.Units.SECONDS)
+    .setDescription("Longest time an unchanged packet is suppressed for");
+
+  public final BooleanParameter dither =
+    new BooleanParameter("Dither", false)
+    .setDescription("Dither the output over time, for smooth fades at low brightness");
+
+  private final List<Route> routes;
+
+  private UniverseMap map = null;
+  private ByteBuffer[] packets = null;
+  private int[] sequence = null;
+
+  // DMX data of each packet as last sent, and when
+  private byte[][] lastData = null;
+  private long[] lastSentMillis = null;
+
+  // Output curve for dithering, and the rounding error of each routed byte
+  private final OutputTable table = new OutputTable();
+  private byte[] ditherError = null;
+
+  private DatagramChannel channel = null;
+
+  private long packetsSent = 0;
+  private long packetsSuppressed = 0;
+  private long sendErrors = 0;
+  private String lastError = null;
+
+  public ArtNetOutput(LX lx, List<Route> routes) {
+    super(lx, "DuckPond Art-Net");
+    this.routes = new ArrayList<Route>(routes);
+    addParameter("suppressUnchanged", this.suppressUnchanged);
+    addParameter("keepAlive", this.keepAlive);
+    addParameter("dither", this.dither);
+  }
+
+  /**
+   * Returns the universe map for the current model, rebuilding it and the
+   * packet buffers when the model has changed
+   */
+  public UniverseMap getUniverseMap() {
+    LXModel model = this.lx.getModel();
+    if (this.map == null || !this.map.isValid(model)) {
+      this.map = new UniverseMap(model, this.routes);
+      this.packets = new ByteBuffer[this.map.packetCount];
+      this.sequence = new int[this.map.packetCount];
+      this.lastData = new byte[this.map.packetCount][];
+      this.lastSentMillis = new long[this.map.packetCount];
+      this.ditherError = new byte[this.map.pointCount * BYTES_PER_POINT];
+      for (int p = 0; p < this.map.packetCount; p++) {
+        ByteBuffer packet = ByteBuffer.allocateDirect(HEADER_LENGTH + this.map.dataLength[p]);
+        packet.put(new byte[] { 'A', 'r', 't', '-', 'N', 'e', 't', 0 });
+        packet.put((byte) 0x00); // OpDmx, little endian
+        packet.put((byte) 0x50);
+        packet.put((byte) 0);    // Protocol version 14
+        packet.put((byte) 14);
+        packet.put((byte) 0);    // Sequence
+        packet.put((byte) 0);    // Physical
+        packet.put((byte) (this.map.universe[p] & 0xff));
+        packet.put((byte) ((this.map.universe[p] >> 8) & 0x7f));
+        packet.put((byte) (this.map.dataLength[p] >> 8));
+        packet.put((byte) (this.map.dataLength[p] & 0xff));
+        packet.clear();
+        this.packets[p] = packet;
+        this.lastData[p] = new byte[this.map.dataLength[p]];
+      }
+    }
+    return this.map;
+  }
+
+  public long getPacketsSent() {
+    return this.packetsSent;
+  }
+
+  public long getPacketsSuppressed() {
+    return this.packetsSuppressed;
+  }
+
+  public long getSendErrors() {
+    return this.sendErrors;
+  }
+
+  @Override
+  protected void onSend(int[] colors, GammaTable glut, double brightness) {
+    UniverseMap map = getUniverseMap();
+    GammaTable.Curve curve = glut.level[(int) Math.round(brightness * (GammaTable.NUM_STEPS - 1))];
+    byte[] red = curve.red;
+    byte[] green = curve.green;
+    byte[] blue = curve.blue;
+
+    boolean dither = this.dither.isOn();
+    if (dither) {
+      LXOutput source = getGammaSource();
+      this.table.update(source.gamma.getValue(), brightness,
+        source.whitePointRed.getValuei(), source.whitePointGreen.getValuei(), source.whitePointBlue.getValuei());
+    }
+    int[] tableRed = this.table.red;
+    int[] tableGreen = this.table.green;
+    int[] tableBlue = this.table.blue;
+    byte[] error = this.ditherError;
+
+    DatagramChannel channel = getChannel();
+    boolean suppress = this.suppressUnchanged.isOn();
+    long now = System.currentTimeMillis();
+    long keepAliveMillis = (long) (this.keepAlive.getValue() * 1000);
+
+    for (int p = 0; p < map.packetCount; p++) {
+      ByteBuffer packet = this.packets[p];
+      byte[] last = this.lastData[p];
+      boolean changed = false;
+      for (int i = map.packetStart[p]; i < map.packetStart[p + 1]; i++) {
+        int c = colors[map.pointIndex[i]];
+        int offset = map.byteOffset[i];
+        int d = offset - HEADER_LENGTH;
+        byte r, g, b;
+        if (dither) {
+          int e = i * BYTES_PER_POINT;
+          r = (byte) OutputTable.dither(tableRed[(c >> 16) & 0xff], error, e);
+          g = (byte) OutputTable.dither(tableGreen[(c >> 8) & 0xff], error, e + 1);
+          b = (byte) OutputTable.dither(tableBlue[c & 0xff], error, e + 2);
+        } else {
+          r = red[(c >> 16) & 0xff];
+          g = green[(c >> 8) & 0xff];
+          b = blue[c & 0xff];
+        }
+        if (r != last[d] || g != last[d + 1] || b != last[d + 2]) {
+          changed = true;
+          last[d] = r;
+          last[d + 1] = g;
+          last[d + 2] = b;
+        }
+        packet.put(offset, r);
+        packet.put(offset + 1, g);
+        packet.put(offset + 2, b);
+      }
+      if (suppress && !changed && (now - this.lastSentMillis[p] < keepAliveMillis)) {
+        this.packetsSuppressed++;
+        continue;
+      }
+      if (channel == null) {
+        continue;
+      }
+      if (map.sequenceEnabled[p]) {
+        this.sequence[p] = (this.sequence[p] % 255) + 1;
+        packet.put(SEQUENCE_INDEX, (byte) this.sequence[p]);
+      }
+      packet.rewind();
+      try {
+        if (channel.send(packet, map.address[p]) > 0) {
+          this.packetsSent++;
+          this.lastSentMillis[p] = now;
+        } else {
+          // Dropped by a full socket buffer, resend on the next frame
+          this.lastSentMillis[p] = 0;
+        }
+      } catch (IOException x) {
+        this.lastSentMillis[p] = 0;
+        sendError(x, map.address[p]);
+      }
+    }
+  }
+
+  /**
+   * The output whose gamma and white point apply to this one, following
+   * Inherit up the output groups as LX does
+   */
+  private LXOutput getGammaSource() {
+    LXOutput source = this;
+    while (source.gammaMode.getEnum() == LXOutput.GammaMode.INHERIT && source.getParent() instanceof LXOutput) {
+      source = (LXOutput) source.getParent();
+    }
+    return source;
+  }
+
+  private DatagramChannel getChannel() {
+    if (this.channel == null) {
+      try {
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+      } catch (IOException x) {
+        sendError(x, null);
+      }
+    }
+    return this.channel;
+  }
+
+  // Logs only when the error changes, a missing controller fails every frame
+  private void sendError(IOException x, InetSocketAddress address) {
+    this.sendErrors++;
+    String error = x.getClass().getSimpleName() + " " + address;
+    if (!error.equals(this.lastError)) {
+      this.lastError = error;
+      LX.error(x, "DuckPond Art-Net send failed to " + address);
+    }
+  }
+
+  @Override
+  public void dispose() {
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      } catch (IOException x) {
+        // Nothing buffered to lose
+      }
+      this.channel = null;
+    }
+    super.dispose();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+/**
+ * Color conversions and gradient sampling over whole arrays of points,
+ * such as the points of an umbrella, in single precision.
+ *
+ * Colors are passed as one array per channel, and every method processes
+ * the indices [start, end) of its arrays. Output arrays may be the input
+ * arrays themselves.
+ *
+ * This class is the scalar implementation, which loops over the Float4f
+ * versions in ColorSpace and Gradient. On Java 17 and later the jar also
+ * holds an implementation on the jdk.incubator.vector API, which get()
+ * returns when the JVM was started with --add-modules jdk.incubator.vector.
+ * It produces the same packed colors and gradient samples as the scalar
+ * loops, and sRGB conversions within 2e-6. -Dduckpond.vector=false keeps
+ * the scalar loops.
+ */
+public class ColorBatch {
+
+  /** How positions outside [0, 1] map onto a gradient */
+  public enum Wrap {
+    CLAMP,
+    REPEAT,
+    REFLECT
+  }
+
+  private static final ColorBatch SCALAR = new ColorBatch();
+
+  private static final ColorBatch DEFAULT = select();
+
+  private static ColorBatch select() {
+    if (!Boolean.parseBoolean(System.getProperty("duckpond.vector", "true"))) {
+      return SCALAR;
+    }
+    ColorBatch vector = VectorSupport.createColorBatch();
+    return (vector != null) ? vector : SCALAR;
+  }
+
+  /**
+   * The fastest implementation available on this JVM
+   */
+  public static ColorBatch get() {
+    return DEFAULT;
+  }
+
+  /**
+   * The scalar implementation, available everywhere
+   */
+  public static ColorBatch scalar() {
+    return SCALAR;
+  }
+
+  protected ColorBatch() {
+  }
+
+  /**
+   * Short description of the implementation, e.g. for benchmark reports
+   */
+  public String getName() {
+    return "scalar";
+  }
+
+  /**
+   * Convert Oklab colors to packed, opaque 8-bit RGB ints, giving the same
+   * codes as ColorSpace.oklab2rgb(float, float, float).
+   */
+  public void oklab2rgb(float[] L, float[] a, float[] b, int[] out, int start, int end) {
+    for (int i = start; i < end; i++) {
+      out[i] = ColorSpace.oklab2rgb(L[i], a[i], b[i]);
+    }
+  }
+
+  /**
+   * Convert Oklab colors to sRGB values (0-1, clamped).
+   */
+  public void oklab2srgb(float[] L, float[] a, float[] b, float[] r, float[] g, float[] bOut, int start, int end) {
+    Float4f color = new Float4f(0f);
+    for (int i = start; i < end; i++) {
+      ColorSpace.oklab2srgb(color.set(L[i], a[i], b[i], 1f), color);
+      r[i] = color.x;
+      g[i] = color.y;
+      bOut[i] = color.z;
+    }
+  }
+
+  /**
+   * Convert sRGB values (0-1) to Oklab colors.
+   */
+  public void srgb2oklab(float[] r, float[] g, float[] b, float[] L, float[] a, float[] bOut, int start, int end) {
+    Float4f color = new Float4f(0f);
+    for (int i = start; i < end; i++) {
+      ColorSpace.srgb2oklab(color.set(r[i], g[i], b[i], 1f), color);
+      L[i] = color.x;
+      a[i] = color.y;
+      bOut[i] = color.z;
+    }
+  }
+
+  /**
+   * Sample a gradient at each position into Oklab colors, the same as the
+   * Float4f clamp, repeat and reflect methods of Gradient. Alpha is not
+   * sampled.
+   */
+  public void sample(Gradient gradient, Wrap wrap, float[] pos, float[] L, float[] a, float[] b, int start, int end) {
+    Float4f color = new Float4f(0f);
+    for (int i = start; i < end; i++) {
+      switch (wrap) {
+      case CLAMP:
+        gradient.clamp(pos[i], color);
+        break;
+      case REPEAT:
+        gradient.repeat(pos[i], color);
+        break;
+      default:
+        gradient.reflect(pos[i], color);
+        break;
+      }
+      L[i] = color.x;
+      a[i] = color.y;
+      b[i] = color.z;
+    }
+  }
+}
@@ -28,9 +28,32 @@ package com.duckpond;
  * 
  * Oklab is a perceptually uniform color space that provides smooth,
  * natural-looking color transitions and gradients.
+ * 
+ * The Float4f overloads run the same conversions in single precision for
+ * the float kernels. FloatPrecisionCheck in the Benchmarks module measures
+ * them against the double versions.
  */
 public class ColorSpace {
   
+  // Buckets per unit of the linear to 8-bit sRGB transfer table. One extra
+  // bucket past 1.0 covers 1.0 itself, which the exact curve maps to 254.
+  static final int TRANSFER_SIZE = 4096;
+  private static final double TRANSFER_LIMIT = (double) (TRANSFER_SIZE + 1) / TRANSFER_SIZE;
+  
+  // 8-bit code at the start of each bucket, and the linear value within
+  // the bucket at which the code steps up by one (infinity if it doesn't)
+  static final byte[] transferCode = new byte[TRANSFER_SIZE + 1];
+  private static final double[] transferStep = new double[TRANSFER_SIZE + 1];
+  
+  // The steps rounded up to float, so float input gets the same codes.
+  // Package visible for the vectorized ColorBatch.
+  static final float TRANSFER_LIMIT_F = (float) TRANSFER_LIMIT;
+  static final float[] transferStepF = new float[TRANSFER_SIZE + 1];
+  
+  static {
+    buildTransferTable();
+  }
+  
   /**
    * Convert HSV color to RGB.
    * 
@@ -38,6 +61,17 @@ public class ColorSpace {
    * @return Float4 containing RGB values (0-1) and alpha
    */
   public static Float4 hsv2rgb(Float4 hsv) {
+    return hsv2rgb(hsv, new Float4(0.0));
+  }
+  
+  /**
+   * Convert HSV color to RGB, writing into an existing Float4.
+   * 
+   * @param hsv Float4 containing hue (0-1), saturation (0-1), value (0-1), and alpha
+   * @param out Float4 receiving RGB values (0-1) and alpha, may be hsv itself
+   * @return out
+   */
+  public static Float4 hsv2rgb(Float4 hsv, Float4 out) {
     double h = hsv.x;
     double s = hsv.y;
     double v = hsv.z;
@@ -60,7 +94,7 @@ public class ColorSpace {
         case 5: r = v; g = p; b = q; break;
       }
     }
-    return new Float4(r, g, b, hsv.w);
+    return out.set(r, g, b, hsv.w);
   }
   
   /**
@@ -92,6 +126,17 @@ public class ColorSpace {
    * @return Float4 containing Oklab values (L, a, b) and alpha
    */
   public static Float4 srgb2oklab(Float4 srgb) {
+    return srgb2oklab(srgb, new Float4(0.0));
+  }
+  
+  /**
+   * Convert sRGB color to Oklab, writing into an existing Float4.
+   * 
+   * @param srgb Float4 containing sRGB values (0-1) and alpha
+   * @param out Float4 receiving Oklab values (L, a, b) and alpha, may be srgb itself
+   * @return out
+   */
+  public static Float4 srgb2oklab(Float4 srgb, Float4 out) {
     double r = linearize_srgb(srgb.x);
     double g = linearize_srgb(srgb.y);
     double b = linearize_srgb(srgb.z);
@@ -108,7 +153,7 @@ public class ColorSpace {
     double a = 1.9779984951 * l_ - 2.4285922050 * m_ + 0.4505937099 * s_;
     double b_ = 0.0259040371 * l_ + 0.7827717662 * m_ - 0.8086757660 * s_;
 
-    return new Float4(L, a, b_, srgb.w);
+    return out.set(L, a, b_, srgb.w);
   }
   
   /**
@@ -118,6 +163,17 @@ public class ColorSpace {
    * @return Float4 containing sRGB values (0-1, clamped) and alpha
    */
   public static Float4 oklab2srgb(Float4 oklab) {
+    return oklab2srgb(oklab, new Float4(0.0));
+  }
+  
+  /**
+   * Convert Oklab color to sRGB, writing into an existing Float4.
+   * 
+   * @param oklab Float4 containing Oklab values (L, a, b) and alpha
+   * @param out Float4 receiving sRGB values (0-1, clamped) and alpha, may be oklab itself
+   * @return out
+   */
+  public static Float4 oklab2srgb(Float4 oklab, Float4 out) {
     double L = oklab.x;
     double a = oklab.y;
     double b = oklab.z;
@@ -142,7 +198,206 @@ public class ColorSpace {
     g = Math.max(0.0, Math.min(1.0, g));
     b_ = Math.max(0.0, Math.min(1.0, b_));
 
-    return new Float4(r, g, b_, oklab.w);
+    return out.set(r, g, b_, oklab.w);
+  }
+  
+  /**
+   * Convert Oklab color straight to a packed, opaque 8-bit RGB int as
+   * produced by LX.rgb.
+   * 
+   * The sRGB transfer curve is read from a table rather than computed with
+   * Math.pow. Every bucket of the table stores its 8-bit code plus the exact
+   * linear value at which the next code begins, so the result matches
+   * (int) (oklab2srgb(oklab).x * 255) per channel for every input: the
+   * maximum error against the exact conversion is 0 code values.
+   * 
+   * @param oklab Float4 containing Oklab values (L, a, b), alpha is ignored
+   * @return Packed color, 0xffRRGGBB
+   */
+  public static int oklab2rgb(Float4 oklab) {
+    return oklab2rgb(oklab.x, oklab.y, oklab.z);
+  }
+  
+  /**
+   * Convert Oklab color straight to a packed, opaque 8-bit RGB int.
+   * 
+   * @param L Oklab lightness
+   * @param a Oklab green-red axis
+   * @param b Oklab blue-yellow axis
+   * @return Packed color, 0xffRRGGBB
+   */
+  public static int oklab2rgb(double L, double a, double b) {
+    double l_ = L + 0.3963377774 * a + 0.2158037573 * b;
+    double m_ = L - 0.1055613458 * a - 0.0638541728 * b;
+    double s_ = L - 0.0894841775 * a - 1.2914855480 * b;
+
+    double l = l_ * l_ * l_;
+    double m = m_ * m_ * m_;
+    double s = s_ * s_ * s_;
+
+    double r = +4.0767416621 * l - 3.3077115913 * m + 0.2309699292 * s;
+    double g = -1.2684380046 * l + 2.6097574011 * m - 0.3413193965 * s;
+    double b_ = -0.0041960863 * l - 0.7034186147 * m + 1.7076147010 * s;
+
+    return 0xff000000 | (transfer(r) << 16) | (transfer(g) << 8) | transfer(b_);
+  }
+  
+  /**
+   * Convert Oklab color straight to a packed, opaque 8-bit RGB int, in
+   * single precision up to the transfer table.
+   * 
+   * @param oklab Float4f containing Oklab values (L, a, b), alpha is ignored
+   * @return Packed color, 0xffRRGGBB
+   */
+  public static int oklab2rgb(Float4f oklab) {
+    return oklab2rgb(oklab.x, oklab.y, oklab.z);
+  }
+  
+  /**
+   * Convert Oklab color straight to a packed, opaque 8-bit RGB int, in
+   * single precision up to the transfer table.
+   */
+  public static int oklab2rgb(float L, float a, float b) {
+    float l_ = L + 0.3963377774f * a + 0.2158037573f * b;
+    float m_ = L - 0.1055613458f * a - 0.0638541728f * b;
+    float s_ = L - 0.0894841775f * a - 1.2914855480f * b;
+
+    float l = l_ * l_ * l_;
+    float m = m_ * m_ * m_;
+    float s = s_ * s_ * s_;
+
+    float r = +4.0767416621f * l - 3.3077115913f * m + 0.2309699292f * s;
+    float g = -1.2684380046f * l + 2.6097574011f * m - 0.3413193965f * s;
+    float b_ = -0.0041960863f * l - 0.7034186147f * m + 1.7076147010f * s;
+
+    return 0xff000000 | (transferf(r) << 16) | (transferf(g) << 8) | transferf(b_);
+  }
+  
+  /**
+   * Convert Oklab color to sRGB in single precision.
+   * 
+   * @param oklab Float4f containing Oklab values (L, a, b) and alpha
+   * @param out Float4f receiving sRGB values (0-1, clamped) and alpha, may be oklab itself
+   * @return out
+   */
+  public static Float4f oklab2srgb(Float4f oklab, Float4f out) {
+    float L = oklab.x;
+    float a = oklab.y;
+    float b = oklab.z;
+
+    float l_ = L + 0.3963377774f * a + 0.2158037573f * b;
+    float m_ = L - 0.1055613458f * a - 0.0638541728f * b;
+    float s_ = L - 0.0894841775f * a - 1.2914855480f * b;
+
+    float l = l_ * l_ * l_;
+    float m = m_ * m_ * m_;
+    float s = s_ * s_ * s_;
+
+    float r = +4.0767416621f * l - 3.3077115913f * m + 0.2309699292f * s;
+    float g = -1.2684380046f * l + 2.6097574011f * m - 0.3413193965f * s;
+    float b_ = -0.0041960863f * l - 0.7034186147f * m + 1.7076147010f * s;
+
+    r = (float) delinearize_srgb(r);
+    g = (float) delinearize_srgb(g);
+    b_ = (float) delinearize_srgb(b_);
+
+    r = Math.max(0f, Math.min(1f, r));
+    g = Math.max(0f, Math.min(1f, g));
+    b_ = Math.max(0f, Math.min(1f, b_));
+
+    return out.set(r, g, b_, oklab.w);
+  }
+  
+  /**
+   * Convert sRGB color to Oklab in single precision.
+   * 
+   * @param srgb Float4f containing sRGB values (0-1) and alpha
+   * @param out Float4f receiving Oklab values (L, a, b) and alpha, may be srgb itself
+   * @return out
+   */
+  public static Float4f srgb2oklab(Float4f srgb, Float4f out) {
+    float r = (float) linearize_srgb(srgb.x);
+    float g = (float) linearize_srgb(srgb.y);
+    float b = (float) linearize_srgb(srgb.z);
+
+    float l = 0.4122214708f * r + 0.5363325363f * g + 0.0514459929f * b;
+    float m = 0.2119034982f * r + 0.6806995451f * g + 0.1073969566f * b;
+    float s = 0.0883024619f * r + 0.2817188376f * g + 0.6299787005f * b;
+
+    float l_ = (float) Math.cbrt(l);
+    float m_ = (float) Math.cbrt(m);
+    float s_ = (float) Math.cbrt(s);
+
+    float L = 0.2104542553f * l_ + 0.7936177850f * m_ - 0.0040720468f * s_;
+    float a = 1.9779984951f * l_ - 2.4285922050f * m_ + 0.4505937099f * s_;
+    float b_ = 0.0259040371f * l_ + 0.7827717662f * m_ - 0.8086757660f * s_;
+
+    return out.set(L, a, b_, srgb.w);
+  }
+  
+  /**
+   * Linear RGB value to clamped 8-bit sRGB code.
+   */
+  private static int transfer(double x) {
+    if (!(x > 0.0)) {
+      return 0;
+    }
+    if (x >= TRANSFER_LIMIT) {
+      return 255;
+    }
+    int i = (int) (x * TRANSFER_SIZE);
+    int code = transferCode[i] & 0xff;
+    return x >= transferStep[i] ? code + 1 : code;
+  }
+  
+  /**
+   * Same codes as transfer((double) x), without leaving float.
+   */
+  static int transferf(float x) {
+    if (!(x > 0f)) {
+      return 0;
+    }
+    if (x >= TRANSFER_LIMIT_F) {
+      return 255;
+    }
+    int i = (int) (x * TRANSFER_SIZE);
+    int code = transferCode[i] & 0xff;
+    return x >= transferStepF[i] ? code + 1 : code;
+  }
+  
+  /**
+   * Reference transfer the table reproduces, as done after oklab2srgb.
+   */
+  private static int transferExact(double x) {
+    return (int) (Math.max(0.0, Math.min(1.0, delinearize_srgb(x))) * 255.0);
+  }
+  
+  private static void buildTransferTable() {
+    for (int i = 0; i <= TRANSFER_SIZE; i++) {
+      double lo = (double) i / TRANSFER_SIZE;
+      double hi = (double) (i + 1) / TRANSFER_SIZE;
+      int code = transferExact(lo);
+      transferCode[i] = (byte) code;
+      transferStep[i] = Double.POSITIVE_INFINITY;
+      if (transferExact(Math.nextDown(hi)) > code) {
+        // Bisect for the first value with a higher code, the buckets are
+        // narrower than the code spacing so there is at most one step
+        while (Math.nextUp(lo) < hi) {
+          double mid = lo + (hi - lo) * 0.5;
+          if (mid <= lo || mid >= hi) {
+            break;
+          }
+          if (transferExact(mid) > code) {
+            hi = mid;
+          } else {
+            lo = mid;
+          }
+        }
+        transferStep[i] = hi;
+      }
+      float step = (float) transferStep[i];
+      transferStepF[i] = step < transferStep[i] ? Math.nextUp(step) : step;
+    }
   }
   
   /**
@@ -183,4 +438,26 @@ public class ColorSpace {
   public static Float4 rgbToOklab(double r, double g, double b, double a) {
     return srgb2oklab(new Float4(r, g, b, a));
   }
+  
+  /**
+   * Convert RGB values to Oklab with alpha, writing into an existing Float4.
+   * 
+   * @param r Red component (0-1)
+   * @param g Green component (0-1)
+   * @param b Blue component (0-1)
+   * @param a Alpha component (0-1)
+   * @param out Float4 receiving Oklab values with specified alpha
+   * @return out
+   */
+  public static Float4 rgbToOklab(double r, double g, double b, double a, Float4 out) {
+    return srgb2oklab(out.set(r, g, b, a), out);
+  }
+  
+  /**
+   * Convert RGB values to Oklab with alpha in single precision, writing
+   * into an existing Float4f.
+   */
+  public static Float4f rgbToOklab(float r, float g, float b, float a, Float4f out) {
+    return srgb2oklab(out.set(r, g, b, a), out);
+  }
 }
\ No newline at end of file
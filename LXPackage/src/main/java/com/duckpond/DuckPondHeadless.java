@@ -22,46 +22,382 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 package com.duckpond;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import heronarts.lx.LX;
+import heronarts.lx.LXLoopTask;
 import heronarts.lx.model.GridModel;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.pattern.LXPattern;
+import heronarts.lx.structure.JsonFixture;
+import heronarts.lx.structure.LXFixture;
 
 /**
  * DuckPond Bar Headless Application
  * 
  * Simple headless runner that loads LXP project files
+ *
+ * Options control the frame rate, render threads, whether a placeholder
+ * model is built before the project loads, and which LX subsystems stay
+ * off. Run with --help for the list. Startup time to the first frame is
+ * reported once the engine runs, and idle CPU and memory shortly after.
+ *
+ * With --render the engine thread is never started. Instead the project
+ * mix, or a single pattern, is rendered offline for a number of frames at
+ * a fixed deltaMs into a FrameFile, with network output inactive.
+ * --bake renders a seamless loop of one pattern for BakedPattern the
+ * same way.
+ *
+ * With --artnet the Art-Net outputs of the project's fixture files are
+ * sent by ArtNetOutput instead of LX's structure output, optionally
+ * skipping packets that haven't changed.
+ *
+ * Render metrics of all patterns are logged every duckpond.metricsInterval
+ * seconds (default 10, 0 disables), and served as JSON on
+ * http://127.0.0.1:PORT/metrics when duckpond.metricsPort is set. Both
+ * can also be given as options.
  */
 public class DuckPondHeadless {
 
+  public static final String METRICS_INTERVAL_PROPERTY = "duckpond.metricsInterval";
+
+  public static final String METRICS_PORT_PROPERTY = "duckpond.metricsPort";
+
+  // Seconds to let the engine settle, and to measure idle load over
+  private static final int IDLE_SETTLE_SECONDS = 5;
+  private static final int IDLE_MEASURE_SECONDS = 10;
+
+  private static final String USAGE =
+    "Usage: DuckPondHeadless [options] [project.lxp]\n" +
+    "  --fps N                Target engine frame rate\n" +
+    "  --threads N            DuckPond render pool threads, for patterns set to Parallel\n" +
+    "  --multithreaded        Run LX channels and network output on their own threads\n" +
+    "  --no-placeholder       Skip the placeholder grid model, use the project's fixtures\n" +
+    "  --media DIR            LX media directory, containing Fixtures/\n" +
+    "  --no-audio             Keep audio input off\n" +
+    "  --no-midi              Stop MIDI device discovery\n" +
+    "  --no-osc               Keep OSC receive and transmit off\n" +
+    "  --no-dmx               Keep Art-Net DMX input off\n" +
+    "  --lean                 All of --no-placeholder --no-audio --no-midi --no-osc --no-dmx\n" +
+    "  --metrics-interval S   Seconds between metrics log lines, 0 disables\n" +
+    "  --metrics-port P       Serve metrics JSON on 127.0.0.1:P/metrics\n" +
+    "  --artnet               Send the fixtures' Art-Net outputs with DuckPond's writer\n" +
+    "  --artnet-suppress      With --artnet, skip universes that haven't changed\n" +
+    "  --artnet-keep-alive S  Resend unchanged universes every S seconds, default 1\n" +
+    "  --artnet-dither        With --artnet, dither the output over time\n" +
+    "  --render FILE          Render offline into a frame file and exit\n" +
+    "  --frames N             Frames to render offline, default 600\n" +
+    "  --delta MS             Simulated time step per frame, default 1000 / fps\n" +
+    "  --pattern NAME         Render only this pattern instead of the project mix\n" +
+    "  --bake FILE            Bake a loop of --pattern for BakedPattern and exit\n" +
+    "  --loop S               Seconds in the baked loop, default 60\n" +
+    "  --crossfade S          Seconds of crossfade at the loop point, default 2\n" +
+    "  --speed V              Speed parameter of the baked pattern\n" +
+    "  --compress             Delta compress the baked frames\n" +
+    "  --help                 Show this message";
+
+  /**
+   * Command line options of the headless runner
+   */
+  static class Options {
+    String project = null;
+    double fps = 0;
+    int threads = 0;
+    boolean multithreaded = false;
+    boolean placeholder = true;
+    String mediaPath = null;
+    boolean audio = true;
+    boolean midi = true;
+    boolean osc = true;
+    boolean dmx = true;
+    boolean artnet = false;
+    boolean artnetSuppress = false;
+    double artnetKeepAlive = 1;
+    boolean artnetDither = false;
+    int metricsInterval = Integer.getInteger(METRICS_INTERVAL_PROPERTY, 10);
+    int metricsPort = Integer.getInteger(METRICS_PORT_PROPERTY, 0);
+    String render = null;
+    int frames = 600;
+    double deltaMs = 0;
+    String pattern = null;
+    String bake = null;
+    double loopSeconds = 60;
+    double crossfadeSeconds = 2;
+    Double speed = null;
+    boolean compress = false;
+    boolean help = false;
+
+    static Options parse(String[] args) {
+      Options options = new Options();
+      for (int i = 0; i < args.length; i++) {
+        String arg = args[i];
+        switch (arg) {
+        case "--fps":
+          options.fps = Double.parseDouble(value(args, ++i, arg));
+          if (options.fps <= 0) {
+            throw new IllegalArgumentException("--fps must be positive");
+          }
+          break;
+        case "--threads":
+          options.threads = Integer.parseInt(value(args, ++i, arg));
+          if (options.threads <= 0) {
+            throw new IllegalArgumentException("--threads must be positive");
+          }
+          break;
+        case "--multithreaded":
+          options.multithreaded = true;
+          break;
+        case "--no-placeholder":
+          options.placeholder = false;
+          break;
+        case "--media":
+          options.mediaPath = value(args, ++i, arg);
+          break;
+        case "--no-audio":
+          options.audio = false;
+          break;
+        case "--no-midi":
+          options.midi = false;
+          break;
+        case "--no-osc":
+          options.osc = false;
+          break;
+        case "--no-dmx":
+          options.dmx = false;
+          break;
+        case "--lean":
+          options.placeholder = options.audio = options.midi = options.osc = options.dmx = false;
+          break;
+        case "--artnet":
+          options.artnet = true;
+          break;
+        case "--artnet-suppress":
+          options.artnet = options.artnetSuppress = true;
+          break;
+        case "--artnet-dither":
+          options.artnet = options.artnetDither = true;
+          break;
+        case "--artnet-keep-alive":
+          options.artnetKeepAlive = Double.parseDouble(value(args, ++i, arg));
+          if (options.artnetKeepAlive <= 0) {
+            throw new IllegalArgumentException("--artnet-keep-alive must be positive");
+          }
+          break;
+        case "--metrics-interval":
+          options.metricsInterval = Integer.parseInt(value(args, ++i, arg));
+          break;
+        case "--metrics-port":
+          options.metricsPort = Integer.parseInt(value(args, ++i, arg));
+          break;
+        case "--render":
+          options.render = value(args, ++i, arg);
+          break;
+        case "--frames":
+          options.frames = Integer.parseInt(value(args, ++i, arg));
+          if (options.frames <= 0) {
+            throw new IllegalArgumentException("--frames must be positive");
+          }
+          break;
+        case "--delta":
+          options.deltaMs = Double.parseDouble(value(args, ++i, arg));
+          if (options.deltaMs <= 0) {
+            throw new IllegalArgumentException("--delta must be positive");
+          }
+          break;
+        case "--pattern":
+          options.pattern = value(args, ++i, arg);
+          break;
+        case "--bake":
+          options.bake = value(args, ++i, arg);
+          break;
+        case "--loop":
+          options.loopSeconds = Double.parseDouble(value(args, ++i, arg));
+          if (options.loopSeconds <= 0) {
+            throw new IllegalArgumentException("--loop must be positive");
+          }
+          break;
+        case "--crossfade":
+          options.crossfadeSeconds = Double.parseDouble(value(args, ++i, arg));
+          if (options.crossfadeSeconds < 0) {
+            throw new IllegalArgumentException("--crossfade must not be negative");
+          }
+          break;
+        case "--speed":
+          options.speed = Double.parseDouble(value(args, ++i, arg));
+          break;
+        case "--compress":
+          options.compress = true;
+          break;
+        case "--help":
+        case "-h":
+          options.help = true;
+          break;
+        default:
+          if (arg.startsWith("-")) {
+            throw new IllegalArgumentException("Unknown option: " + arg);
+          }
+          if (options.project != null) {
+            throw new IllegalArgumentException("More than one project file: " + arg);
+          }
+          options.project = arg;
+          break;
+        }
+      }
+      if (options.bake != null && options.pattern == null) {
+        throw new IllegalArgumentException("--bake needs a --pattern");
+      }
+      return options;
+    }
+
+    private static String value(String[] args, int i, String option) {
+      if (i >= args.length) {
+        throw new IllegalArgumentException(option + " needs a value");
+      }
+      return args[i];
+    }
+  }
+
   public static void main(String[] args) {
+    Options options;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException x) {
+      // Includes NumberFormatException
+      System.err.println(x.getMessage());
+      System.err.println(USAGE);
+      System.exit(2);
+      return;
+    }
+    if (options.help) {
+      System.out.println(USAGE);
+      return;
+    }
+
     try {
+      final long startNanos = System.nanoTime();
       System.out.println("Starting DuckPond Bar Headless...");
       
-      // Create a simple grid model for now (will be replaced by project file)
-      LX lx = new LX(new GridModel(30, 30));
+      if (options.threads > 0) {
+        RenderPool.setThreads(options.threads);
+      }
+
+      LX.Flags flags = new LX.Flags();
+      if (options.mediaPath != null) {
+        flags.mediaPath = options.mediaPath;
+      }
+      if (options.render != null || options.bake != null) {
+        flags.outputMode = LX.Flags.OutputMode.INACTIVE;
+      }
+
+      // Without a placeholder model, the model is built from the project's fixtures
+      LX lx = options.placeholder ? new LX(flags, new GridModel(30, 30)) : new LX(flags);
+
+      // LX starts MIDI device discovery in its constructor, stop it right away
+      if (!options.midi) {
+        lx.engine.midi.dispose();
+      }
+      disableSubsystems(lx, options);
 
       // Load project file if specified
-      if (args.length > 0) {
-        File projectFile = new File(args[0]);
+      if (options.project != null) {
+        File projectFile = new File(options.project);
         if (projectFile.exists()) {
-          System.out.println("Loading project file: " + args[0]);
+          System.out.println("Loading project file: " + options.project);
           lx.openProject(projectFile);
         } else {
-          System.err.println("Project file not found: " + args[0]);
+          System.err.println("Project file not found: " + options.project);
           System.exit(1);
         }
-      } else {
+      } else if (options.placeholder) {
         System.out.println("No project file specified, using default grid model");
+      } else {
+        System.out.println("No project file specified, the model has no fixtures");
       }
 
+      // The project may have turned them back on
+      disableSubsystems(lx, options);
+      if (options.fps > 0) {
+        lx.engine.framesPerSecond.setValue(options.fps);
+      }
+      lx.engine.isChannelMultithreaded.setValue(options.multithreaded);
+      lx.engine.isNetworkMultithreaded.setValue(options.multithreaded);
+
+      if (options.render != null) {
+        renderOffline(lx, options);
+        System.exit(0);
+      }
+      if (options.bake != null) {
+        bake(lx, options);
+        System.exit(0);
+      }
+      ArtNetOutput artnet = null;
+      if (options.artnet) {
+        artnet = useArtNetOutput(lx);
+        artnet.suppressUnchanged.setValue(options.artnetSuppress);
+        artnet.keepAlive.setValue(options.artnetKeepAlive);
+        artnet.dither.setValue(options.artnetDither);
+      }
+
+      final AtomicLong firstFrameNanos = new AtomicLong();
+      final CountDownLatch firstFrame = new CountDownLatch(1);
+      lx.engine.addLoopTask(new LXLoopTask() {
+        @Override
+        public void loop(double deltaMs) {
+          if (firstFrame.getCount() > 0 && firstFrameNanos.compareAndSet(0, System.nanoTime())) {
+            firstFrame.countDown();
+          }
+        }
+      });
+
       // Start the engine
       System.out.println("Starting LX engine...");
       lx.engine.start();
       
       System.out.println("DuckPond Bar is running!");
       System.out.println("- Model: " + lx.getModel().points.length + " LED points");
+
+      MetricsReporter.startLog(options.metricsInterval);
+      if (options.metricsPort > 0) {
+        MetricsReporter.startServer(options.metricsPort);
+        System.out.println("- Metrics: http://127.0.0.1:" + options.metricsPort + MetricsReporter.PATH);
+      }
       System.out.println("- Press Ctrl+C to exit");
-      
+
+      firstFrame.await();
+      long firstNanos = firstFrameNanos.get();
+      System.out.println(String.format("- First frame: %d ms after main, %d ms after JVM start",
+        (firstNanos - startNanos) / 1000000,
+        ManagementFactory.getRuntimeMXBean().getUptime() - (System.nanoTime() - firstNanos) / 1000000));
+
+      // Let the JIT settle, then report the steady state load
+      Thread.sleep(IDLE_SETTLE_SECONDS * 1000L);
+      long cpuStart = processCpuNanos();
+      long wallStart = System.nanoTime();
+      long sentStart = (artnet != null) ? artnet.getPacketsSent() : 0;
+      long suppressedStart = (artnet != null) ? artnet.getPacketsSuppressed() : 0;
+      Thread.sleep(IDLE_MEASURE_SECONDS * 1000L);
+      long cpu = processCpuNanos() - cpuStart;
+      long wall = System.nanoTime() - wallStart;
+      System.out.println(String.format("- Running: %.1f fps, CPU %.1f%% of one core, RSS %s",
+        lx.engine.getActualFrameRate(),
+        (cpu >= 0) ? 100.0 * cpu / wall : Double.NaN,
+        residentSetSize()));
+      if (artnet != null) {
+        System.out.println(String.format("- Art-Net: %.0f packets/s sent, %.0f/s suppressed, %d send errors",
+          (artnet.getPacketsSent() - sentStart) * 1e9 / wall,
+          (artnet.getPacketsSuppressed() - suppressedStart) * 1e9 / wall,
+          artnet.getSendErrors()));
+      }
+
       // Keep running
       while (true) {
         Thread.sleep(1000);
@@ -72,4 +408,118 @@ public class DuckPondHeadless {
       x.printStackTrace();
     }
   }
-}
\ No newline at end of file
+
+  private static void renderOffline(LX lx, Options options) throws Exception {
+    String label = "Project";
+    if (options.pattern != null) {
+      LXPattern pattern = OfflineRenderer.createPattern(lx, options.pattern);
+      OfflineRenderer.soloPattern(lx, pattern);
+      label = pattern.getClass().getSimpleName();
+    } else if (options.project != null) {
+      label = new File(options.project).getName();
+    }
+    double fps = (options.fps > 0) ? options.fps : lx.engine.framesPerSecond.getValue();
+    double deltaMs = (options.deltaMs > 0) ? options.deltaMs : 1000.0 / fps;
+
+    System.out.println(String.format("Rendering %d frames of %s at %.3f ms per frame to %s",
+      options.frames, label, deltaMs, options.render));
+    OfflineRenderer.Result result = OfflineRenderer.render(lx, new File(options.render), options.frames, fps, deltaMs, label);
+    System.out.println(String.format("- %d frames of %d points, %.1f us/frame rendering, %.1f us/frame writing, %.1f ns/LED",
+      result.frames,
+      result.points,
+      result.getRenderNanosPerFrame() / 1000,
+      result.getWriteNanosPerFrame() / 1000,
+      (result.points > 0) ? result.getRenderNanosPerFrame() / result.points : 0));
+  }
+
+  // Replaces LX's fixture outputs with one ArtNetOutput for all their routes
+  private static ArtNetOutput useArtNetOutput(LX lx) throws IOException {
+    Set<File> files = new LinkedHashSet<File>();
+    for (LXFixture fixture : lx.structure.fixtures) {
+      if (fixture instanceof JsonFixture) {
+        files.add(lx.getMediaFile(LX.Media.FIXTURES, ((JsonFixture) fixture).getFixturePath()));
+      }
+    }
+    List<ArtNetOutput.Route> routes = new ArrayList<ArtNetOutput.Route>();
+    for (File file : files) {
+      routes.addAll(ArtNetOutput.Route.load(file));
+    }
+    lx.structure.output.enabled.setValue(false);
+    ArtNetOutput output = new ArtNetOutput(lx, routes);
+    lx.engine.addOutput(output);
+
+    // Asking for Art-Net overrides a project saved with output off
+    lx.engine.output.enabled.setValue(true);
+    ArtNetOutput.UniverseMap map = output.getUniverseMap();
+    System.out.println(String.format("- Art-Net: %d routes, %d packets, %d points",
+      routes.size(), map.packetCount, map.pointCount));
+    return output;
+  }
+
+  private static void bake(LX lx, Options options) throws Exception {
+    LXPattern pattern = OfflineRenderer.createPattern(lx, options.pattern);
+    if (options.speed != null) {
+      LXParameter speed = pattern.getParameter("speed");
+      if (speed == null) {
+        throw new IllegalArgumentException(options.pattern + " has no speed parameter");
+      }
+      speed.setValue(options.speed);
+    }
+    OfflineRenderer.soloPattern(lx, pattern);
+    String label = pattern.getClass().getSimpleName();
+    double fps = (options.fps > 0) ? options.fps : lx.engine.framesPerSecond.getValue();
+    int loopFrames = (int) Math.round(options.loopSeconds * fps);
+    int crossfadeFrames = (int) Math.round(options.crossfadeSeconds * fps);
+
+    System.out.println(String.format("Baking a %d frame loop of %s with %d crossfade frames to %s",
+      loopFrames, label, crossfadeFrames, options.bake));
+    OfflineRenderer.Result result = OfflineRenderer.bake(lx, new File(options.bake), loopFrames, crossfadeFrames, fps,
+      options.compress ? FrameFile.DEFAULT_KEYFRAME_INTERVAL : 0, label);
+    System.out.println(String.format("- %d frames, %.1f us/frame rendering, %.1f MB, %.0f bytes/frame",
+      result.frames,
+      result.getRenderNanosPerFrame() / 1000,
+      result.bytes / (double) (1 << 20),
+      (double) (result.bytes - FrameFile.HEADER_SIZE) / result.frames));
+  }
+
+  private static void disableSubsystems(LX lx, Options options) {
+    if (!options.audio) {
+      lx.engine.audio.enabled.setValue(false);
+    }
+    if (!options.osc) {
+      lx.engine.osc.receiveActive.setValue(false);
+      lx.engine.osc.transmitActive.setValue(false);
+    }
+    if (!options.dmx) {
+      lx.engine.dmx.artNetReceiveActive.setValue(false);
+    }
+  }
+
+  private static long processCpuNanos() {
+    java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+    if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  // Resident set size from /proc where available, otherwise the used heap
+  private static String residentSetSize() {
+    File status = new File("/proc/self/status");
+    if (status.canRead()) {
+      try (BufferedReader reader = new BufferedReader(new FileReader(status))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("VmRSS:")) {
+            long kb = Long.parseLong(line.substring(6).trim().split("\\s+")[0]);
+            return (kb / 1024) + " MB";
+          }
+        }
+      } catch (IOException | NumberFormatException x) {
+        // Fall through to the heap
+      }
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return ((runtime.totalMemory() - runtime.freeMemory()) >> 20) + " MB heap";
+  }
+}
@@ -0,0 +1,178 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+/**
+ * Fast approximations of the transcendental functions used by the pattern
+ * kernels. Patterns reach them through UmbrellaPattern, which switches
+ * between these and java.lang.Math per its Precision parameter.
+ *
+ * Maximum errors against java.lang.Math, as measured by FastMathCheck in
+ * the Benchmarks module:
+ *
+ *   sin, cos    absolute 3e-7        (table of 4096 steps per turn, linear)
+ *   atan2       absolute 2e-8 rad    (Abramowitz and Stegun 4.4.49)
+ *   exp         relative 5e-12       (2^(j/256) table and cubic remainder)
+ *   pow         relative 1e-11 * (1 + |y log2 x|)
+ *
+ * All of these are well below the 1/255 step of an 8-bit LED channel.
+ * sinf and cosf are single precision versions for the float kernels, from
+ * a float table of the same size, within 4e-7 of java.lang.Math for the
+ * same float argument. Rounding the phase itself to float costs more as it
+ * grows, about 3e-5 at 1e3 radians.
+ * Arguments the approximations don't cover (NaN, infinities, subnormals,
+ * non-positive pow bases, exp outside +-700) are passed on to
+ * java.lang.Math, so special values behave exactly as before.
+ */
+public class FastMath {
+
+  private static final int SIN_BITS = 12;
+  private static final int SIN_SIZE = 1 << SIN_BITS;
+  private static final int SIN_MASK = SIN_SIZE - 1;
+  private static final double SIN_SCALE = SIN_SIZE / (2.0 * Math.PI);
+  private static final double[] sinTable = new double[SIN_SIZE + 1];
+  private static final float[] sinTableF = new float[SIN_SIZE + 1];
+
+  private static final int EXP_BITS = 8;
+  private static final int EXP_SIZE = 1 << EXP_BITS;
+  private static final double[] exp2Table = new double[EXP_SIZE];
+  private static final double[] log2Table = new double[EXP_SIZE];
+  private static final double[] invTable = new double[EXP_SIZE];
+
+  private static final double LN2 = Math.log(2.0);
+  private static final double LOG2E = 1.0 / LN2;
+  private static final double HALF_PI = Math.PI * 0.5;
+
+  static {
+    for (int i = 0; i <= SIN_SIZE; i++) {
+      sinTable[i] = Math.sin(i * (2.0 * Math.PI / SIN_SIZE));
+      sinTableF[i] = (float) sinTable[i];
+    }
+    for (int j = 0; j < EXP_SIZE; j++) {
+      double m = 1.0 + (double) j / EXP_SIZE;
+      exp2Table[j] = Math.pow(2.0, (double) j / EXP_SIZE);
+      log2Table[j] = Math.log(m) * LOG2E;
+      invTable[j] = 1.0 / m;
+    }
+  }
+
+  public static double sin(double x) {
+    return lookupSin(x * SIN_SCALE);
+  }
+
+  public static double cos(double x) {
+    return lookupSin(x * SIN_SCALE + (SIN_SIZE >> 2));
+  }
+
+  public static float sinf(float x) {
+    return lookupSinf(x * SIN_SCALE);
+  }
+
+  public static float cosf(float x) {
+    return lookupSinf(x * SIN_SCALE + (SIN_SIZE >> 2));
+  }
+
+  // The table index is found in double, a float index loses the fraction
+  // once the phase grows past a few hundred radians
+  private static float lookupSinf(double t) {
+    double f = Math.floor(t);
+    int i = (int) ((long) f & SIN_MASK);
+    float a = sinTableF[i];
+    return a + (sinTableF[i + 1] - a) * (float) (t - f);
+  }
+
+  private static double lookupSin(double t) {
+    double f = Math.floor(t);
+    int i = (int) ((long) f & SIN_MASK);
+    double a = sinTable[i];
+    return a + (sinTable[i + 1] - a) * (t - f);
+  }
+
+  public static double atan2(double y, double x) {
+    double ax = Math.abs(x);
+    double ay = Math.abs(y);
+    if (!(ax > 0.0 || ay > 0.0) || ax == Double.POSITIVE_INFINITY || ay == Double.POSITIVE_INFINITY) {
+      return Math.atan2(y, x);
+    }
+    double a;
+    if (ay > ax) {
+      a = HALF_PI - atan01(ax / ay);
+    } else {
+      a = atan01(ay / ax);
+    }
+    if (x < 0.0) {
+      a = Math.PI - a;
+    }
+    return Math.copySign(a, y);
+  }
+
+  // atan on [0, 1], Abramowitz and Stegun 4.4.49
+  private static double atan01(double z) {
+    double z2 = z * z;
+    return z * (1.0 + z2 * (-0.3333314528 + z2 * (0.1999355085 + z2 * (-0.1420889944
+      + z2 * (0.1065626393 + z2 * (-0.0752896400 + z2 * (0.0429096138
+      + z2 * (-0.0161657367 + z2 * 0.0028662257))))))));
+  }
+
+  public static double exp(double x) {
+    if (!(x > -700.0 && x < 700.0)) {
+      return Math.exp(x);
+    }
+    return exp2(x * LOG2E);
+  }
+
+  public static double pow(double x, double y) {
+    if (y == 2.0) {
+      return x * x;
+    }
+    if (!(x >= Double.MIN_NORMAL && x < Double.POSITIVE_INFINITY)) {
+      return Math.pow(x, y);
+    }
+    double t = y * log2(x);
+    if (!(t > -1000.0 && t < 1000.0)) {
+      return Math.pow(x, y);
+    }
+    return exp2(t);
+  }
+
+  // 2^t for |t| < 1010
+  private static double exp2(double t) {
+    double f = Math.floor(t * EXP_SIZE);
+    int n = (int) f;
+    double u = (t * EXP_SIZE - f) * (LN2 / EXP_SIZE);
+    double r = 1.0 + u * (1.0 + u * (0.5 + u * (1.0 / 6.0)));
+    double scale = Double.longBitsToDouble((long) ((n >> EXP_BITS) + 1023) << 52);
+    return scale * exp2Table[n & (EXP_SIZE - 1)] * r;
+  }
+
+  // log2 of a positive, normal, finite x
+  private static double log2(double x) {
+    long bits = Double.doubleToRawLongBits(x);
+    int e = (int) (bits >>> 52) - 1023;
+    int j = (int) (bits >>> (52 - EXP_BITS)) & (EXP_SIZE - 1);
+    double m = Double.longBitsToDouble((bits & 0x000fffffffffffffL) | 0x3ff0000000000000L);
+    double r = m * invTable[j] - 1.0;
+    double ln = r * (1.0 + r * (-0.5 + r * (1.0 / 3.0 + r * -0.25)));
+    return e + log2Table[j] + ln * LOG2E;
+  }
+}
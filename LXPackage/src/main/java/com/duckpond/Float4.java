@@ -143,4 +143,104 @@ public class Float4 {
       this.z + (other.z - this.z) * t,
       this.w + (other.w - this.w) * t);
   }
+
+  // In-place variants of the operations above. These overwrite this
+  // instance and return it, so they can be chained without allocating.
+
+  public Float4 set(double x, double y, double z, double w) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.w = w;
+    return this;
+  }
+
+  public Float4 set(Float4 o) {
+    this.x = o.x;
+    this.y = o.y;
+    this.z = o.z;
+    this.w = o.w;
+    return this;
+  }
+
+  public Float4 rotate2dLocal(double phi) {
+    double cos = Math.cos(phi);
+    double sin = Math.sin(phi);
+    double rx = cos * x - sin * y;
+    double ry = sin * x + cos * y;
+    this.x = rx;
+    this.y = ry;
+    return this;
+  }
+
+  public Float4 addLocal(Float4 o) {
+    this.x += o.x;
+    this.y += o.y;
+    this.z += o.z;
+    this.w += o.w;
+    return this;
+  }
+
+  public Float4 subLocal(Float4 o) {
+    this.x -= o.x;
+    this.y -= o.y;
+    this.z -= o.z;
+    this.w -= o.w;
+    return this;
+  }
+
+  public Float4 mulLocal(double o) {
+    this.x *= o;
+    this.y *= o;
+    this.z *= o;
+    this.w *= o;
+    return this;
+  }
+
+  public Float4 mulLocal(Float4 o) {
+    this.x *= o.x;
+    this.y *= o.y;
+    this.z *= o.z;
+    this.w *= o.w;
+    return this;
+  }
+
+  public Float4 clampLocal() {
+    this.x = Math.max(0.0, Math.min(1.0, x));
+    this.y = Math.max(0.0, Math.min(1.0, y));
+    this.z = Math.max(0.0, Math.min(1.0, z));
+    this.w = Math.max(0.0, Math.min(1.0, w));
+    return this;
+  }
+
+  public Float4 gammaLocal() {
+    this.x = Math.sqrt(x);
+    this.y = Math.sqrt(y);
+    this.z = Math.sqrt(z);
+    return this;
+  }
+
+  public Float4 maxLocal(Float4 o) {
+    this.x = Math.max(x, o.x);
+    this.y = Math.max(y, o.y);
+    this.z = Math.max(z, o.z);
+    this.w = Math.max(w, o.w);
+    return this;
+  }
+
+  public Float4 minLocal(Float4 o) {
+    this.x = Math.min(x, o.x);
+    this.y = Math.min(y, o.y);
+    this.z = Math.min(z, o.z);
+    this.w = Math.min(w, o.w);
+    return this;
+  }
+
+  public Float4 lerpLocal(Float4 other, double t) {
+    this.x = this.x + (other.x - this.x) * t;
+    this.y = this.y + (other.y - this.y) * t;
+    this.z = this.z + (other.z - this.z) * t;
+    this.w = this.w + (other.w - this.w) * t;
+    return this;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+/**
+ * Single precision counterpart of Float4 for the float kernels.
+ *
+ * Only the in-place operations are provided, since float kernels run
+ * entirely on scratch buffers handed to them by UmbrellaPattern.
+ */
+public class Float4f {
+  public float x;
+  public float y;
+  public float z;
+  public float w;
+
+  public Float4f(float a) {
+    this.x = a;
+    this.y = a;
+    this.z = a;
+    this.w = a;
+  }
+
+  public Float4f(float x, float y, float z, float w) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.w = w;
+  }
+
+  public Float4f(Float4 o) {
+    this.x = (float) o.x;
+    this.y = (float) o.y;
+    this.z = (float) o.z;
+    this.w = (float) o.w;
+  }
+
+  public float len() {
+    return (float) Math.sqrt(len2());
+  }
+
+  public float len2() {
+    return x * x + y * y + z * z;
+  }
+
+  public Float4f set(float x, float y, float z, float w) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+    this.w = w;
+    return this;
+  }
+
+  public Float4f set(Float4f o) {
+    this.x = o.x;
+    this.y = o.y;
+    this.z = o.z;
+    this.w = o.w;
+    return this;
+  }
+
+  public Float4f set(Float4 o) {
+    this.x = (float) o.x;
+    this.y = (float) o.y;
+    this.z = (float) o.z;
+    this.w = (float) o.w;
+    return this;
+  }
+
+  public Float4f rotate2dLocal(double phi) {
+    float cos = (float) Math.cos(phi);
+    float sin = (float) Math.sin(phi);
+    float rx = cos * x - sin * y;
+    float ry = sin * x + cos * y;
+    this.x = rx;
+    this.y = ry;
+    return this;
+  }
+
+  public Float4f addLocal(Float4f o) {
+    this.x += o.x;
+    this.y += o.y;
+    this.z += o.z;
+    this.w += o.w;
+    return this;
+  }
+
+  public Float4f subLocal(Float4f o) {
+    this.x -= o.x;
+    this.y -= o.y;
+    this.z -= o.z;
+    this.w -= o.w;
+    return this;
+  }
+
+  public Float4f mulLocal(float o) {
+    this.x *= o;
+    this.y *= o;
+    this.z *= o;
+    this.w *= o;
+    return this;
+  }
+
+  public Float4f mulLocal(Float4f o) {
+    this.x *= o.x;
+    this.y *= o.y;
+    this.z *= o.z;
+    this.w *= o.w;
+    return this;
+  }
+
+  public Float4f clampLocal() {
+    this.x = Math.max(0f, Math.min(1f, x));
+    this.y = Math.max(0f, Math.min(1f, y));
+    this.z = Math.max(0f, Math.min(1f, z));
+    this.w = Math.max(0f, Math.min(1f, w));
+    return this;
+  }
+
+  public Float4f maxLocal(Float4f o) {
+    this.x = Math.max(x, o.x);
+    this.y = Math.max(y, o.y);
+    this.z = Math.max(z, o.z);
+    this.w = Math.max(w, o.w);
+    return this;
+  }
+
+  public Float4f minLocal(Float4f o) {
+    this.x = Math.min(x, o.x);
+    this.y = Math.min(y, o.y);
+    this.z = Math.min(z, o.z);
+    this.w = Math.min(w, o.w);
+    return this;
+  }
+
+  public Float4f lerpLocal(Float4f other, float t) {
+    this.x = this.x + (other.x - this.x) * t;
+    this.y = this.y + (other.y - this.y) * t;
+    this.z = this.z + (other.z - this.z) * t;
+    this.w = this.w + (other.w - this.w) * t;
+    return this;
+  }
+}
@@ -0,0 +1,494 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary file of rendered frames, accessed through memory mapping.
+ *
+ * The file starts with a fixed header of HEADER_SIZE bytes, little endian:
+ *
+ *   0  magic "DPFR"
+ *   4  int    version
+ *   8  int    point count
+ *  12  int    frame count
+ *  16  int    bytes per point, 3 for R, G, B
+ *  20  int    flags, FLAG_DELTA
+ *  24  double frames per second
+ *  32  double simulated deltaMs per frame
+ *  40  short  length of the label in bytes, followed by the UTF-8 label
+ * 184  int    loop length in frames, 0 if the frames are not a loop
+ * 188  int    crossfade length in frames, stored after the loop
+ * 192  int    keyframe interval of delta frames
+ *
+ * Without FLAG_DELTA the frames follow the header, each point count * 3
+ * bytes of R, G, B in model point order. With FLAG_DELTA the header is
+ * followed by a table of frame count + 1 long file offsets, then by the
+ * frame records. Every keyframe interval-th record is a full frame, the
+ * others are runs of [short skip][short length][length bytes] replacing
+ * bytes of the previous frame.
+ *
+ * Readers map the file in windows, so it may be larger than a single
+ * mapping allows, and a reader's window size bounds how much of it is
+ * mapped at a time. Writers append through the file channel, so that the
+ * file can be cut to length on close without a live mapping of it.
+ */
+public class FrameFile implements AutoCloseable {
+
+  public static final int MAGIC = 0x52465044; // "DPFR" little endian
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 256;
+  public static final int BYTES_PER_POINT = 3;
+
+  /** Frames are stored as changes to the previous frame */
+  public static final int FLAG_DELTA = 1;
+
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+
+  // Upper bound of a single mapping
+  public static final long DEFAULT_WINDOW_BYTES = 64L << 20;
+
+  // Frames a writer stages before handing them to the file
+  private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+  private static final int LABEL_OFFSET = 42;
+  private static final int LOOP_OFFSET = 184;
+  private static final int MAX_LABEL_BYTES = LOOP_OFFSET - LABEL_OFFSET;
+
+  // Unchanged gaps shorter than a run header are copied rather than skipped
+  private static final int RUN_HEADER = 4;
+  private static final int MAX_RUN = 0xffff;
+
+  public final int points;
+  public final int frames;
+  public final int flags;
+  public final double fps;
+  public final double deltaMs;
+  public final String label;
+  public final int loopFrames;
+  public final int crossfadeFrames;
+  public final int keyframeInterval;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final int frameBytes;
+  private final long windowBytes;
+  private final long[] offsets;
+
+  private MappedByteBuffer window = null;
+  private long windowStart = 0;
+  private long windowEnd = 0;
+
+  // Most recently decoded frame
+  private final byte[] current;
+  private int currentFrame = -1;
+
+  private FrameFile(RandomAccessFile file, ByteBuffer header, long windowBytes) throws IOException {
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("Not a DuckPond frame file");
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException("Unsupported frame file version " + header.getInt(4));
+    }
+    if (header.getInt(16) != BYTES_PER_POINT) {
+      throw new IOException("Unsupported frame file point size " + header.getInt(16));
+    }
+    this.file = file;
+    this.channel = file.getChannel();
+    this.points = header.getInt(8);
+    this.frames = header.getInt(12);
+    this.flags = header.getInt(20);
+    this.fps = header.getDouble(24);
+    this.deltaMs = header.getDouble(32);
+    int labelLength = header.getShort(40) & 0xffff;
+    if (labelLength > MAX_LABEL_BYTES) {
+      throw new IOException("Frame file label length " + labelLength + " exceeds the header");
+    }
+    byte[] label = new byte[labelLength];
+    header.position(LABEL_OFFSET);
+    header.get(label);
+    this.label = new String(label, StandardCharsets.UTF_8);
+    this.loopFrames = header.getInt(LOOP_OFFSET);
+    this.crossfadeFrames = header.getInt(LOOP_OFFSET + 4);
+    this.keyframeInterval = Math.max(1, header.getInt(LOOP_OFFSET + 8));
+    this.frameBytes = this.points * BYTES_PER_POINT;
+    this.windowBytes = Math.max(windowBytes, this.frameBytes);
+    this.current = new byte[this.frameBytes];
+
+    if (isDelta()) {
+      ByteBuffer table = ByteBuffer.allocate((this.frames + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(this.channel, table, HEADER_SIZE);
+      this.offsets = new long[this.frames + 1];
+      table.asLongBuffer().get(this.offsets);
+    } else {
+      this.offsets = null;
+    }
+    long expected = isDelta() ? this.offsets[this.frames] : frameOffset(this.frames, this.frameBytes);
+    if (this.channel.size() < expected) {
+      throw new IOException("Frame file is truncated, expected " + expected + " bytes");
+    }
+  }
+
+  /**
+   * Opens a frame file for reading
+   */
+  public static FrameFile open(File path) throws IOException {
+    return open(path, DEFAULT_WINDOW_BYTES);
+  }
+
+  /**
+   * Opens a frame file for reading, mapping at most windowBytes of it at
+   * a time. Pages within the window are read in as frames are accessed.
+   */
+  public static FrameFile open(File path, long windowBytes) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(path, "r");
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(file.getChannel(), header, 0);
+      return new FrameFile(file, header, windowBytes);
+    } catch (IOException x) {
+      file.close();
+      throw x;
+    }
+  }
+
+  public boolean isDelta() {
+    return (this.flags & FLAG_DELTA) != 0;
+  }
+
+  /**
+   * Reads a frame into colors, as packed 0xffRRGGBB. Delta frames are
+   * cheapest to read in sequence.
+   *
+   * @param frame Frame number, 0 to frames - 1
+   * @param colors Destination, at least points long
+   */
+  public void readFrame(int frame, int[] colors) throws IOException {
+    byte[] bytes = decode(frame);
+    for (int i = 0, k = 0; i < this.points; i++, k += BYTES_PER_POINT) {
+      colors[i] = 0xff000000 | ((bytes[k] & 0xff) << 16) | ((bytes[k + 1] & 0xff) << 8) | (bytes[k + 2] & 0xff);
+    }
+  }
+
+  /**
+   * Returns the R, G, B bytes of a frame. The array is owned by the file
+   * and only valid until the next read.
+   */
+  public byte[] decode(int frame) throws IOException {
+    if (frame < 0 || frame >= this.frames) {
+      throw new IndexOutOfBoundsException("Frame " + frame + " of " + this.frames);
+    }
+    if (frame == this.currentFrame) {
+      return this.current;
+    }
+    if (!isDelta()) {
+      map(frameOffset(frame, this.frameBytes), this.frameBytes).get(this.current);
+    } else {
+      // Continue from the current frame if possible, else from the last keyframe
+      int from = frame - frame % this.keyframeInterval;
+      if (this.currentFrame >= from && this.currentFrame < frame) {
+        from = this.currentFrame + 1;
+      }
+      for (int f = from; f <= frame; f++) {
+        int length = (int) (this.offsets[f + 1] - this.offsets[f]);
+        ByteBuffer record = map(this.offsets[f], length);
+        if (f % this.keyframeInterval == 0) {
+          record.get(this.current);
+        } else {
+          applyRuns(record, this.current);
+        }
+      }
+    }
+    this.currentFrame = frame;
+    return this.current;
+  }
+
+  private static void applyRuns(ByteBuffer record, byte[] frame) {
+    int position = 0;
+    while (record.hasRemaining()) {
+      position += record.getShort() & 0xffff;
+      int length = record.getShort() & 0xffff;
+      record.get(frame, position, length);
+      position += length;
+    }
+  }
+
+  // Returns a view of [offset, offset + length), remapping the window if needed
+  private ByteBuffer map(long offset, int length) throws IOException {
+    if (this.window == null || offset < this.windowStart || offset + length > this.windowEnd) {
+      long size = Math.min(Math.max(this.windowBytes, length), this.channel.size() - offset);
+      size = Math.min(size, Integer.MAX_VALUE);
+      this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+      this.window.order(ByteOrder.LITTLE_ENDIAN);
+      this.windowStart = offset;
+      this.windowEnd = offset + size;
+    }
+    ByteBuffer view = this.window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int position = (int) (offset - this.windowStart);
+    view.limit(position + length);
+    view.position(position);
+    return view;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.window = null;
+    this.file.close();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Frame file is truncated");
+      }
+    }
+    buffer.flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static long frameOffset(int frame, int frameBytes) {
+    return HEADER_SIZE + (long) frame * frameBytes;
+  }
+
+  /**
+   * Sequential writer of a frame file. If fewer frames than declared are
+   * written, the frame count is cut down on close().
+   */
+  public static class Writer implements AutoCloseable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer header;
+    private final int points;
+    private final int frames;
+    private final int frameBytes;
+    private final boolean delta;
+    private final int keyframeInterval;
+    private final long[] offsets;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private long position;
+    private int written = 0;
+    private boolean closed = false;
+
+    private final byte[] scratch;
+    private final byte[] previous;
+    private final ByteBuffer runs;
+
+    /**
+     * Creates or replaces a frame file of full frames
+     *
+     * @param path Destination file
+     * @param points Points per frame
+     * @param frames Number of frames that will be written
+     * @param fps Frame rate the frames are meant to be played at
+     * @param deltaMs Simulated time step per frame
+     * @param label Name of what was rendered, truncated to fit the header
+     */
+    public Writer(File path, int points, int frames, double fps, double deltaMs, String label) throws IOException {
+      this(path, points, frames, fps, deltaMs, label, 0);
+    }
+
+    /**
+     * Creates or replaces a frame file
+     *
+     * @param keyframeInterval If positive, frames are delta compressed with
+     *   a full frame every keyframeInterval frames
+     */
+    public Writer(File path, int points, int frames, double fps, double deltaMs, String label, int keyframeInterval) throws IOException {
+      this.file = new RandomAccessFile(path, "rw");
+      this.file.setLength(0);
+      this.channel = this.file.getChannel();
+      this.points = points;
+      this.frames = frames;
+      this.frameBytes = points * BYTES_PER_POINT;
+      this.delta = keyframeInterval > 0;
+      this.keyframeInterval = Math.max(1, keyframeInterval);
+      this.offsets = this.delta ? new long[frames + 1] : null;
+      this.position = HEADER_SIZE + (this.delta ? (frames + 1) * 8L : 0);
+      this.scratch = new byte[this.frameBytes];
+      this.previous = this.delta ? new byte[this.frameBytes] : null;
+      // Worst case is a single run covering the whole frame in 64k pieces
+      this.runs = ByteBuffer.allocate(this.frameBytes + RUN_HEADER * (this.frameBytes / MAX_RUN + 1)).order(ByteOrder.LITTLE_ENDIAN);
+
+      byte[] labelBytes = label.getBytes(StandardCharsets.UTF_8);
+      int labelLength = Math.min(labelBytes.length, MAX_LABEL_BYTES);
+      this.header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      this.header.putInt(0, MAGIC);
+      this.header.putInt(4, VERSION);
+      this.header.putInt(8, points);
+      this.header.putInt(12, frames);
+      this.header.putInt(16, BYTES_PER_POINT);
+      this.header.putInt(20, this.delta ? FLAG_DELTA : 0);
+      this.header.putDouble(24, fps);
+      this.header.putDouble(32, deltaMs);
+      this.header.putShort(40, (short) labelLength);
+      this.header.position(LABEL_OFFSET);
+      this.header.put(labelBytes, 0, labelLength);
+      this.header.putInt(LOOP_OFFSET + 8, this.delta ? this.keyframeInterval : 0);
+    }
+
+    /**
+     * Marks the frames as a loop of loopFrames frames, followed by
+     * crossfadeFrames frames that continue past the loop point
+     */
+    public Writer setLoop(int loopFrames, int crossfadeFrames) {
+      this.header.putInt(LOOP_OFFSET, loopFrames);
+      this.header.putInt(LOOP_OFFSET + 4, crossfadeFrames);
+      return this;
+    }
+
+    /**
+     * Appends a frame
+     *
+     * @param colors Packed colors of the points, alpha is dropped
+     */
+    public void writeFrame(int[] colors) throws IOException {
+      if (this.written >= this.frames) {
+        throw new IllegalStateException("All " + this.frames + " frames have been written");
+      }
+      byte[] bytes = this.scratch;
+      for (int i = 0, k = 0; i < this.points; i++, k += BYTES_PER_POINT) {
+        int c = colors[i];
+        bytes[k] = (byte) (c >>> 16);
+        bytes[k + 1] = (byte) (c >>> 8);
+        bytes[k + 2] = (byte) c;
+      }
+
+      if (!this.delta) {
+        put(bytes, 0, this.frameBytes);
+      } else {
+        this.offsets[this.written] = this.position;
+        if (this.written % this.keyframeInterval == 0) {
+          put(bytes, 0, this.frameBytes);
+        } else {
+          encodeRuns(this.previous, bytes, this.runs);
+          put(this.runs.array(), 0, this.runs.position());
+        }
+        System.arraycopy(bytes, 0, this.previous, 0, this.frameBytes);
+      }
+      this.written++;
+    }
+
+    // Runs of changed bytes, gaps shorter than a run header are merged in
+    private static void encodeRuns(byte[] previous, byte[] next, ByteBuffer runs) {
+      runs.clear();
+      int length = next.length;
+      int last = 0;
+      int i = 0;
+      while (i < length) {
+        if (previous[i] == next[i]) {
+          i++;
+          continue;
+        }
+        int start = i;
+        int end = i + 1;
+        int gap = 0;
+        while (end + gap < length && end - start + gap < MAX_RUN && gap < RUN_HEADER) {
+          if (previous[end + gap] != next[end + gap]) {
+            end += gap + 1;
+            gap = 0;
+          } else {
+            gap++;
+          }
+        }
+        end = Math.min(end, start + MAX_RUN);
+        int skip = start - last;
+        while (skip > MAX_RUN) {
+          runs.putShort((short) MAX_RUN).putShort((short) 0);
+          skip -= MAX_RUN;
+        }
+        runs.putShort((short) skip).putShort((short) (end - start));
+        runs.put(next, start, end - start);
+        last = end;
+        i = end;
+      }
+    }
+
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+      if (length > this.buffer.remaining()) {
+        flush();
+      }
+      if (length > this.buffer.capacity()) {
+        writeFully(this.channel, ByteBuffer.wrap(bytes, offset, length), this.position);
+      } else {
+        this.buffer.put(bytes, offset, length);
+      }
+      this.position += length;
+    }
+
+    // Writes out the staged bytes, which end at position
+    private void flush() throws IOException {
+      long start = this.position - this.buffer.position();
+      this.buffer.flip();
+      writeFully(this.channel, this.buffer, start);
+      this.buffer.clear();
+    }
+
+    public int getFramesWritten() {
+      return this.written;
+    }
+
+    /** Bytes written so far, including the header */
+    public long getBytesWritten() {
+      return this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      flush();
+      this.header.putInt(12, this.written);
+      this.header.rewind();
+      writeFully(this.channel, this.header, 0);
+      if (this.delta) {
+        this.offsets[this.written] = this.position;
+        ByteBuffer table = ByteBuffer.allocate((this.written + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int f = 0; f <= this.written; f++) {
+          table.putLong(this.offsets[f]);
+        }
+        table.flip();
+        writeFully(this.channel, table, HEADER_SIZE);
+      }
+      this.file.setLength(this.position);
+      this.file.close();
+    }
+  }
+}
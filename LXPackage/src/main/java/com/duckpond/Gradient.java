@@ -22,18 +22,75 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 package com.duckpond;
 
+/**
+ * Oklab color gradient sampled from a lookup table.
+ *
+ * The table is a flat array of Oklab L, a, b, alpha entries, by default 256
+ * of them. Sampling is nearest entry unless the gradient is created with
+ * Interpolation.LINEAR, which blends the two neighbouring entries and
+ * removes visible steps on slow fades.
+ *
+ * The Float4f samplers of the float kernels and the vectorized ColorBatch
+ * read a single precision copy of the table. It is built the first time
+ * either of them samples the gradient, so gradients used only by double
+ * kernels don't carry it.
+ */
 public class Gradient {
 
-  private Float4[] gradient;
-  private int gradientCount = 256;
+  public static final int DEFAULT_RESOLUTION = 256;
+
+  // Components per table entry: L, a, b, alpha
+  private static final int STRIDE = 4;
+
+  private final double[] table;
+  private final int gradientCount;
+  private final Interpolation interpolation;
+
+  // Single precision copy of the table, built on first use
+  private volatile float[] tableF;
+  // Packed sRGB of each entry, for nearest sampling straight to output
+  private final int[] rgbTable;
 
   public enum ColorMode {
     RGB,
     HSV
   }
 
+  public enum Interpolation {
+    NEAREST,
+    LINEAR
+  }
+
+  /**
+   * Returns a shared gradient for the given stops from the process-wide
+   * GradientCache, building the table only the first time it is needed.
+   */
+  public static Gradient get(Float4[] g, ColorMode mode) {
+    return GradientCache.get(g, mode, DEFAULT_RESOLUTION, Interpolation.NEAREST);
+  }
+
+  public static Gradient get(Float4[] g, ColorMode mode, int resolution, Interpolation interpolation) {
+    return GradientCache.get(g, mode, resolution, interpolation);
+  }
+
   public Gradient(Float4[] g, ColorMode mode) {
-    gradient = new Float4[gradientCount];
+    this(g, mode, DEFAULT_RESOLUTION, Interpolation.NEAREST);
+  }
+
+  /**
+   * @param g Color stops, with the stop position in w
+   * @param mode Color space the stops are given in
+   * @param resolution Number of table entries, at least 2
+   * @param interpolation Sampling mode
+   */
+  public Gradient(Float4[] g, ColorMode mode, int resolution, Interpolation interpolation) {
+    if (resolution < 2) {
+      throw new IllegalArgumentException("Gradient resolution must be at least 2: " + resolution);
+    }
+    this.gradientCount = resolution;
+    this.interpolation = interpolation;
+    this.table = new double[gradientCount * STRIDE];
+    this.rgbTable = new int[gradientCount];
     for (int c = 0; c < gradientCount; c++) {
       double pos = (double)c / (double)(gradientCount - 1);
       int s0 = 0;
@@ -44,37 +101,183 @@ public class Gradient {
         s0++;
       }
       double a = (pos - g[s0].w) / (g[s0 + 1].w - g[s0].w);
+      Float4 color = null;
       if (mode == ColorMode.RGB) {
         Float4 labA = ColorSpace.srgb2oklab(g[s0]);
         Float4 labB = ColorSpace.srgb2oklab(g[s0 + 1]);
-        gradient[c] = Float4.lerp(labA, labB, a);
+        color = Float4.lerp(labA, labB, a);
       } else if (mode == ColorMode.HSV) {
         Float4 ga = ColorSpace.hsv2rgb(g[s0]);
         Float4 gb = ColorSpace.hsv2rgb(g[s0 + 1]);
         Float4 labA = ColorSpace.srgb2oklab(ga);
         Float4 labB = ColorSpace.srgb2oklab(gb);
-        gradient[c] = Float4.lerp(labA, labB, a);
+        color = Float4.lerp(labA, labB, a);
+      }
+      int i = c * STRIDE;
+      table[i] = color.x;
+      table[i + 1] = color.y;
+      table[i + 2] = color.z;
+      table[i + 3] = color.w;
+      rgbTable[c] = ColorSpace.oklab2rgb(color);
+    }
+  }
+
+  public int getResolution() {
+    return gradientCount;
+  }
+
+  /**
+   * Copy of the table, L, a, b and alpha per entry. Nearest sampling reads
+   * entry (int) (pp * (resolution - 1)) for a position pp in [0, 1].
+   */
+  public double[] getTable() {
+    return table.clone();
+  }
+
+  /**
+   * The single precision table, L, a, b and alpha per entry like the
+   * double one, for the vectorized ColorBatch
+   */
+  float[] getFloatTable() {
+    float[] tableF = this.tableF;
+    if (tableF == null) {
+      // Racing threads may each build a copy, they are identical
+      tableF = new float[table.length];
+      for (int i = 0; i < table.length; i++) {
+        tableF[i] = (float) table[i];
       }
+      this.tableF = tableF;
     }
+    return tableF;
   }
 
+  public Interpolation getInterpolation() {
+    return interpolation;
+  }
 
   public Float4 clamp(double pos) {
-    int posInt = (int)((Math.max(0.0, Math.min(1.0, pos))) * (double)(gradientCount - 1));
-    return gradient[posInt];
+    return clamp(pos, new Float4(0.0));
   }
 
   public Float4 repeat(double pos) {
-    double pp = pos - Math.floor(pos);
-    int posInt = (int)(pp * (double)(gradientCount - 1));
-    return gradient[posInt];
+    return repeat(pos, new Float4(0.0));
   }
 
   public Float4 reflect(double pos) {
+    return reflect(pos, new Float4(0.0));
+  }
+
+  public Float4 clamp(double pos, Float4 out) {
+    return sample(clampPosition(pos), out);
+  }
+
+  public Float4 repeat(double pos, Float4 out) {
+    return sample(repeatPosition(pos), out);
+  }
+
+  public Float4 reflect(double pos, Float4 out) {
+    return sample(reflectPosition(pos), out);
+  }
+
+  public Float4f clamp(float pos, Float4f out) {
+    return sample(Math.max(0f, Math.min(1f, pos)), out);
+  }
+
+  public Float4f repeat(float pos, Float4f out) {
+    return sample(pos - (float) Math.floor(pos), out);
+  }
+
+  public Float4f reflect(float pos, Float4f out) {
+    float floor = (float) Math.floor(pos);
+    float pp = pos - floor;
+    return sample(((((int) floor) & 1) == 1) ? (1f - pp) : pp, out);
+  }
+
+  /**
+   * Samples the gradient straight to a packed sRGB int as produced by LX.rgb
+   */
+  public int clampRgb(double pos) {
+    return sampleRgb(clampPosition(pos));
+  }
+
+  public int repeatRgb(double pos) {
+    return sampleRgb(repeatPosition(pos));
+  }
+
+  public int reflectRgb(double pos) {
+    return sampleRgb(reflectPosition(pos));
+  }
+
+  /*
+   * Positions in [0, 1] sampled by clamp, repeat and reflect, public for
+   * code that samples the table inline
+   */
+
+  public static double clampPosition(double pos) {
+    return Math.max(0.0, Math.min(1.0, pos));
+  }
+
+  public static double repeatPosition(double pos) {
+    return pos - Math.floor(pos);
+  }
+
+  public static double reflectPosition(double pos) {
     double pp = pos - Math.floor(pos);
-    pp = (((int)Math.floor(pos) & 1) == 1) ? (1.0 - pp) : pp;
-    int posInt = (int)(pp * (double)(gradientCount - 1));
-    return gradient[posInt];
+    return (((int)Math.floor(pos) & 1) == 1) ? (1.0 - pp) : pp;
+  }
+
+  /**
+   * Samples the table at a position in [0, 1]
+   */
+  private Float4 sample(double pp, Float4 out) {
+    double f = pp * (double)(gradientCount - 1);
+    int posInt = (int)f;
+    int i = posInt * STRIDE;
+    if (interpolation == Interpolation.NEAREST || posInt >= gradientCount - 1) {
+      return out.set(table[i], table[i + 1], table[i + 2], table[i + 3]);
+    }
+    double t = f - posInt;
+    int j = i + STRIDE;
+    return out.set(
+      table[i] + (table[j] - table[i]) * t,
+      table[i + 1] + (table[j + 1] - table[i + 1]) * t,
+      table[i + 2] + (table[j + 2] - table[i + 2]) * t,
+      table[i + 3] + (table[j + 3] - table[i + 3]) * t);
+  }
+
+  /**
+   * Samples the float table at a position in [0, 1]
+   */
+  private Float4f sample(float pp, Float4f out) {
+    float[] tableF = getFloatTable();
+    float f = pp * (float)(gradientCount - 1);
+    int posInt = (int)f;
+    int i = posInt * STRIDE;
+    if (interpolation == Interpolation.NEAREST || posInt >= gradientCount - 1) {
+      return out.set(tableF[i], tableF[i + 1], tableF[i + 2], tableF[i + 3]);
+    }
+    float t = f - posInt;
+    int j = i + STRIDE;
+    return out.set(
+      tableF[i] + (tableF[j] - tableF[i]) * t,
+      tableF[i + 1] + (tableF[j + 1] - tableF[i + 1]) * t,
+      tableF[i + 2] + (tableF[j + 2] - tableF[i + 2]) * t,
+      tableF[i + 3] + (tableF[j + 3] - tableF[i + 3]) * t);
+  }
+
+  private int sampleRgb(double pp) {
+    double f = pp * (double)(gradientCount - 1);
+    int posInt = (int)f;
+    if (interpolation == Interpolation.NEAREST || posInt >= gradientCount - 1) {
+      return rgbTable[posInt];
+    }
+    double t = f - posInt;
+    int i = posInt * STRIDE;
+    int j = i + STRIDE;
+    return ColorSpace.oklab2rgb(
+      table[i] + (table[j] - table[i]) * t,
+      table[i + 1] + (table[j + 1] - table[i + 1]) * t,
+      table[i + 2] + (table[j + 2] - table[i + 2]) * t);
   }
   
   public static Float4 toOklab(Float4 srgb) {
@@ -92,4 +295,4 @@ public class Gradient {
   public static Float4 rgbToOklab(double r, double g, double b, double a) {
     return ColorSpace.rgbToOklab(r, g, b, a);
   }
-}
\ No newline at end of file
+}
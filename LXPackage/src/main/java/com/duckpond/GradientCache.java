@@ -0,0 +1,157 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of gradients keyed by their stops, color mode,
+ * resolution and interpolation.
+ *
+ * Gradients are immutable, so every pattern instance on every channel can
+ * share one table. Entries are held weakly while any pattern still uses
+ * them, and the most recently requested ones are also held strongly so that
+ * removing and re-adding a pattern doesn't rebuild its tables.
+ */
+public class GradientCache {
+
+  public static final int RECENT_CAPACITY = 64;
+
+  private static final Map<Key, Entry> interned = new HashMap<Key, Entry>();
+  private static final ReferenceQueue<Gradient> collected = new ReferenceQueue<Gradient>();
+
+  private static final Map<Key, Gradient> recent = new LinkedHashMap<Key, Gradient>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Gradient> eldest) {
+      return size() > RECENT_CAPACITY;
+    }
+  };
+
+  /**
+   * Returns a gradient for the given stops, building it only if no equal
+   * gradient is alive in the cache.
+   */
+  public static Gradient get(Float4[] stops, Gradient.ColorMode mode, int resolution, Gradient.Interpolation interpolation) {
+    Key key = new Key(stops, mode, resolution, interpolation);
+    synchronized (interned) {
+      purge();
+      Entry entry = interned.get(key);
+      Gradient gradient = (entry != null) ? entry.get() : null;
+      if (gradient == null) {
+        gradient = new Gradient(stops, mode, resolution, interpolation);
+        interned.put(key, new Entry(key, gradient));
+      }
+      recent.put(key, gradient);
+      return gradient;
+    }
+  }
+
+  /**
+   * Number of distinct gradients currently alive in the cache.
+   */
+  public static int size() {
+    synchronized (interned) {
+      purge();
+      return interned.size();
+    }
+  }
+
+  /**
+   * Drops the strong references to recently used gradients.
+   */
+  public static void clear() {
+    synchronized (interned) {
+      recent.clear();
+      purge();
+    }
+  }
+
+  private static void purge() {
+    Entry entry;
+    while ((entry = (Entry) collected.poll()) != null) {
+      if (interned.get(entry.key) == entry) {
+        interned.remove(entry.key);
+      }
+    }
+  }
+
+  private static class Entry extends WeakReference<Gradient> {
+    private final Key key;
+
+    Entry(Key key, Gradient gradient) {
+      super(gradient, collected);
+      this.key = key;
+    }
+  }
+
+  private static class Key {
+    private final double[] stops;
+    private final Gradient.ColorMode mode;
+    private final int resolution;
+    private final Gradient.Interpolation interpolation;
+    private final int hash;
+
+    Key(Float4[] stops, Gradient.ColorMode mode, int resolution, Gradient.Interpolation interpolation) {
+      this.stops = new double[stops.length * 4];
+      for (int i = 0; i < stops.length; i++) {
+        this.stops[i * 4] = stops[i].x;
+        this.stops[i * 4 + 1] = stops[i].y;
+        this.stops[i * 4 + 2] = stops[i].z;
+        this.stops[i * 4 + 3] = stops[i].w;
+      }
+      this.mode = mode;
+      this.resolution = resolution;
+      this.interpolation = interpolation;
+      int hash = Arrays.hashCode(this.stops);
+      hash = 31 * hash + mode.hashCode();
+      hash = 31 * hash + resolution;
+      hash = 31 * hash + interpolation.hashCode();
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return this.hash == that.hash
+        && this.mode == that.mode
+        && this.resolution == that.resolution
+        && this.interpolation == that.interpolation
+        && Arrays.equals(this.stops, that.stops);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Reports the RenderMetrics of all patterns.
+ *
+ * The periodic log prints one line per pattern that ran during the
+ * interval, covering just that interval. The HTTP endpoint serves the
+ * cumulative metrics as JSON at /metrics, on the loopback interface only.
+ */
+public class MetricsReporter {
+
+  public static final String PATH = "/metrics";
+
+  private static ScheduledExecutorService logExecutor = null;
+  private static HttpServer server = null;
+
+  /**
+   * Starts logging the metrics every given number of seconds, replacing a
+   * log started before.
+   */
+  public static synchronized void startLog(int intervalSeconds) {
+    stopLog();
+    if (intervalSeconds <= 0) {
+      return;
+    }
+    logExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "DuckPond Metrics Log");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    // Start the first window now rather than at the first report
+    RenderMetrics.drainWindows();
+    logExecutor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        for (RenderMetrics.Snapshot snapshot : RenderMetrics.drainWindows()) {
+          if (snapshot.getFrames() > 0) {
+            System.out.println(formatLine(snapshot));
+          }
+        }
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public static synchronized void stopLog() {
+    if (logExecutor != null) {
+      logExecutor.shutdownNow();
+      logExecutor = null;
+    }
+  }
+
+  /**
+   * Serves the metrics as JSON on http://127.0.0.1:port/metrics
+   */
+  public static synchronized void startServer(int port) throws IOException {
+    stopServer();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext(PATH, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = toJson(RenderMetrics.snapshots()).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+          out.write(body);
+        } finally {
+          out.close();
+        }
+      }
+    });
+    server.start();
+  }
+
+  public static synchronized void stopServer() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  public static String formatLine(RenderMetrics.Snapshot snapshot) {
+    return String.format(Locale.ROOT,
+      "[DuckPond] %s: %d frames, p50 %.2f ms, p99 %.2f ms, max %.2f ms, %.1f ns/LED, %.0f B/frame",
+      snapshot.name,
+      snapshot.getFrames(),
+      snapshot.getPercentileNanos(0.5) / 1e6,
+      snapshot.getPercentileNanos(0.99) / 1e6,
+      snapshot.getMaxNanos() / 1e6,
+      snapshot.getNanosPerLed(),
+      snapshot.getBytesPerFrame());
+  }
+
+  public static String toJson(List<RenderMetrics.Snapshot> snapshots) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"patterns\":[");
+    for (int i = 0; i < snapshots.size(); i++) {
+      RenderMetrics.Snapshot snapshot = snapshots.get(i);
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"name\":").append(quote(snapshot.name));
+      json.append(",\"class\":").append(quote(snapshot.className));
+      json.append(",\"frames\":").append(snapshot.getFrames());
+      json.append(",\"p50Nanos\":").append(snapshot.getPercentileNanos(0.5));
+      json.append(",\"p99Nanos\":").append(snapshot.getPercentileNanos(0.99));
+      json.append(",\"maxNanos\":").append(snapshot.getMaxNanos());
+      json.append(String.format(Locale.ROOT, ",\"meanNanos\":%.1f", snapshot.getMeanNanos()));
+      json.append(String.format(Locale.ROOT, ",\"nanosPerLed\":%.2f", snapshot.getNanosPerLed()));
+      json.append(String.format(Locale.ROOT, ",\"bytesPerFrame\":%.1f", snapshot.getBytesPerFrame()));
+      json.append('}');
+    }
+    json.append("]}");
+    return json.toString();
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
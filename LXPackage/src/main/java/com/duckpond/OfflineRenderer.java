@@ -0,0 +1,177 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import heronarts.lx.LX;
+import heronarts.lx.LXEngine;
+import heronarts.lx.mixer.LXAbstractChannel;
+import heronarts.lx.pattern.LXPattern;
+
+/**
+ * Renders frames without the engine thread, at a fixed simulated deltaMs.
+ *
+ * The engine is stepped directly, one frame per call, so modulators,
+ * channels and patterns all see the same time step on every run and the
+ * result is reproducible. Real-time pacing doesn't apply, frames are
+ * rendered as fast as the machine allows. The engine must not have been
+ * started.
+ *
+ * Baking renders a loop for BakedPattern: loop length plus crossfade
+ * frames, where the crossfade frames continue past the loop point and
+ * are blended into the start of the loop on playback.
+ */
+public class OfflineRenderer {
+
+  private static final String PATTERN_PACKAGE = "com.duckpond.pattern.";
+
+  /**
+   * Timings of a completed render
+   */
+  public static class Result {
+    public final int frames;
+    public final int points;
+    public final long renderNanos;
+    public final long writeNanos;
+    public final long bytes;
+
+    Result(int frames, int points, long renderNanos, long writeNanos, long bytes) {
+      this.frames = frames;
+      this.points = points;
+      this.renderNanos = renderNanos;
+      this.writeNanos = writeNanos;
+      this.bytes = bytes;
+    }
+
+    public double getRenderNanosPerFrame() {
+      return (this.frames > 0) ? (double) this.renderNanos / this.frames : 0;
+    }
+
+    public double getWriteNanosPerFrame() {
+      return (this.frames > 0) ? (double) this.writeNanos / this.frames : 0;
+    }
+  }
+
+  /**
+   * Instantiates a pattern by class name. Names without a package are
+   * looked up in com.duckpond.pattern, with or without the Pattern suffix.
+   */
+  public static LXPattern createPattern(LX lx, String name) throws ReflectiveOperationException {
+    List<String> candidates = new ArrayList<String>();
+    if (name.indexOf('.') >= 0) {
+      candidates.add(name);
+    } else {
+      candidates.add(PATTERN_PACKAGE + name);
+      candidates.add(PATTERN_PACKAGE + name + "Pattern");
+    }
+    for (String candidate : candidates) {
+      Class<?> cls;
+      try {
+        cls = Class.forName(candidate);
+      } catch (ClassNotFoundException x) {
+        continue;
+      }
+      if (!LXPattern.class.isAssignableFrom(cls)) {
+        throw new IllegalArgumentException(candidate + " is not a pattern");
+      }
+      return (LXPattern) cls.getConstructor(LX.class).newInstance(lx);
+    }
+    throw new ClassNotFoundException("No pattern named " + name);
+  }
+
+  /**
+   * Replaces the whole mix with a single channel running the pattern
+   */
+  public static void soloPattern(LX lx, LXPattern pattern) {
+    for (LXAbstractChannel channel : new ArrayList<LXAbstractChannel>(lx.engine.mixer.getChannels())) {
+      lx.engine.mixer.removeChannel(channel);
+    }
+    lx.engine.mixer.addChannel(new LXPattern[] { pattern });
+  }
+
+  /**
+   * Renders the current mix into a frame file
+   *
+   * @param lx LX instance whose engine has not been started
+   * @param path Destination frame file
+   * @param frames Number of frames to render
+   * @param fps Frame rate recorded in the file
+   * @param deltaMs Simulated time step per frame
+   * @param label Name of what is rendered, recorded in the file
+   * @return Timings of the render
+   */
+  public static Result render(LX lx, File path, int frames, double fps, double deltaMs, String label) throws IOException {
+    int points = lx.getModel().points.length;
+    return render(lx, new FrameFile.Writer(path, points, frames, fps, deltaMs, label), frames, deltaMs);
+  }
+
+  /**
+   * Bakes the current mix into a looping frame file for BakedPattern
+   *
+   * @param lx LX instance whose engine has not been started
+   * @param path Destination frame file
+   * @param loopFrames Length of the loop
+   * @param crossfadeFrames Frames rendered past the loop point, blended into its start
+   * @param fps Frame rate of the loop
+   * @param keyframeInterval Delta compress with a full frame this often, 0 stores full frames
+   * @param label Name of what is rendered, recorded in the file
+   * @return Timings of the render
+   */
+  public static Result bake(LX lx, File path, int loopFrames, int crossfadeFrames, double fps, int keyframeInterval, String label) throws IOException {
+    int points = lx.getModel().points.length;
+    int frames = loopFrames + crossfadeFrames;
+    double deltaMs = 1000.0 / fps;
+    FrameFile.Writer writer = new FrameFile.Writer(path, points, frames, fps, deltaMs, label, keyframeInterval);
+    writer.setLoop(loopFrames, crossfadeFrames);
+    return render(lx, writer, frames, deltaMs);
+  }
+
+  private static Result render(LX lx, FrameFile.Writer writer, int frames, double deltaMs) throws IOException {
+    try {
+      if (lx.engine.isThreaded()) {
+        throw new IllegalStateException("Offline rendering needs the engine thread to be stopped");
+      }
+      lx.engine.setFixedDeltaMs(deltaMs);
+      LXEngine.Frame frame = new LXEngine.Frame(lx);
+
+      long renderNanos = 0;
+      long writeNanos = 0;
+      for (int f = 0; f < frames; f++) {
+        long start = System.nanoTime();
+        lx.engine.run();
+        lx.engine.getFrameNonThreadSafe(frame);
+        long rendered = System.nanoTime();
+        writer.writeFrame(frame.getColors());
+        renderNanos += rendered - start;
+        writeNanos += System.nanoTime() - rendered;
+      }
+      writer.close();
+      return new Result(frames, lx.getModel().points.length, renderNanos, writeNanos, writer.getBytesWritten());
+    } finally {
+      writer.close();
+    }
+  }
+}
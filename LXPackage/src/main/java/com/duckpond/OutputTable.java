@@ -0,0 +1,108 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+/**
+ * Output curve of each color channel with brightness, gamma and white
+ * point folded in, as 8.8 fixed point values. It is the curve LX's
+ * GammaTable stores as bytes for 256 brightness steps, here for the exact
+ * brightness and with 8 more bits, so that fades can be dithered over
+ * time. The table is only rebuilt when one of its inputs changes.
+ *
+ * dither() quantizes a value to 8 bits and carries the rounding error of
+ * each output byte to the next frame, so the average over a few frames
+ * matches the curve to the fraction and dark fades move smoothly instead
+ * of stepping through the lowest codes.
+ */
+public class OutputTable {
+
+  public static final int FRACTION_BITS = 8;
+
+  /** Largest table value, full scale 255 */
+  public static final int MAX = 255 << FRACTION_BITS;
+
+  public final int[] red = new int[256];
+  public final int[] green = new int[256];
+  public final int[] blue = new int[256];
+
+  private double gamma = Double.NaN;
+  private double brightness = Double.NaN;
+  private int whiteRed = -1;
+  private int whiteGreen = -1;
+  private int whiteBlue = -1;
+
+  /**
+   * Rebuild the table if any of its inputs changed
+   *
+   * @param gamma Exponent of the curve, 1 is linear
+   * @param brightness Output brightness, 0-1
+   * @param whiteRed White point of red, 0-255
+   * @param whiteGreen White point of green, 0-255
+   * @param whiteBlue White point of blue, 0-255
+   * @return Whether the table was rebuilt
+   */
+  public boolean update(double gamma, double brightness, int whiteRed, int whiteGreen, int whiteBlue) {
+    if (gamma == this.gamma && brightness == this.brightness &&
+        whiteRed == this.whiteRed && whiteGreen == this.whiteGreen && whiteBlue == this.whiteBlue) {
+      return false;
+    }
+    generate(this.red, gamma, brightness, whiteRed);
+    generate(this.green, gamma, brightness, whiteGreen);
+    generate(this.blue, gamma, brightness, whiteBlue);
+    this.gamma = gamma;
+    this.brightness = brightness;
+    this.whiteRed = whiteRed;
+    this.whiteGreen = whiteGreen;
+    this.whiteBlue = whiteBlue;
+    return true;
+  }
+
+  // Same as GammaTable.Curve.generate, with the brightness step replaced
+  // by the brightness itself
+  private static void generate(int[] out, double gamma, double brightness, int whitePoint) {
+    double scale = brightness * whitePoint / (255.0 * 255.0);
+    for (int i = 0; i < 256; i++) {
+      double v = i * scale;
+      if (gamma != 1.0) {
+        v = Math.pow(v, gamma);
+      }
+      out[i] = (int) Math.round(v * MAX);
+    }
+  }
+
+  /**
+   * Round a table value to 8 bits, adding the error left by the previous
+   * frame at the same output byte and storing the new one
+   *
+   * @param value Table value, 0 to MAX
+   * @param error Rounding errors per output byte, -128 to 127
+   * @param index Output byte
+   * @return 8-bit output value
+   */
+  public static int dither(int value, byte[] error, int index) {
+    int v = value + error[index];
+    int out = (v + (1 << (FRACTION_BITS - 1))) >> FRACTION_BITS;
+    error[index] = (byte) (v - (out << FRACTION_BITS));
+    return out;
+  }
+}
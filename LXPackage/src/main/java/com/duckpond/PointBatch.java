@@ -0,0 +1,167 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import heronarts.lx.model.LXPoint;
+
+/**
+ * A run of points handed to a batch kernel, as struct-of-arrays.
+ *
+ * Points and positions are indexed from 0 to size, and the kernel writes
+ * the Oklab color of each point to L, a and b at the same index, or to
+ * Lf, af and bf for the float kernel. The arrays may be longer than size. Batches are reused for every run a
+ * render task processes, kernels must not hold on to them.
+ */
+public final class PointBatch {
+
+  /**
+   * Number of points in the batch
+   */
+  public int size = 0;
+
+  /**
+   * Animation time of the batch
+   */
+  public double time = 0.0;
+
+  public LXPoint[] points = new LXPoint[0];
+
+  public double[] globalX = new double[0];
+  public double[] globalY = new double[0];
+  public double[] globalZ = new double[0];
+  public double[] localX = new double[0];
+  public double[] localY = new double[0];
+  public double[] localZ = new double[0];
+
+  /**
+   * Oklab output of the kernel
+   */
+  public double[] L = new double[0];
+  public double[] a = new double[0];
+  public double[] b = new double[0];
+
+  /**
+   * Oklab output of the float kernel
+   */
+  public float[] Lf = new float[0];
+  public float[] af = new float[0];
+  public float[] bf = new float[0];
+
+  /**
+   * Packed colors of the float output, converted in one ColorBatch call
+   */
+  public int[] packed = new int[0];
+
+  /**
+   * Geometry index of each point, set by load
+   */
+  public int[] source = new int[0];
+
+  // Free scratch colors for the kernel, their contents on entry are undefined
+  public final Float4 color = new Float4(0.0);
+  public final Float4 tmp = new Float4(0.0);
+  public final Float4f colorF = new Float4f(0f);
+  public final Float4f tmpF = new Float4f(0f);
+
+  // Positions of the point handed to per-point kernels
+  public final Float4 globalPos = new Float4(0.0, 0.0, 0.0);
+  public final Float4 localPos = new Float4(0.0, 0.0, 0.0);
+
+  /**
+   * Fills the batch with the geometry points [start, end), skipping those
+   * with sample false unless sample is null
+   */
+  public void load(UmbrellaGeometry geometry, int start, int end, boolean[] sample) {
+    ensureCapacity(end - start);
+    if (sample == null) {
+      int n = end - start;
+      System.arraycopy(geometry.points, start, this.points, 0, n);
+      System.arraycopy(geometry.globalX, start, this.globalX, 0, n);
+      System.arraycopy(geometry.globalY, start, this.globalY, 0, n);
+      System.arraycopy(geometry.globalZ, start, this.globalZ, 0, n);
+      System.arraycopy(geometry.localX, start, this.localX, 0, n);
+      System.arraycopy(geometry.localY, start, this.localY, 0, n);
+      System.arraycopy(geometry.localZ, start, this.localZ, 0, n);
+      for (int k = 0; k < n; k++) {
+        this.source[k] = start + k;
+      }
+      this.size = n;
+      return;
+    }
+    int k = 0;
+    for (int i = start; i < end; i++) {
+      if (!sample[i]) {
+        continue;
+      }
+      this.points[k] = geometry.points[i];
+      this.globalX[k] = geometry.globalX[i];
+      this.globalY[k] = geometry.globalY[i];
+      this.globalZ[k] = geometry.globalZ[i];
+      this.localX[k] = geometry.localX[i];
+      this.localY[k] = geometry.localY[i];
+      this.localZ[k] = geometry.localZ[i];
+      this.source[k] = i;
+      k++;
+    }
+    this.size = k;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (this.L.length >= capacity) {
+      return;
+    }
+    this.points = new LXPoint[capacity];
+    this.globalX = new double[capacity];
+    this.globalY = new double[capacity];
+    this.globalZ = new double[capacity];
+    this.localX = new double[capacity];
+    this.localY = new double[capacity];
+    this.localZ = new double[capacity];
+    this.L = new double[capacity];
+    this.a = new double[capacity];
+    this.b = new double[capacity];
+    this.Lf = new float[capacity];
+    this.af = new float[capacity];
+    this.bf = new float[capacity];
+    this.packed = new int[capacity];
+    this.source = new int[capacity];
+  }
+
+  /**
+   * Stores the Oklab color of point i
+   */
+  public void set(int i, Float4 color) {
+    this.L[i] = color.x;
+    this.a[i] = color.y;
+    this.b[i] = color.z;
+  }
+
+  /**
+   * Stores the float Oklab color of point i
+   */
+  public void set(int i, Float4f color) {
+    this.Lf[i] = color.x;
+    this.af[i] = color.y;
+    this.bf[i] = color.z;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide store of evaluated point fields, bounded by a memory budget.
+ *
+ * Values are shared by all instances of a pattern class on the same
+ * geometry. Patterns look their values up once per geometry and keep
+ * them, so rendering never takes the cache lock. When the budget is
+ * exceeded the least recently used entries are dropped, patterns created
+ * later on the same geometry then evaluate them again. The budget
+ * defaults to 16 MiB and can be set with the duckpond.pointFieldBudget
+ * system property, in bytes.
+ */
+public class PointFieldCache {
+
+  public static final String BUDGET_PROPERTY = "duckpond.pointFieldBudget";
+
+  public static final long DEFAULT_BUDGET = 16L << 20;
+
+  private static final Map<Key, double[][]> entries = new LinkedHashMap<Key, double[][]>(16, 0.75f, true);
+
+  private static long budget = Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET);
+  private static long bytes = 0;
+
+  /**
+   * Identifies the fields of one pattern class on one geometry
+   */
+  public static final class Key {
+    private final Class<?> owner;
+    public final UmbrellaGeometry geometry;
+
+    public Key(Class<?> owner, UmbrellaGeometry geometry) {
+      this.owner = owner;
+      this.geometry = geometry;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.owner.hashCode() + System.identityHashCode(this.geometry);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return this.owner == that.owner && this.geometry == that.geometry;
+    }
+  }
+
+  /**
+   * Returns the values of the fields, indexed [field][LXPoint.index],
+   * evaluating them if they are not cached. Every instance of the owner
+   * class must declare the same fields.
+   */
+  public static double[][] get(Key key, List<PointField> fields) {
+    synchronized (entries) {
+      double[][] values = entries.get(key);
+      if (values != null) {
+        return values;
+      }
+      // Entries for outdated geometry won't be used again
+      Iterator<Map.Entry<Key, double[][]>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<Key, double[][]> entry = it.next();
+        if (!entry.getKey().geometry.isCurrent()) {
+          bytes -= sizeOf(entry.getValue());
+          it.remove();
+        }
+      }
+      values = evaluate(key.geometry, fields);
+      entries.put(key, values);
+      bytes += sizeOf(values);
+      evict(key);
+      return values;
+    }
+  }
+
+  public static long getBudget() {
+    synchronized (entries) {
+      return budget;
+    }
+  }
+
+  /**
+   * Sets the memory budget in bytes, evicting entries if needed.
+   */
+  public static void setBudget(long budget) {
+    synchronized (entries) {
+      PointFieldCache.budget = budget;
+      evict(null);
+    }
+  }
+
+  /**
+   * Bytes currently held by cached field values.
+   */
+  public static long getBytes() {
+    synchronized (entries) {
+      return bytes;
+    }
+  }
+
+  // Drops least recently used entries until within budget, sparing keep
+  private static void evict(Key keep) {
+    Iterator<Map.Entry<Key, double[][]>> it = entries.entrySet().iterator();
+    while (bytes > budget && it.hasNext()) {
+      Map.Entry<Key, double[][]> entry = it.next();
+      if (entry.getKey() != keep) {
+        bytes -= sizeOf(entry.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  private static long sizeOf(double[][] values) {
+    return (values.length > 0) ? 8L * values.length * values[0].length : 0;
+  }
+
+  private static double[][] evaluate(UmbrellaGeometry geometry, List<PointField> fields) {
+    int length = 0;
+    for (int i = 0; i < geometry.size; i++) {
+      length = Math.max(length, geometry.index[i] + 1);
+    }
+    double[][] values = new double[fields.size()][length];
+    Float4 globalPos = new Float4(0.0, 0.0, 0.0);
+    Float4 localPos = new Float4(0.0, 0.0, 0.0);
+    for (int i = 0; i < geometry.size; i++) {
+      globalPos.x = geometry.globalX[i];
+      globalPos.y = geometry.globalY[i];
+      globalPos.z = geometry.globalZ[i];
+      localPos.x = geometry.localX[i];
+      localPos.y = geometry.localY[i];
+      localPos.z = geometry.localZ[i];
+      for (int f = 0; f < values.length; f++) {
+        values[f][geometry.index[i]] = fields.get(f).evaluate(globalPos, localPos);
+      }
+    }
+    return values;
+  }
+}
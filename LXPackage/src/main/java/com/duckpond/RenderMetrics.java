@@ -0,0 +1,321 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import heronarts.lx.LXComponent;
+
+/**
+ * Frame time and allocation metrics of a pattern.
+ *
+ * Patterns bracket each frame with beginFrame() and endFrame(), which
+ * take two clock reads and two reads of the thread allocation counter
+ * and never allocate. Frame times go into a log-linear histogram with 16
+ * buckets per power of two, so percentiles are accurate to about 6%.
+ *
+ * Allocations are counted on the thread that runs the pattern. Work
+ * handed to the RenderPool by parallel patterns is timed, but what it
+ * allocates on the pool threads is not counted.
+ *
+ * All live metrics are kept in a process-wide registry for reporting,
+ * see MetricsReporter. Recording can be turned off with the
+ * duckpond.metrics system property or setEnabled().
+ */
+public class RenderMetrics {
+
+  public static final String ENABLED_PROPERTY = "duckpond.metrics";
+
+  private static final List<RenderMetrics> registry = new ArrayList<RenderMetrics>();
+
+  private static volatile boolean enabled = !"false".equals(System.getProperty(ENABLED_PROPERTY));
+
+  private static final com.sun.management.ThreadMXBean allocationBean = allocationBean();
+
+  private final WeakReference<LXComponent> owner;
+  private final String className;
+
+  // Since registration, and since the last drainWindow()
+  private final Histogram total = new Histogram();
+  private final Histogram window = new Histogram();
+
+  // Only touched by the thread running the pattern
+  private long frameStartNanos = 0;
+  private long frameStartBytes = 0;
+  private boolean inFrame = false;
+
+  private RenderMetrics(LXComponent owner) {
+    this.owner = new WeakReference<LXComponent>(owner);
+    this.className = owner.getClass().getSimpleName();
+  }
+
+  /**
+   * Creates and registers the metrics of a component. The registry only
+   * holds the component weakly, call unregister() when it is disposed.
+   */
+  public static RenderMetrics register(LXComponent owner) {
+    RenderMetrics metrics = new RenderMetrics(owner);
+    synchronized (registry) {
+      registry.add(metrics);
+    }
+    return metrics;
+  }
+
+  public static void unregister(RenderMetrics metrics) {
+    synchronized (registry) {
+      registry.remove(metrics);
+    }
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    RenderMetrics.enabled = enabled;
+  }
+
+  /**
+   * Cumulative snapshots of all live metrics
+   */
+  public static List<Snapshot> snapshots() {
+    return collect(false);
+  }
+
+  /**
+   * Snapshots of all live metrics since the previous call, for periodic
+   * reports. There should only be one caller.
+   */
+  public static List<Snapshot> drainWindows() {
+    return collect(true);
+  }
+
+  private static List<Snapshot> collect(boolean window) {
+    List<Snapshot> snapshots = new ArrayList<Snapshot>();
+    synchronized (registry) {
+      Iterator<RenderMetrics> iterator = registry.iterator();
+      while (iterator.hasNext()) {
+        RenderMetrics metrics = iterator.next();
+        LXComponent owner = metrics.owner.get();
+        if (owner == null) {
+          iterator.remove();
+          continue;
+        }
+        snapshots.add(window ? metrics.drainWindow(owner) : metrics.snapshot(owner));
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Marks the start of a frame, on the thread that runs the pattern
+   */
+  public void beginFrame() {
+    if (!enabled) {
+      return;
+    }
+    this.inFrame = true;
+    this.frameStartBytes = allocatedBytes();
+    this.frameStartNanos = System.nanoTime();
+  }
+
+  /**
+   * Marks the end of the frame begun by beginFrame()
+   *
+   * @param points Number of points rendered in the frame
+   */
+  public void endFrame(int points) {
+    if (!this.inFrame) {
+      return;
+    }
+    long nanos = System.nanoTime() - this.frameStartNanos;
+    long bytes = allocatedBytes() - this.frameStartBytes;
+    this.inFrame = false;
+    synchronized (this) {
+      this.total.record(nanos, bytes, points);
+      this.window.record(nanos, bytes, points);
+    }
+  }
+
+  private synchronized Snapshot snapshot(LXComponent owner) {
+    return new Snapshot(name(owner), this.className, this.total.copy());
+  }
+
+  private synchronized Snapshot drainWindow(LXComponent owner) {
+    Snapshot snapshot = new Snapshot(name(owner), this.className, this.window.copy());
+    this.window.reset();
+    return snapshot;
+  }
+
+  // Channel and pattern label, plain ASCII for the log
+  private static String name(LXComponent owner) {
+    return owner.getCanonicalLabel(null, " / ");
+  }
+
+  private static long allocatedBytes() {
+    if (allocationBean == null) {
+      return 0;
+    }
+    return allocationBean.getCurrentThreadAllocatedBytes();
+  }
+
+  private static com.sun.management.ThreadMXBean allocationBean() {
+    try {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) bean;
+        if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+          return allocation;
+        }
+      }
+    } catch (Throwable x) {
+      // Not available on this VM, allocations read as 0
+    }
+    return null;
+  }
+
+  /**
+   * Frame counts and a log-linear frame time histogram, in nanoseconds
+   */
+  static final class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (63 - SUB_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+    final long[] counts;
+    long frames = 0;
+    long nanos = 0;
+    long maxNanos = 0;
+    long bytes = 0;
+    long points = 0;
+
+    Histogram() {
+      this.counts = new long[BUCKETS];
+    }
+
+    private Histogram(Histogram that) {
+      this.counts = that.counts.clone();
+      this.frames = that.frames;
+      this.nanos = that.nanos;
+      this.maxNanos = that.maxNanos;
+      this.bytes = that.bytes;
+      this.points = that.points;
+    }
+
+    Histogram copy() {
+      return new Histogram(this);
+    }
+
+    void reset() {
+      Arrays.fill(this.counts, 0);
+      this.frames = this.nanos = this.maxNanos = this.bytes = this.points = 0;
+    }
+
+    void record(long nanos, long bytes, int points) {
+      nanos = Math.max(0, nanos);
+      this.counts[bucket(nanos)]++;
+      this.frames++;
+      this.nanos += nanos;
+      this.maxNanos = Math.max(this.maxNanos, nanos);
+      this.bytes += bytes;
+      this.points += points;
+    }
+
+    static int bucket(long value) {
+      if (value < 2 * SUB_BUCKETS) {
+        return (int) value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    // Largest value that falls into a bucket
+    static long upperBound(int bucket) {
+      if (bucket < 2 * SUB_BUCKETS) {
+        return bucket;
+      }
+      int shift = bucket / SUB_BUCKETS - 1;
+      long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+      return ((mantissa + 1) << shift) - 1;
+    }
+  }
+
+  /**
+   * Metrics of one pattern at a point in time
+   */
+  public static final class Snapshot {
+    public final String name;
+    public final String className;
+    private final Histogram histogram;
+
+    private Snapshot(String name, String className, Histogram histogram) {
+      this.name = name;
+      this.className = className;
+      this.histogram = histogram;
+    }
+
+    public long getFrames() {
+      return this.histogram.frames;
+    }
+
+    /**
+     * Frame time at quantile q in [0, 1], in nanoseconds
+     */
+    public long getPercentileNanos(double q) {
+      long frames = this.histogram.frames;
+      if (frames == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(q * frames));
+      long seen = 0;
+      for (int b = 0; b < this.histogram.counts.length; b++) {
+        seen += this.histogram.counts[b];
+        if (seen >= rank) {
+          return Math.min(Histogram.upperBound(b), this.histogram.maxNanos);
+        }
+      }
+      return this.histogram.maxNanos;
+    }
+
+    public long getMaxNanos() {
+      return this.histogram.maxNanos;
+    }
+
+    public double getMeanNanos() {
+      return (this.histogram.frames > 0) ? (double) this.histogram.nanos / this.histogram.frames : 0;
+    }
+
+    public double getNanosPerLed() {
+      return (this.histogram.points > 0) ? (double) this.histogram.nanos / this.histogram.points : 0;
+    }
+
+    public double getBytesPerFrame() {
+      return (this.histogram.frames > 0) ? (double) this.histogram.bytes / this.histogram.frames : 0;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Shared, bounded fork-join pool used by patterns that render in parallel.
+ *
+ * All patterns on all channels share the one pool, so the number of
+ * DuckPond worker threads never exceeds its parallelism no matter how many
+ * channels LX runs concurrently. A channel thread that hands work to the
+ * pool blocks until the frame is done, giving its core to the workers
+ * rather than competing with them.
+ *
+ * The default parallelism is one less than the number of available cores,
+ * leaving a core for the LX engine thread. It can be overridden with the
+ * duckpond.renderThreads system property or setThreads().
+ */
+public class RenderPool {
+
+  public static final String THREADS_PROPERTY = "duckpond.renderThreads";
+
+  private static ForkJoinPool pool = null;
+  private static int threads = 0;
+
+  /**
+   * Returns the shared pool, creating it on first use.
+   */
+  public static synchronized ForkJoinPool get() {
+    if (pool == null) {
+      pool = createPool(getThreads());
+    }
+    return pool;
+  }
+
+  /**
+   * Runs a task on the shared pool and waits for it. A task handed to a
+   * pool that setThreads() retired in the meantime runs on the new pool.
+   */
+  public static <T> T invoke(ForkJoinTask<T> task) {
+    while (true) {
+      ForkJoinPool pool = get();
+      try {
+        return pool.invoke(task);
+      } catch (RejectedExecutionException e) {
+        if (!pool.isShutdown()) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Number of worker threads the shared pool runs with.
+   */
+  public static synchronized int getThreads() {
+    if (threads <= 0) {
+      threads = Integer.getInteger(THREADS_PROPERTY, defaultThreads());
+      threads = Math.max(1, threads);
+    }
+    return threads;
+  }
+
+  /**
+   * Resizes the shared pool. Renders already running on the old pool
+   * complete there, it is shut down once they have drained.
+   *
+   * @param threads Number of worker threads, at least 1
+   */
+  public static synchronized void setThreads(int threads) {
+    threads = Math.max(1, threads);
+    if (threads == RenderPool.threads && pool != null) {
+      return;
+    }
+    RenderPool.threads = threads;
+    ForkJoinPool retired = pool;
+    pool = null;
+    if (retired != null) {
+      retired.shutdown();
+    }
+  }
+
+  public static int defaultThreads() {
+    return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  }
+
+  private static ForkJoinPool createPool(int parallelism) {
+    return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+      @Override
+      public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("DuckPond Render " + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+      }
+    }, null, false);
+  }
+}
@@ -0,0 +1,351 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import heronarts.lx.model.LXModel;
+import heronarts.lx.model.LXPoint;
+
+/**
+ * Precomputed geometry of all umbrella fixtures in a model.
+ *
+ * Holds, as flat primitive arrays, the global and umbrella-local
+ * coordinates of every point, along with the center and normalization
+ * factor of each umbrella. Instances are shared by all patterns running
+ * on the same model and rebuilt only when the model generation changes.
+ *
+ * Points are grouped by umbrella: the points of umbrella u occupy the
+ * range [umbrellaStart[u], umbrellaStart[u + 1]). When fixtures tagged
+ * "umbrella" are nested, a point belongs to the last umbrella in
+ * model.sub("umbrella") order that contains it, matching the order in
+ * which the per-umbrella rendering used to overwrite colors.
+ *
+ * Spokes are the "strip" components of each umbrella fixture. The points
+ * of spoke k are spokePoints[spokeStart[k]] .. spokePoints[spokeStart[k + 1] - 1],
+ * as geometry indices ordered from the center outwards.
+ */
+public class UmbrellaGeometry {
+
+  public static final String UMBRELLA_TAG = "umbrella";
+
+  public static final String SPOKE_TAG = "strip";
+
+  private static final Map<LXModel, UmbrellaGeometry> registry = new WeakHashMap<LXModel, UmbrellaGeometry>();
+
+  // Weak so that a registry entry never keeps its own key alive
+  private final WeakReference<LXModel> model;
+  private final int generation;
+
+  /** Number of points covered by umbrellas */
+  public final int size;
+
+  /** Number of umbrellas that own at least one point */
+  public final int umbrellaCount;
+
+  /** Offsets of each umbrella's points, length umbrellaCount + 1 */
+  public final int[] umbrellaStart;
+
+  public final double[] centerX;
+  public final double[] centerY;
+  public final double[] centerZ;
+
+  public final double[] factorX;
+  public final double[] factorY;
+  public final double[] factorZ;
+
+  public final LXPoint[] points;
+
+  /** LXPoint.index of each point, for writing into colors[] */
+  public final int[] index;
+
+  public final double[] globalX;
+  public final double[] globalY;
+  public final double[] globalZ;
+
+  public final double[] localX;
+  public final double[] localY;
+  public final double[] localZ;
+
+  /** Number of spokes with at least one point */
+  public final int spokeCount;
+
+  /** Offsets of each spoke in spokePoints, length spokeCount + 1 */
+  public final int[] spokeStart;
+
+  /** Geometry indices of the points of all spokes, in strip order */
+  public final int[] spokePoints;
+
+  // Level of detail tables, built on first use per factor
+  private final Map<Integer, SpokeLod> spokeLods = new HashMap<Integer, SpokeLod>();
+
+  /**
+   * Interpolation table for rendering only every k-th point of each spoke.
+   * Points that are not sampled are blended from the two nearest sampled
+   * points of their spoke, lerp(prev, next, t), all by geometry index.
+   */
+  public static class SpokeLod {
+    public final int factor;
+
+    /** Whether the kernel is evaluated at each point */
+    public final boolean[] sample;
+
+    public final int[] prev;
+    public final int[] next;
+    public final double[] t;
+
+    /** Number of sampled points */
+    public final int sampleCount;
+
+    private SpokeLod(UmbrellaGeometry geometry, int factor) {
+      this.factor = factor;
+      this.sample = new boolean[geometry.size];
+      this.prev = new int[geometry.size];
+      this.next = new int[geometry.size];
+      this.t = new double[geometry.size];
+
+      // Points that aren't on a spoke are always evaluated
+      Arrays.fill(this.sample, true);
+      for (int k = 0; k < geometry.spokeCount; k++) {
+        int first = geometry.spokeStart[k];
+        int last = geometry.spokeStart[k + 1] - 1;
+        for (int j = first; j <= last; j++) {
+          int i = geometry.spokePoints[j];
+          int offset = j - first;
+          if (offset % factor == 0 || j == last) {
+            this.prev[i] = this.next[i] = i;
+            continue;
+          }
+          int j0 = j - offset % factor;
+          int j1 = Math.min(j0 + factor, last);
+          this.sample[i] = false;
+          this.prev[i] = geometry.spokePoints[j0];
+          this.next[i] = geometry.spokePoints[j1];
+          this.t[i] = (double) (j - j0) / (j1 - j0);
+        }
+      }
+      int count = 0;
+      for (boolean s : this.sample) {
+        if (s) {
+          count++;
+        }
+      }
+      this.sampleCount = count;
+    }
+  }
+
+  /**
+   * Returns the shared geometry for a model, building it if the model
+   * has not been seen before or its generation has changed.
+   *
+   * @param model Model containing fixtures tagged "umbrella"
+   * @return Geometry for the current model generation
+   */
+  public static UmbrellaGeometry get(LXModel model) {
+    synchronized (registry) {
+      UmbrellaGeometry geometry = registry.get(model);
+      if (geometry == null || !geometry.isValid(model)) {
+        geometry = new UmbrellaGeometry(model);
+        registry.put(model, geometry);
+      }
+      return geometry;
+    }
+  }
+
+  /**
+   * Whether this geometry still describes the given model.
+   */
+  public boolean isValid(LXModel model) {
+    return this.model.get() == model && this.generation == model.getGeneration();
+  }
+
+  /**
+   * Whether the model this geometry was built from is still alive and
+   * unchanged.
+   */
+  public boolean isCurrent() {
+    LXModel model = this.model.get();
+    return model != null && this.generation == model.getGeneration();
+  }
+
+  private UmbrellaGeometry(LXModel model) {
+    this.model = new WeakReference<LXModel>(model);
+    this.generation = model.getGeneration();
+
+    List<LXModel> umbrellas = model.sub(UMBRELLA_TAG);
+
+    // Resolve which umbrella finally owns each point
+    int maxIndex = -1;
+    for (LXModel umbrella : umbrellas) {
+      for (LXPoint point : umbrella.points) {
+        maxIndex = Math.max(maxIndex, point.index);
+      }
+    }
+    int[] owner = new int[maxIndex + 1];
+    Arrays.fill(owner, -1);
+    for (int u = 0; u < umbrellas.size(); u++) {
+      for (LXPoint point : umbrellas.get(u).points) {
+        owner[point.index] = u;
+      }
+    }
+
+    int[] owned = new int[umbrellas.size()];
+    int total = 0;
+    int count = 0;
+    for (int u = 0; u < umbrellas.size(); u++) {
+      for (LXPoint point : umbrellas.get(u).points) {
+        if (owner[point.index] == u) {
+          owned[u]++;
+        }
+      }
+      total += owned[u];
+      if (owned[u] > 0) {
+        count++;
+      }
+    }
+
+    this.size = total;
+    this.umbrellaCount = count;
+    this.umbrellaStart = new int[count + 1];
+    this.centerX = new double[count];
+    this.centerY = new double[count];
+    this.centerZ = new double[count];
+    this.factorX = new double[count];
+    this.factorY = new double[count];
+    this.factorZ = new double[count];
+    this.points = new LXPoint[total];
+    this.index = new int[total];
+    this.globalX = new double[total];
+    this.globalY = new double[total];
+    this.globalZ = new double[total];
+    this.localX = new double[total];
+    this.localY = new double[total];
+    this.localZ = new double[total];
+
+    int u = 0;
+    int i = 0;
+    for (int s = 0; s < umbrellas.size(); s++) {
+      if (owned[s] == 0) {
+        continue;
+      }
+      LXModel umbrella = umbrellas.get(s);
+
+      // Bounds are taken over the whole umbrella, not just the owned points
+      double minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+      double maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+      for (LXPoint point : umbrella.points) {
+        minX = Math.min(minX, point.x);
+        minY = Math.min(minY, point.y);
+        minZ = Math.min(minZ, point.z);
+        maxX = Math.max(maxX, point.x);
+        maxY = Math.max(maxY, point.y);
+        maxZ = Math.max(maxZ, point.z);
+      }
+      this.centerX[u] = (maxX + minX) * 0.5;
+      this.centerY[u] = (maxY + minY) * 0.5;
+      this.centerZ[u] = (maxZ + minZ) * 0.5;
+      this.factorX[u] = normalizationFactor(maxX - minX);
+      this.factorY[u] = normalizationFactor(maxY - minY);
+      this.factorZ[u] = normalizationFactor(maxZ - minZ);
+
+      this.umbrellaStart[u] = i;
+      for (LXPoint point : umbrella.points) {
+        if (owner[point.index] != s) {
+          continue;
+        }
+        this.points[i] = point;
+        this.index[i] = point.index;
+        this.globalX[i] = point.x;
+        this.globalY[i] = point.y;
+        this.globalZ[i] = point.z;
+        this.localX[i] = (point.x - this.centerX[u]) * this.factorX[u];
+        this.localY[i] = (point.y - this.centerY[u]) * this.factorY[u];
+        this.localZ[i] = (point.z - this.centerZ[u]) * this.factorZ[u];
+        i++;
+      }
+      u++;
+    }
+    this.umbrellaStart[count] = i;
+
+    // Spokes, in strip order, restricted to the points each umbrella owns
+    int[] geometryIndex = new int[maxIndex + 1];
+    Arrays.fill(geometryIndex, -1);
+    for (int g = 0; g < total; g++) {
+      geometryIndex[this.index[g]] = g;
+    }
+    boolean[] onSpoke = new boolean[total];
+    List<Integer> starts = new ArrayList<Integer>();
+    List<Integer> spokePoints = new ArrayList<Integer>();
+    for (int s = 0; s < umbrellas.size(); s++) {
+      if (owned[s] == 0) {
+        continue;
+      }
+      for (LXModel spoke : umbrellas.get(s).sub(SPOKE_TAG)) {
+        int start = spokePoints.size();
+        for (LXPoint point : spoke.points) {
+          if (owner[point.index] == s && !onSpoke[geometryIndex[point.index]]) {
+            onSpoke[geometryIndex[point.index]] = true;
+            spokePoints.add(geometryIndex[point.index]);
+          }
+        }
+        if (spokePoints.size() > start) {
+          starts.add(start);
+        }
+      }
+    }
+    this.spokeCount = starts.size();
+    this.spokeStart = new int[this.spokeCount + 1];
+    for (int k = 0; k < this.spokeCount; k++) {
+      this.spokeStart[k] = starts.get(k);
+    }
+    this.spokeStart[this.spokeCount] = spokePoints.size();
+    this.spokePoints = new int[spokePoints.size()];
+    for (int j = 0; j < this.spokePoints.length; j++) {
+      this.spokePoints[j] = spokePoints.get(j);
+    }
+  }
+
+  /**
+   * Returns the level of detail table evaluating every factor-th point of
+   * each spoke, plus its last point.
+   */
+  public SpokeLod getSpokeLod(int factor) {
+    synchronized (this.spokeLods) {
+      SpokeLod lod = this.spokeLods.get(factor);
+      if (lod == null) {
+        lod = new SpokeLod(this, factor);
+        this.spokeLods.put(factor, lod);
+      }
+      return lod;
+    }
+  }
+
+  private static double normalizationFactor(double size) {
+    return size != 0 ? 2.0 / size : 1.0;
+  }
+}
@@ -0,0 +1,435 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of Java 8 class files, just enough for the straight-line
+ * methods of compiled kernels. Without branches the methods need no stack
+ * map frames, the stack depth and locals are tracked as code is emitted.
+ */
+final class ClassFile {
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  // Opcodes
+  static final int ICONST_0 = 0x03;
+  static final int DCONST_0 = 0x0e;
+  static final int DCONST_1 = 0x0f;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int LDC2_W = 0x14;
+  static final int ILOAD = 0x15;
+  static final int DLOAD = 0x18;
+  static final int ALOAD = 0x19;
+  static final int DALOAD = 0x31;
+  static final int AALOAD = 0x32;
+  static final int ISTORE = 0x36;
+  static final int DSTORE = 0x39;
+  static final int ASTORE = 0x3a;
+  static final int DASTORE = 0x52;
+  static final int DUP2 = 0x5c;
+  static final int IADD = 0x60;
+  static final int DADD = 0x63;
+  static final int DSUB = 0x67;
+  static final int IMUL = 0x68;
+  static final int DMUL = 0x6b;
+  static final int DDIV = 0x6f;
+  static final int DNEG = 0x77;
+  static final int I2D = 0x87;
+  static final int D2I = 0x8e;
+  static final int RETURN = 0xb1;
+  static final int GETFIELD = 0xb4;
+  static final int PUTFIELD = 0xb5;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int WIDE = 0xc4;
+
+  // Growable big-endian byte buffer
+  private static final class Bytes {
+    byte[] data = new byte[256];
+    int length = 0;
+
+    void u1(int v) {
+      if (this.length == this.data.length) {
+        this.data = Arrays.copyOf(this.data, this.length * 2);
+      }
+      this.data[this.length++] = (byte) v;
+    }
+
+    void u2(int v) {
+      u1(v >> 8);
+      u1(v);
+    }
+
+    void u4(int v) {
+      u2(v >>> 16);
+      u2(v);
+    }
+
+    void u8(long v) {
+      u4((int) (v >>> 32));
+      u4((int) v);
+    }
+
+    void bytes(Bytes b) {
+      for (int i = 0; i < b.length; i++) {
+        u1(b.data[i]);
+      }
+    }
+  }
+
+  /**
+   * Code of one method
+   */
+  final class Code {
+    private final int access;
+    private final int name;
+    private final int descriptor;
+    private final Bytes code = new Bytes();
+    private int stack = 0;
+    private int maxStack = 0;
+    private int locals;
+
+    private Code(int access, String name, String descriptor, int locals) {
+      this.access = access;
+      this.name = utf8(name);
+      this.descriptor = utf8(descriptor);
+      this.locals = locals;
+    }
+
+    /**
+     * Allocates a local of 1 slot, or 2 for a double
+     */
+    int newLocal(int size) {
+      int local = this.locals;
+      this.locals += size;
+      return local;
+    }
+
+    // Emits an opcode that changes the stack depth by delta slots
+    Code op(int opcode, int delta) {
+      this.code.u1(opcode);
+      this.stack += delta;
+      this.maxStack = Math.max(this.maxStack, this.stack);
+      return this;
+    }
+
+    private Code local(int opcode, int local, int delta) {
+      if (local > 0xff) {
+        op(WIDE, 0);
+        this.code.u1(opcode);
+        this.code.u2(local);
+        this.stack += delta;
+        this.maxStack = Math.max(this.maxStack, this.stack);
+      } else {
+        op(opcode, delta);
+        this.code.u1(local);
+      }
+      return this;
+    }
+
+    Code aload(int local) {
+      return local(ALOAD, local, 1);
+    }
+
+    Code iload(int local) {
+      return local(ILOAD, local, 1);
+    }
+
+    Code dload(int local) {
+      return local(DLOAD, local, 2);
+    }
+
+    Code astore(int local) {
+      return local(ASTORE, local, -1);
+    }
+
+    Code istore(int local) {
+      return local(ISTORE, local, -1);
+    }
+
+    Code dstore(int local) {
+      return local(DSTORE, local, -2);
+    }
+
+    Code dconst(double value) {
+      if (Double.doubleToRawLongBits(value) == 0L) {
+        return op(DCONST_0, 2);
+      }
+      if (value == 1.0) {
+        return op(DCONST_1, 2);
+      }
+      op(LDC2_W, 2);
+      this.code.u2(doubleConstant(value));
+      return this;
+    }
+
+    Code iconst(int value) {
+      if (value >= -1 && value <= 5) {
+        return op(ICONST_0 + value, 1);
+      }
+      if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        op(BIPUSH, 1);
+        this.code.u1(value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        op(SIPUSH, 1);
+        this.code.u2(value);
+      } else {
+        op(LDC_W, 1);
+        this.code.u2(intConstant(value));
+      }
+      return this;
+    }
+
+    Code getfield(String owner, String name, String descriptor) {
+      op(GETFIELD, slots(descriptor) - 1);
+      this.code.u2(fieldRef(owner, name, descriptor));
+      return this;
+    }
+
+    Code putfield(String owner, String name, String descriptor) {
+      op(PUTFIELD, -slots(descriptor) - 1);
+      this.code.u2(fieldRef(owner, name, descriptor));
+      return this;
+    }
+
+    Code invokestatic(String owner, String name, String descriptor) {
+      op(INVOKESTATIC, returnSlots(descriptor) - argumentSlots(descriptor));
+      this.code.u2(methodRef(owner, name, descriptor));
+      return this;
+    }
+
+    Code invokespecial(String owner, String name, String descriptor) {
+      op(INVOKESPECIAL, returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+      this.code.u2(methodRef(owner, name, descriptor));
+      return this;
+    }
+
+    private void write(Bytes out) {
+      out.u2(this.access);
+      out.u2(this.name);
+      out.u2(this.descriptor);
+      out.u2(1);
+      out.u2(codeAttribute);
+      out.u4(12 + this.code.length);
+      out.u2(this.maxStack);
+      out.u2(this.locals);
+      out.u4(this.code.length);
+      out.bytes(this.code);
+      out.u2(0);
+      out.u2(0);
+    }
+  }
+
+  private final Bytes pool = new Bytes();
+  private final Map<String, Integer> entries = new HashMap<String, Integer>();
+  private int poolSize = 1;
+  private final List<Code> methods = new ArrayList<Code>();
+  private final int thisClass;
+  private final int superClass;
+  private final int codeAttribute;
+
+  /**
+   * @param name Internal name of the class
+   * @param superName Internal name of its superclass
+   */
+  ClassFile(String name, String superName) {
+    this.thisClass = classRef(name);
+    this.superClass = classRef(superName);
+    this.codeAttribute = utf8("Code");
+  }
+
+  /**
+   * Adds a method
+   *
+   * @param locals Slots taken by this and the arguments
+   */
+  Code method(int access, String name, String descriptor, int locals) {
+    Code code = new Code(access, name, descriptor, locals);
+    this.methods.add(code);
+    return code;
+  }
+
+  byte[] toByteArray() {
+    Bytes out = new Bytes();
+    out.u4(0xcafebabe);
+    out.u2(0);
+    out.u2(52);
+    out.u2(this.poolSize);
+    out.bytes(this.pool);
+    out.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    out.u2(this.thisClass);
+    out.u2(this.superClass);
+    out.u2(0);
+    out.u2(0);
+    out.u2(this.methods.size());
+    for (Code method : this.methods) {
+      method.write(out);
+    }
+    out.u2(0);
+    return Arrays.copyOf(out.data, out.length);
+  }
+
+  /*
+   * Constant pool entries, shared when equal
+   */
+
+  private Integer existing(String key) {
+    return this.entries.get(key);
+  }
+
+  private int add(String key, int size) {
+    int index = this.poolSize;
+    this.entries.put(key, index);
+    this.poolSize += size;
+    return index;
+  }
+
+  int utf8(String value) {
+    String key = "U" + value;
+    Integer index = existing(key);
+    if (index != null) {
+      return index;
+    }
+    // Names and descriptors here are ASCII, where modified UTF-8 is plain UTF-8
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    this.pool.u1(1);
+    this.pool.u2(bytes.length);
+    for (byte b : bytes) {
+      this.pool.u1(b);
+    }
+    return add(key, 1);
+  }
+
+  int classRef(String name) {
+    String key = "C" + name;
+    Integer index = existing(key);
+    if (index != null) {
+      return index;
+    }
+    int utf8 = utf8(name);
+    this.pool.u1(7);
+    this.pool.u2(utf8);
+    return add(key, 1);
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    String key = "N" + name + " " + descriptor;
+    Integer index = existing(key);
+    if (index != null) {
+      return index;
+    }
+    int n = utf8(name);
+    int d = utf8(descriptor);
+    this.pool.u1(12);
+    this.pool.u2(n);
+    this.pool.u2(d);
+    return add(key, 1);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    String key = tag + owner + "." + name + " " + descriptor;
+    Integer index = existing(key);
+    if (index != null) {
+      return index;
+    }
+    int c = classRef(owner);
+    int nt = nameAndType(name, descriptor);
+    this.pool.u1(tag);
+    this.pool.u2(c);
+    this.pool.u2(nt);
+    return add(key, 1);
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(9, owner, name, descriptor);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return memberRef(10, owner, name, descriptor);
+  }
+
+  int doubleConstant(double value) {
+    long bits = Double.doubleToRawLongBits(value);
+    String key = "D" + bits;
+    Integer index = existing(key);
+    if (index != null) {
+      return index;
+    }
+    this.pool.u1(6);
+    this.pool.u8(bits);
+    // Doubles take two entries
+    return add(key, 2);
+  }
+
+  int intConstant(int value) {
+    String key = "I" + value;
+    Integer index = existing(key);
+    if (index != null) {
+      return index;
+    }
+    this.pool.u1(3);
+    this.pool.u4(value);
+    return add(key, 1);
+  }
+
+  /*
+   * Descriptor slot counts, for the few types kernels use
+   */
+
+  // Arrays and objects take one slot, like the int types
+  private static int slots(String type) {
+    char ch = type.charAt(0);
+    return (ch == 'D' || ch == 'J') ? 2 : (ch == 'V') ? 0 : 1;
+  }
+
+  private static int returnSlots(String descriptor) {
+    return slots(descriptor.substring(descriptor.indexOf(')') + 1));
+  }
+
+  private static int argumentSlots(String descriptor) {
+    int slots = 0;
+    int i = 1;
+    while (descriptor.charAt(i) != ')') {
+      slots += slots(descriptor.substring(i));
+      while (descriptor.charAt(i) == '[') {
+        i++;
+      }
+      if (descriptor.charAt(i) == 'L') {
+        i = descriptor.indexOf(';', i);
+      }
+      i++;
+    }
+    return slots;
+  }
+}
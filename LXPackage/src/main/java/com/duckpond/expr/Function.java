@@ -0,0 +1,107 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import com.duckpond.FastMath;
+import com.duckpond.Gradient;
+
+/**
+ * Static double functions that compiled expressions call. Functions with
+ * a FastMath counterpart call it in kernels compiled for Fast precision.
+ * Constant arguments are folded by calling the same method.
+ */
+enum Function {
+  SIN("sin", 1, Math.class, FastMath.class),
+  COS("cos", 1, Math.class, FastMath.class),
+  ATAN2("atan2", 2, Math.class, FastMath.class),
+  EXP("exp", 1, Math.class, FastMath.class),
+  POW("pow", 2, Math.class, FastMath.class),
+  SQRT("sqrt", 1, Math.class, null),
+  ABS("abs", 1, Math.class, null),
+  FLOOR("floor", 1, Math.class, null),
+  MIN("min", 2, Math.class, null),
+  MAX("max", 2, Math.class, null),
+  CLAMP_POSITION("clampPosition", 1, Gradient.class, null),
+  REPEAT_POSITION("repeatPosition", 1, Gradient.class, null),
+  REFLECT_POSITION("reflectPosition", 1, Gradient.class, null),
+  // Exact with either precision, for the waves Graph splits into a
+  // spatial and a time phase. Named lookups find SIN and COS first.
+  WAVE_SIN("sin", 1, Math.class, null),
+  WAVE_COS("cos", 1, Math.class, null);
+
+  final String name;
+  final int arity;
+  private final Class<?> owner;
+  private final Class<?> fastOwner;
+
+  private Function(String name, int arity, Class<?> owner, Class<?> fastOwner) {
+    this.name = name;
+    this.arity = arity;
+    this.owner = owner;
+    this.fastOwner = fastOwner;
+  }
+
+  /**
+   * Function callable by name from an expression, or null
+   */
+  static Function named(String name) {
+    for (Function function : values()) {
+      if (function.owner != Gradient.class && function.name.equals(name)) {
+        return function;
+      }
+    }
+    return null;
+  }
+
+  private Class<?> owner(boolean fast) {
+    return (fast && this.fastOwner != null) ? this.fastOwner : this.owner;
+  }
+
+  /**
+   * Internal name of the class implementing the function
+   */
+  String ownerName(boolean fast) {
+    return owner(fast).getName().replace('.', '/');
+  }
+
+  String descriptor() {
+    return (this.arity == 1) ? "(D)D" : "(DD)D";
+  }
+
+  double apply(boolean fast, double[] args) {
+    Class<?>[] types = new Class<?>[this.arity];
+    Object[] values = new Object[this.arity];
+    for (int i = 0; i < this.arity; i++) {
+      types[i] = double.class;
+      values[i] = args[i];
+    }
+    try {
+      Method method = owner(fast).getMethod(this.name, types);
+      return (Double) method.invoke(null, values);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException x) {
+      throw new IllegalStateException("Cannot call " + this.name, x);
+    }
+  }
+}
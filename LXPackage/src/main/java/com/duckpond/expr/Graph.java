@@ -0,0 +1,218 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.duckpond.Gradient;
+
+/**
+ * Builds interned expression nodes, folding constants on the way with the
+ * same operations the compiled kernel would run.
+ */
+final class Graph {
+
+  // Variables, the animation time and the global and local point position
+  static final int T = 0;
+  static final int GX = 1;
+  static final int GY = 2;
+  static final int GZ = 3;
+  static final int LX = 4;
+  static final int LY = 5;
+  static final int LZ = 6;
+
+  static final String[] VARIABLES = { "t", "gx", "gy", "gz", "lx", "ly", "lz" };
+
+  /**
+   * Sample table of a gradient, as read by the compiled kernel
+   */
+  static final class Table {
+    final double[] values;
+    final int resolution;
+    final boolean linear;
+
+    Table(Gradient gradient) {
+      this.values = gradient.getTable();
+      this.resolution = gradient.getResolution();
+      this.linear = gradient.getInterpolation() == Gradient.Interpolation.LINEAR;
+    }
+
+    /**
+     * Same as Gradient sampling at a position in [0, 1], with the last
+     * entry blended with itself instead of branching
+     */
+    double sample(double pp, int channel) {
+      double f = pp * (double) (this.resolution - 1);
+      int posInt = (int) f;
+      int i = posInt * 4 + channel;
+      if (!this.linear) {
+        return this.values[i];
+      }
+      double t = f - posInt;
+      int j = Math.min(posInt + 1, this.resolution - 1) * 4 + channel;
+      return this.values[i] + (this.values[j] - this.values[i]) * t;
+    }
+  }
+
+  final boolean fast;
+  final Table[] tables;
+
+  private final Map<Node, Node> nodes = new HashMap<Node, Node>();
+
+  Graph(boolean fast, List<Gradient> gradients) {
+    this.fast = fast;
+    this.tables = new Table[gradients.size()];
+    for (int i = 0; i < this.tables.length; i++) {
+      this.tables[i] = new Table(gradients.get(i));
+    }
+  }
+
+  private Node intern(Node node) {
+    Node existing = this.nodes.get(node);
+    if (existing != null) {
+      return existing;
+    }
+    this.nodes.put(node, node);
+    return node;
+  }
+
+  Node constant(double value) {
+    return intern(Node.constant(value));
+  }
+
+  Node variable(int index) {
+    return intern(Node.variable(index));
+  }
+
+  Node add(Node a, Node b) {
+    if (a.isConstant() && b.isConstant()) {
+      return constant(a.value + b.value);
+    }
+    return intern(Node.op(Node.Op.ADD, a, b));
+  }
+
+  Node sub(Node a, Node b) {
+    if (a.isConstant() && b.isConstant()) {
+      return constant(a.value - b.value);
+    }
+    if (isConstant(b, 0.0)) {
+      return a;
+    }
+    return intern(Node.op(Node.Op.SUB, a, b));
+  }
+
+  Node mul(Node a, Node b) {
+    if (a.isConstant() && b.isConstant()) {
+      return constant(a.value * b.value);
+    }
+    if (isConstant(a, 1.0)) {
+      return b;
+    }
+    if (isConstant(b, 1.0)) {
+      return a;
+    }
+    return intern(Node.op(Node.Op.MUL, a, b));
+  }
+
+  Node div(Node a, Node b) {
+    if (a.isConstant() && b.isConstant()) {
+      return constant(a.value / b.value);
+    }
+    if (isConstant(b, 1.0)) {
+      return a;
+    }
+    return intern(Node.op(Node.Op.DIV, a, b));
+  }
+
+  Node neg(Node a) {
+    if (a.isConstant()) {
+      return constant(-a.value);
+    }
+    if (a.op == Node.Op.NEG) {
+      return a.args[0];
+    }
+    return intern(Node.op(Node.Op.NEG, a));
+  }
+
+  Node call(Function function, Node... args) {
+    boolean constant = true;
+    for (Node arg : args) {
+      constant &= arg.isConstant();
+    }
+    if (constant) {
+      double[] values = new double[args.length];
+      for (int i = 0; i < args.length; i++) {
+        values[i] = args[i].value;
+      }
+      return constant(function.apply(this.fast, values));
+    }
+    if ((function == Function.SIN || function == Function.COS) && args[0].op == Node.Op.ADD) {
+      Node wave = wave(function, args[0].args[0], args[0].args[1]);
+      if (wave == null) {
+        wave = wave(function, args[0].args[1], args[0].args[0]);
+      }
+      if (wave != null) {
+        return wave;
+      }
+    }
+    return intern(Node.call(function, args));
+  }
+
+  /**
+   * A travelling wave sin(p + q) or cos(p + q), with p depending on the
+   * position only and q on time only, expanded into sines and cosines of
+   * p and q. The kernel compiler hoists those into point and frame terms,
+   * which leaves a few multiplies per point, the same as
+   * UmbrellaPattern.sinWave and cosWave.
+   */
+  private Node wave(Function function, Node p, Node q) {
+    if (p.deps != Node.POSITION || q.deps != Node.TIME) {
+      return null;
+    }
+    Node sinP = call(Function.WAVE_SIN, p);
+    Node cosP = call(Function.WAVE_COS, p);
+    Node sinQ = call(Function.WAVE_SIN, q);
+    Node cosQ = call(Function.WAVE_COS, q);
+    if (function == Function.SIN) {
+      return add(mul(sinP, cosQ), mul(cosP, sinQ));
+    }
+    return sub(mul(cosP, cosQ), mul(sinP, sinQ));
+  }
+
+  /**
+   * Channel of a gradient at a position in [0, 1], see Function for the
+   * wrapping of positions
+   */
+  Node sample(int gradient, int channel, Node position) {
+    if (position.isConstant()) {
+      return constant(this.tables[gradient].sample(position.value, channel));
+    }
+    return intern(Node.sample(gradient, channel, position));
+  }
+
+  // Exact match, so that -0.0 is not mistaken for 0.0
+  private static boolean isConstant(Node node, double value) {
+    return node.isConstant() && Double.doubleToLongBits(node.value) == Double.doubleToLongBits(value);
+  }
+}
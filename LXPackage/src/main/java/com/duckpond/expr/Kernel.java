@@ -0,0 +1,78 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import com.duckpond.Float4;
+
+/**
+ * Compiled form of a PatternFile, subclassed by the bytecode that
+ * PatternFile.compile generates.
+ *
+ * Terms of the color expression that depend only on time are evaluated
+ * once per frame by frame(), and expensive terms that depend only on the
+ * point position once per model by point(). color() evaluates the rest at
+ * each point and reads the hoisted terms back from both arrays. Kernels
+ * hold no state of their own, so color() can run on several threads at once.
+ */
+public abstract class Kernel {
+
+  /**
+   * Number of values written by frame()
+   */
+  public final int frameSize;
+
+  /**
+   * Number of values written by point() for each point
+   */
+  public final int fieldCount;
+
+  // Gradient tables the generated code samples inline
+  protected final double[][] tables;
+
+  protected Kernel(double[][] tables, int frameSize, int fieldCount) {
+    this.tables = tables;
+    this.frameSize = frameSize;
+    this.fieldCount = fieldCount;
+  }
+
+  /**
+   * Evaluates the time-only terms
+   *
+   * @param t Animation time in seconds
+   * @param frame Array of at least frameSize values
+   */
+  public abstract void frame(double t, double[] frame);
+
+  /**
+   * Evaluates the position-only terms of a point into fields, from offset
+   */
+  public abstract void point(double gx, double gy, double gz, double lx, double ly, double lz, double[] fields, int offset);
+
+  /**
+   * Evaluates the Oklab color of a point into out, alpha is always 1
+   *
+   * @param frame Terms from frame() for the current time
+   * @param fields Terms from point(), for this point from offset
+   */
+  public abstract void color(double gx, double gy, double gz, double lx, double ly, double lz, double[] frame, double[] fields, int offset, Float4 out);
+}
@@ -0,0 +1,351 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the Kernel subclass of an expression graph.
+ *
+ * The largest subexpressions that depend only on time become frame terms,
+ * those that depend only on position and contain a call or a gradient
+ * sample become point terms. Cheaper position terms stay inline, since
+ * reading them back would cost about as much as evaluating them.
+ * Subexpressions used more than once are kept in locals, and gradients are
+ * sampled inline from their tables, so the generated methods are straight
+ * line code without calls other than to the math functions.
+ */
+final class KernelCompiler {
+
+  private static final String KERNEL = "com/duckpond/expr/Kernel";
+  private static final String FLOAT4 = "com/duckpond/Float4";
+  private static final String FRAME_DESCRIPTOR = "(D[D)V";
+  private static final String POINT_DESCRIPTOR = "(DDDDDD[DI)V";
+  private static final String COLOR_DESCRIPTOR = "(DDDDDD[D[DIL" + FLOAT4 + ";)V";
+
+  // Locals of the position arguments, which come first in point() and color()
+  private static final int[] POSITION_LOCALS = { -1, 1, 3, 5, 7, 9, 11 };
+
+  private static final AtomicInteger classCount = new AtomicInteger();
+
+  // One loader per kernel, so that replaced kernels can be unloaded
+  private static final class Loader extends ClassLoader {
+    Loader() {
+      super(Kernel.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private final Graph graph;
+  private final Map<Node, Integer> frameSlots = new LinkedHashMap<Node, Integer>();
+  private final Map<Node, Integer> fieldSlots = new LinkedHashMap<Node, Integer>();
+  private final Set<Node> planned = new HashSet<Node>();
+
+  private KernelCompiler(Graph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * @param name Name of the pattern, for the generated class name
+   * @param color L, a and b of the color
+   */
+  static Kernel compile(String name, Graph graph, Node[] color) {
+    KernelCompiler compiler = new KernelCompiler(graph);
+    for (Node channel : color) {
+      compiler.plan(channel);
+    }
+    String className = "com/duckpond/expr/gen/" + name.replaceAll("[^A-Za-z0-9_]", "_") + "Kernel" + classCount.incrementAndGet();
+    byte[] bytes = compiler.generate(className, color);
+
+    double[][] tables = new double[graph.tables.length][];
+    for (int i = 0; i < tables.length; i++) {
+      tables[i] = graph.tables[i].values;
+    }
+    try {
+      Class<?> cls = new Loader().define(className.replace('/', '.'), bytes);
+      return (Kernel) cls.getConstructor(double[][].class).newInstance((Object) tables);
+    } catch (ReflectiveOperationException | LinkageError x) {
+      throw new IllegalStateException("Generated kernel of " + name + " failed to load", x);
+    }
+  }
+
+  // Assigns the largest time-only and expensive position-only subexpressions to slots
+  private void plan(Node node) {
+    if (node.isConstant() || !this.planned.add(node)) {
+      return;
+    }
+    if (node.deps == Node.TIME) {
+      this.frameSlots.put(node, this.frameSlots.size());
+    } else if (node.deps == Node.POSITION && node.expensive) {
+      this.fieldSlots.put(node, this.fieldSlots.size());
+    } else {
+      for (Node arg : node.args) {
+        plan(arg);
+      }
+    }
+  }
+
+  private byte[] generate(String className, Node[] color) {
+    ClassFile cf = new ClassFile(className, KERNEL);
+
+    ClassFile.Code init = cf.method(ClassFile.ACC_PUBLIC, "<init>", "([[D)V", 2);
+    init.aload(0).aload(1).iconst(this.frameSlots.size()).iconst(this.fieldSlots.size());
+    init.invokespecial(KERNEL, "<init>", "([[DII)V");
+    init.op(ClassFile.RETURN, 0);
+
+    // frame(t, frame)
+    ClassFile.Code frame = cf.method(ClassFile.ACC_PUBLIC, "frame", FRAME_DESCRIPTOR, 4);
+    Emitter emitter = new Emitter(frame, new int[] { 1, -1, -1, -1, -1, -1, -1 }, null, null, -1, -1, -1);
+    emitter.count(this.frameSlots.keySet());
+    for (Map.Entry<Node, Integer> slot : this.frameSlots.entrySet()) {
+      frame.aload(3).iconst(slot.getValue());
+      emitter.emit(slot.getKey());
+      frame.op(ClassFile.DASTORE, -4);
+    }
+    frame.op(ClassFile.RETURN, 0);
+
+    // point(gx, gy, gz, lx, ly, lz, fields, offset)
+    ClassFile.Code point = cf.method(ClassFile.ACC_PUBLIC, "point", POINT_DESCRIPTOR, 15);
+    emitter = new Emitter(point, POSITION_LOCALS, null, null, -1, -1, -1);
+    emitter.count(this.fieldSlots.keySet());
+    for (Map.Entry<Node, Integer> slot : this.fieldSlots.entrySet()) {
+      point.aload(13).iload(14);
+      if (slot.getValue() > 0) {
+        point.iconst(slot.getValue()).op(ClassFile.IADD, -1);
+      }
+      emitter.emit(slot.getKey());
+      point.op(ClassFile.DASTORE, -4);
+    }
+    point.op(ClassFile.RETURN, 0);
+
+    // color(gx, gy, gz, lx, ly, lz, frame, fields, offset, out)
+    ClassFile.Code code = cf.method(ClassFile.ACC_PUBLIC, "color", COLOR_DESCRIPTOR, 17);
+    emitter = new Emitter(code, POSITION_LOCALS, this.frameSlots, this.fieldSlots, 13, 14, 15);
+    emitter.count(Arrays.asList(color));
+    String[] fields = { "x", "y", "z" };
+    for (int c = 0; c < 3; c++) {
+      code.aload(16);
+      emitter.emit(color[c]);
+      code.putfield(FLOAT4, fields[c], "D");
+    }
+    code.aload(16).dconst(1.0).putfield(FLOAT4, "w", "D");
+    code.op(ClassFile.RETURN, 0);
+
+    return cf.toByteArray();
+  }
+
+  // Index computations shared by the channels of a gradient sample
+  private static final class Sampler {
+    int table;
+    int i;
+    int j;
+    int t;
+  }
+
+  /**
+   * Emits the nodes of one method
+   */
+  private final class Emitter {
+    private final ClassFile.Code code;
+    private final int[] variables;
+    private final Map<Node, Integer> frameSlots;
+    private final Map<Node, Integer> fieldSlots;
+    private final int frameLocal;
+    private final int fieldsLocal;
+    private final int offsetLocal;
+
+    private final Map<Node, Integer> uses = new HashMap<Node, Integer>();
+    private final Map<Node, Integer> locals = new HashMap<Node, Integer>();
+    private final Map<List<Object>, Sampler> samplers = new HashMap<List<Object>, Sampler>();
+    private final Map<Integer, Integer> tables = new HashMap<Integer, Integer>();
+
+    /**
+     * @param variables Local of each variable, -1 where not available
+     * @param frameSlots Frame terms to read back, or null to evaluate them
+     * @param fieldSlots Point terms to read back, or null to evaluate them
+     */
+    Emitter(ClassFile.Code code, int[] variables, Map<Node, Integer> frameSlots, Map<Node, Integer> fieldSlots,
+            int frameLocal, int fieldsLocal, int offsetLocal) {
+      this.code = code;
+      this.variables = variables;
+      this.frameSlots = frameSlots;
+      this.fieldSlots = fieldSlots;
+      this.frameLocal = frameLocal;
+      this.fieldsLocal = fieldsLocal;
+      this.offsetLocal = offsetLocal;
+    }
+
+    private boolean isSlot(Node node) {
+      return (this.frameSlots != null && this.frameSlots.containsKey(node)) ||
+        (this.fieldSlots != null && this.fieldSlots.containsKey(node));
+    }
+
+    // Counts the uses of every node below the roots, to find shared ones
+    void count(Iterable<Node> roots) {
+      Set<List<Object>> sampled = new HashSet<List<Object>>();
+      for (Node root : roots) {
+        count(root, sampled);
+      }
+    }
+
+    private void count(Node node, Set<List<Object>> sampled) {
+      Integer uses = this.uses.get(node);
+      this.uses.put(node, (uses == null) ? 1 : uses + 1);
+      if (uses != null || isSlot(node)) {
+        return;
+      }
+      if (node.op == Node.Op.SAMPLE) {
+        // The channels of a sample share its position
+        if (sampled.add(samplerKey(node))) {
+          count(node.args[0], sampled);
+        }
+        return;
+      }
+      for (Node arg : node.args) {
+        count(arg, sampled);
+      }
+    }
+
+    private List<Object> samplerKey(Node node) {
+      return Arrays.<Object>asList(node.gradient, node.args[0]);
+    }
+
+    void emit(Node node) {
+      Integer local = this.locals.get(node);
+      if (local != null) {
+        this.code.dload(local);
+        return;
+      }
+      Integer slot;
+      if (this.frameSlots != null && (slot = this.frameSlots.get(node)) != null) {
+        this.code.aload(this.frameLocal).iconst(slot).op(ClassFile.DALOAD, 0);
+      } else if (this.fieldSlots != null && (slot = this.fieldSlots.get(node)) != null) {
+        this.code.aload(this.fieldsLocal).iload(this.offsetLocal);
+        if (slot > 0) {
+          this.code.iconst(slot).op(ClassFile.IADD, -1);
+        }
+        this.code.op(ClassFile.DALOAD, 0);
+      } else {
+        switch (node.op) {
+        case CONST:
+          this.code.dconst(node.value);
+          return;
+        case VAR:
+          this.code.dload(this.variables[node.index]);
+          return;
+        case ADD:
+          binary(node, ClassFile.DADD);
+          break;
+        case SUB:
+          binary(node, ClassFile.DSUB);
+          break;
+        case MUL:
+          binary(node, ClassFile.DMUL);
+          break;
+        case DIV:
+          binary(node, ClassFile.DDIV);
+          break;
+        case NEG:
+          emit(node.args[0]);
+          this.code.op(ClassFile.DNEG, 0);
+          break;
+        case CALL:
+          for (Node arg : node.args) {
+            emit(arg);
+          }
+          this.code.invokestatic(node.function.ownerName(graph.fast), node.function.name, node.function.descriptor());
+          break;
+        case SAMPLE:
+          sample(node);
+          break;
+        }
+      }
+      if (this.uses.get(node) > 1) {
+        int keep = this.code.newLocal(2);
+        this.code.op(ClassFile.DUP2, 2).dstore(keep);
+        this.locals.put(node, keep);
+      }
+    }
+
+    private void binary(Node node, int opcode) {
+      emit(node.args[0]);
+      emit(node.args[1]);
+      this.code.op(opcode, -2);
+    }
+
+    // Same arithmetic as Graph.Table.sample
+    private void sample(Node node) {
+      Graph.Table table = graph.tables[node.gradient];
+      Sampler sampler = this.samplers.get(samplerKey(node));
+      if (sampler == null) {
+        sampler = new Sampler();
+        Integer tableLocal = this.tables.get(node.gradient);
+        if (tableLocal == null) {
+          tableLocal = this.code.newLocal(1);
+          this.code.aload(0).getfield(KERNEL, "tables", "[[D").iconst(node.gradient).op(ClassFile.AALOAD, -1).astore(tableLocal);
+          this.tables.put(node.gradient, tableLocal);
+        }
+        sampler.table = tableLocal;
+        emit(node.args[0]);
+        int f = this.code.newLocal(2);
+        int posInt = this.code.newLocal(1);
+        sampler.i = this.code.newLocal(1);
+        this.code.dconst(table.resolution - 1).op(ClassFile.DMUL, -2).dstore(f);
+        this.code.dload(f).op(ClassFile.D2I, -1).istore(posInt);
+        this.code.iload(posInt).iconst(4).op(ClassFile.IMUL, -1).istore(sampler.i);
+        if (table.linear) {
+          sampler.t = this.code.newLocal(2);
+          sampler.j = this.code.newLocal(1);
+          this.code.dload(f).iload(posInt).op(ClassFile.I2D, 1).op(ClassFile.DSUB, -2).dstore(sampler.t);
+          this.code.iload(posInt).iconst(1).op(ClassFile.IADD, -1).iconst(table.resolution - 1);
+          this.code.invokestatic("java/lang/Math", "min", "(II)I").iconst(4).op(ClassFile.IMUL, -1).istore(sampler.j);
+        }
+        this.samplers.put(samplerKey(node), sampler);
+      }
+      entry(sampler, sampler.i, node.index);
+      if (table.linear) {
+        entry(sampler, sampler.j, node.index);
+        entry(sampler, sampler.i, node.index);
+        this.code.op(ClassFile.DSUB, -2).dload(sampler.t).op(ClassFile.DMUL, -2).op(ClassFile.DADD, -2);
+      }
+    }
+
+    private void entry(Sampler sampler, int index, int channel) {
+      this.code.aload(sampler.table).iload(index);
+      if (channel > 0) {
+        this.code.iconst(channel).op(ClassFile.IADD, -1);
+      }
+      this.code.op(ClassFile.DALOAD, 0);
+    }
+  }
+}
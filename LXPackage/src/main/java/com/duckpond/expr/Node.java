@@ -0,0 +1,149 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.util.Arrays;
+
+/**
+ * Scalar node of an expression graph. Colors are lowered to one node per
+ * Oklab channel. Nodes are interned by Graph, so equal subexpressions are
+ * the same node and arguments compare by identity.
+ */
+final class Node {
+
+  // What a node varies with, constants vary with neither
+  static final int TIME = 1;
+  static final int POSITION = 2;
+
+  enum Op {
+    CONST,
+    VAR,
+    ADD,
+    SUB,
+    MUL,
+    DIV,
+    NEG,
+    CALL,
+    SAMPLE
+  }
+
+  private static final Node[] NONE = new Node[0];
+
+  final Op op;
+
+  // Value of a constant
+  final double value;
+
+  // Variable of a VAR, channel of a SAMPLE
+  final int index;
+
+  // Function of a CALL
+  final Function function;
+
+  // Gradient of a SAMPLE, its argument is the position in [0, 1]
+  final int gradient;
+
+  final Node[] args;
+
+  // TIME and POSITION bits of the variables below
+  final int deps;
+
+  // Whether there is a call or gradient sample below, so that hoisting
+  // the node saves more than a few arithmetic instructions
+  final boolean expensive;
+
+  private final int hash;
+
+  private Node(Op op, double value, int index, Function function, int gradient, Node... args) {
+    this.op = op;
+    this.value = value;
+    this.index = index;
+    this.function = function;
+    this.gradient = gradient;
+    this.args = args;
+    int deps = 0;
+    boolean expensive = (op == Op.CALL || op == Op.SAMPLE);
+    for (Node arg : args) {
+      deps |= arg.deps;
+      expensive |= arg.expensive;
+    }
+    if (op == Op.VAR) {
+      deps = (index == Graph.T) ? TIME : POSITION;
+    }
+    this.deps = deps;
+    this.expensive = expensive;
+    this.hash = 31 * (31 * (31 * op.hashCode() + Double.hashCode(value)) + 31 * index + gradient)
+      + ((function != null) ? function.hashCode() : 0) + Arrays.hashCode(args);
+  }
+
+  static Node constant(double value) {
+    return new Node(Op.CONST, value, 0, null, 0, NONE);
+  }
+
+  static Node variable(int index) {
+    return new Node(Op.VAR, 0.0, index, null, 0, NONE);
+  }
+
+  static Node op(Op op, Node... args) {
+    return new Node(op, 0.0, 0, null, 0, args);
+  }
+
+  static Node call(Function function, Node... args) {
+    return new Node(Op.CALL, 0.0, 0, function, 0, args);
+  }
+
+  static Node sample(int gradient, int channel, Node position) {
+    return new Node(Op.SAMPLE, 0.0, channel, null, gradient, position);
+  }
+
+  boolean isConstant() {
+    return this.op == Op.CONST;
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Node)) {
+      return false;
+    }
+    Node that = (Node) o;
+    if (this.op != that.op ||
+        Double.doubleToLongBits(this.value) != Double.doubleToLongBits(that.value) ||
+        this.index != that.index ||
+        this.function != that.function ||
+        this.gradient != that.gradient ||
+        this.args.length != that.args.length) {
+      return false;
+    }
+    for (int i = 0; i < this.args.length; i++) {
+      if (this.args[i] != that.args[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
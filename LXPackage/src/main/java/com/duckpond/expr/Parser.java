@@ -0,0 +1,413 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import com.duckpond.ColorSpace;
+import com.duckpond.Float4;
+
+/**
+ * Recursive descent parser from expression text straight to graph nodes.
+ *
+ * Expressions are numbers, the variables t, gx, gy, gz, lx, ly and lz,
+ * names bound earlier, #rrggbb colors, the operators + - * / with the
+ * usual precedence, parentheses and function calls. Values are numbers or
+ * Oklab colors, color arithmetic works per channel and scales by numbers.
+ */
+final class Parser {
+
+  /**
+   * A number, an Oklab color, or a reference to a gradient
+   */
+  static final class Value {
+    final Node[] channels;
+    final int gradient;
+
+    Value(Node... channels) {
+      this.channels = channels;
+      this.gradient = -1;
+    }
+
+    Value(int gradient) {
+      this.channels = null;
+      this.gradient = gradient;
+    }
+
+    boolean isNumber() {
+      return this.channels != null && this.channels.length == 1;
+    }
+
+    boolean isColor() {
+      return this.channels != null && this.channels.length == 3;
+    }
+
+    String describe() {
+      return isNumber() ? "a number" : isColor() ? "a color" : "a gradient";
+    }
+  }
+
+  private final Graph graph;
+  private final List<String> gradients;
+  private final Map<String, Value> names;
+  private final String text;
+  private int pos = 0;
+
+  private Parser(Graph graph, List<String> gradients, Map<String, Value> names, String text) {
+    this.graph = graph;
+    this.gradients = gradients;
+    this.names = names;
+    this.text = text;
+  }
+
+  /**
+   * @param gradients Names of the gradients, by index
+   * @param names Values bound so far
+   */
+  static Value parse(Graph graph, List<String> gradients, Map<String, Value> names, String text) {
+    Parser parser = new Parser(graph, gradients, names, text);
+    Value value = parser.sum();
+    parser.skipSpace();
+    if (parser.pos < text.length()) {
+      throw parser.error("Unexpected '" + text.charAt(parser.pos) + "'");
+    }
+    return value;
+  }
+
+  private Value sum() {
+    Value value = product();
+    while (true) {
+      if (accept('+')) {
+        value = binary('+', value, product());
+      } else if (accept('-')) {
+        value = binary('-', value, product());
+      } else {
+        return value;
+      }
+    }
+  }
+
+  private Value product() {
+    Value value = unary();
+    while (true) {
+      if (accept('*')) {
+        value = binary('*', value, unary());
+      } else if (accept('/')) {
+        value = binary('/', value, unary());
+      } else {
+        return value;
+      }
+    }
+  }
+
+  private Value unary() {
+    if (accept('-')) {
+      Value value = checkValue(unary());
+      Node[] channels = new Node[value.channels.length];
+      for (int c = 0; c < channels.length; c++) {
+        channels[c] = this.graph.neg(value.channels[c]);
+      }
+      return new Value(channels);
+    }
+    return primary();
+  }
+
+  private Value primary() {
+    skipSpace();
+    if (this.pos >= this.text.length()) {
+      throw error("Unexpected end of expression");
+    }
+    char ch = this.text.charAt(this.pos);
+    if (accept('(')) {
+      Value value = sum();
+      expect(')');
+      return value;
+    }
+    if (ch == '#') {
+      return color();
+    }
+    if (Character.isDigit(ch) || ch == '.') {
+      return new Value(this.graph.constant(number()));
+    }
+    if (Character.isLetter(ch) || ch == '_') {
+      int start = this.pos;
+      String name = identifier();
+      if (accept('(')) {
+        return call(name, start, arguments());
+      }
+      return lookup(name, start);
+    }
+    throw error("Unexpected '" + ch + "'");
+  }
+
+  private Value lookup(String name, int start) {
+    for (int i = 0; i < Graph.VARIABLES.length; i++) {
+      if (Graph.VARIABLES[i].equals(name)) {
+        return new Value(this.graph.variable(i));
+      }
+    }
+    if (name.equals("pi")) {
+      return new Value(this.graph.constant(Math.PI));
+    }
+    Value value = this.names.get(name);
+    if (value != null) {
+      return value;
+    }
+    int gradient = this.gradients.indexOf(name);
+    if (gradient >= 0) {
+      return new Value(gradient);
+    }
+    throw error("Unknown name " + name, start);
+  }
+
+  private Value[] arguments() {
+    if (accept(')')) {
+      return new Value[0];
+    }
+    List<Value> args = new ArrayList<Value>();
+    do {
+      args.add(sum());
+    } while (accept(','));
+    expect(')');
+    return args.toArray(new Value[0]);
+  }
+
+  private Value call(String name, int start, Value[] args) {
+    Graph g = this.graph;
+    switch (name) {
+    case "clamp":
+      if (args.length == 1 && args[0].isColor()) {
+        // Per channel, as Float4.clampLocal
+        Node[] channels = new Node[3];
+        for (int c = 0; c < 3; c++) {
+          channels[c] = g.call(Function.MAX, g.constant(0.0), g.call(Function.MIN, g.constant(1.0), args[0].channels[c]));
+        }
+        return new Value(channels);
+      }
+      if (args.length == 3) {
+        return new Value(g.call(Function.MAX, number(args[1], name, start), g.call(Function.MIN, number(args[2], name, start), number(args[0], name, start))));
+      }
+      return sample(Function.CLAMP_POSITION, name, start, args);
+    case "repeat":
+      return sample(Function.REPEAT_POSITION, name, start, args);
+    case "reflect":
+      return sample(Function.REFLECT_POSITION, name, start, args);
+    case "fract": {
+      checkArity(name, start, args, 1);
+      Node x = number(args[0], name, start);
+      return new Value(g.sub(x, g.call(Function.FLOOR, x)));
+    }
+    case "len": {
+      if (args.length != 2 && args.length != 3) {
+        throw error("len takes 2 or 3 arguments", start);
+      }
+      Node sum = null;
+      for (Value arg : args) {
+        Node x = number(arg, name, start);
+        sum = (sum == null) ? g.mul(x, x) : g.add(sum, g.mul(x, x));
+      }
+      return new Value(g.call(Function.SQRT, sum));
+    }
+    case "mix": {
+      // a + (b - a) * t, as Float4.lerp
+      checkArity(name, start, args, 3);
+      Node t = number(args[2], name, start);
+      Value a = checkValue(args[0]);
+      Value b = checkValue(args[1]);
+      if (a.channels.length != b.channels.length) {
+        throw error("mix of " + a.describe() + " and " + b.describe(), start);
+      }
+      Node[] channels = new Node[a.channels.length];
+      for (int c = 0; c < channels.length; c++) {
+        channels[c] = g.add(a.channels[c], g.mul(g.sub(b.channels[c], a.channels[c]), t));
+      }
+      return new Value(channels);
+    }
+    case "smoothstep": {
+      checkArity(name, start, args, 3);
+      Node e0 = number(args[0], name, start);
+      Node e1 = number(args[1], name, start);
+      Node x = g.div(g.sub(number(args[2], name, start), e0), g.sub(e1, e0));
+      x = g.call(Function.MAX, g.constant(0.0), g.call(Function.MIN, g.constant(1.0), x));
+      return new Value(g.mul(g.mul(x, x), g.sub(g.constant(3.0), g.mul(g.constant(2.0), x))));
+    }
+    case "rgb": {
+      checkArity(name, start, args, 3);
+      double[] rgb = new double[3];
+      for (int c = 0; c < 3; c++) {
+        Node x = number(args[c], name, start);
+        if (!x.isConstant()) {
+          throw error("rgb takes constant arguments", start);
+        }
+        rgb[c] = x.value;
+      }
+      return oklab(ColorSpace.rgbToOklab(rgb[0], rgb[1], rgb[2]));
+    }
+    default:
+      Function function = Function.named(name);
+      if (function == null) {
+        throw error("Unknown function " + name, start);
+      }
+      checkArity(name, start, args, function.arity);
+      Node[] nodes = new Node[args.length];
+      for (int i = 0; i < args.length; i++) {
+        nodes[i] = number(args[i], name, start);
+      }
+      return new Value(g.call(function, nodes));
+    }
+  }
+
+  // Gradient sampled at a wrapped position
+  private Value sample(Function wrap, String name, int start, Value[] args) {
+    if (args.length != 2 || args[0].gradient < 0) {
+      throw error(name + " takes a gradient and a position", start);
+    }
+    Node position = this.graph.call(wrap, number(args[1], name, start));
+    Node[] channels = new Node[3];
+    for (int c = 0; c < 3; c++) {
+      channels[c] = this.graph.sample(args[0].gradient, c, position);
+    }
+    return new Value(channels);
+  }
+
+  private Value binary(char op, Value a, Value b) {
+    checkValue(a);
+    checkValue(b);
+    int channels = Math.max(a.channels.length, b.channels.length);
+    if (a.channels.length != b.channels.length) {
+      // Colors scale by numbers, but don't offset by them
+      boolean scale = (op == '*') || (op == '/' && b.isNumber());
+      if (!scale) {
+        throw error("Cannot apply " + op + " to " + a.describe() + " and " + b.describe());
+      }
+    }
+    Node[] out = new Node[channels];
+    for (int c = 0; c < channels; c++) {
+      Node x = a.channels[a.isNumber() ? 0 : c];
+      Node y = b.channels[b.isNumber() ? 0 : c];
+      switch (op) {
+      case '+': out[c] = this.graph.add(x, y); break;
+      case '-': out[c] = this.graph.sub(x, y); break;
+      case '*': out[c] = this.graph.mul(x, y); break;
+      default: out[c] = this.graph.div(x, y); break;
+      }
+    }
+    return new Value(out);
+  }
+
+  private Value color() {
+    int start = this.pos++;
+    int end = this.pos;
+    while (end < this.text.length() && Character.digit(this.text.charAt(end), 16) >= 0) {
+      end++;
+    }
+    if (end - this.pos != 6) {
+      throw error("Colors are written #rrggbb", start);
+    }
+    int rgb = Integer.parseInt(this.text.substring(this.pos, end), 16);
+    this.pos = end;
+    return oklab(ColorSpace.srgb2oklab(new Float4(rgb, 1.0)));
+  }
+
+  private Value oklab(Float4 color) {
+    return new Value(this.graph.constant(color.x), this.graph.constant(color.y), this.graph.constant(color.z));
+  }
+
+  private double number() {
+    int start = this.pos;
+    while (this.pos < this.text.length()) {
+      char ch = this.text.charAt(this.pos);
+      boolean exponent = (ch == 'e' || ch == 'E');
+      boolean sign = (ch == '+' || ch == '-') && this.pos > start &&
+        (this.text.charAt(this.pos - 1) == 'e' || this.text.charAt(this.pos - 1) == 'E');
+      if (!Character.isDigit(ch) && ch != '.' && !exponent && !sign) {
+        break;
+      }
+      this.pos++;
+    }
+    try {
+      return Double.parseDouble(this.text.substring(start, this.pos));
+    } catch (NumberFormatException x) {
+      throw error("Invalid number " + this.text.substring(start, this.pos), start);
+    }
+  }
+
+  private String identifier() {
+    int start = this.pos;
+    while (this.pos < this.text.length() &&
+           (Character.isLetterOrDigit(this.text.charAt(this.pos)) || this.text.charAt(this.pos) == '_')) {
+      this.pos++;
+    }
+    return this.text.substring(start, this.pos);
+  }
+
+  private Node number(Value value, String function, int start) {
+    if (!value.isNumber()) {
+      throw error(function + " takes numbers, not " + value.describe(), start);
+    }
+    return value.channels[0];
+  }
+
+  private Value checkValue(Value value) {
+    if (value.channels == null) {
+      throw error("A gradient can only be sampled, with clamp, repeat or reflect");
+    }
+    return value;
+  }
+
+  private void checkArity(String name, int start, Value[] args, int arity) {
+    if (args.length != arity) {
+      throw error(name + " takes " + arity + " argument" + (arity == 1 ? "" : "s"), start);
+    }
+  }
+
+  private void skipSpace() {
+    while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) {
+      this.pos++;
+    }
+  }
+
+  private boolean accept(char ch) {
+    skipSpace();
+    if (this.pos < this.text.length() && this.text.charAt(this.pos) == ch) {
+      this.pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char ch) {
+    if (!accept(ch)) {
+      throw error("Expected '" + ch + "'");
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return error(message, this.pos);
+  }
+
+  private IllegalArgumentException error(String message, int at) {
+    return new IllegalArgumentException(message + " at column " + (at + 1) + " of \"" + this.text + "\"");
+  }
+}
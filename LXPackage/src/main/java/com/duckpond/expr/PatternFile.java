@@ -0,0 +1,206 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.expr;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.duckpond.Float4;
+import com.duckpond.Gradient;
+
+/**
+ * Pattern described by expressions in a JSON file, compiled to a Kernel.
+ *
+ * <pre>
+ * {
+ *   "description": "Rainbow gradient with local coordinate modulation",
+ *   "gradients": {
+ *     "rainbow": {
+ *       "mode": "rgb",
+ *       "stops": [ [ "#ff0000", 0.00 ], [ "#00ff00", 0.50 ], [ "#ff0000", 1.00 ] ]
+ *     }
+ *   },
+ *   "let": {
+ *     "x": "sin((lx + 1) * 0.25 + t * 0.050)",
+ *     "y": "cos((ly + 1) * 0.25 + t * 0.055)"
+ *   },
+ *   "color": "reflect(rainbow, x * y) * (1 - len(lx, ly, lz) + 0.5)"
+ * }
+ * </pre>
+ *
+ * Gradients take a "mode" of rgb or hsv, stops as #rrggbb or [x, y, z]
+ * with their position, and optionally an "interpolation" of nearest or
+ * linear and a "resolution". The "let" bindings are evaluated in order and
+ * can refer to earlier ones, "color" must be a color. See Parser for the
+ * expressions, their functions are:
+ *
+ * <ul>
+ * <li>sin, cos, atan2, exp, pow, following the Fast precision setting</li>
+ * <li>sqrt, abs, floor, fract, min, max, clamp(x, lo, hi), smoothstep,
+ *     len(x, y) and len(x, y, z)</li>
+ * <li>clamp, repeat and reflect(gradient, x), sampling a gradient</li>
+ * <li>mix(a, b, t) of numbers or colors, clamp(color) per channel, and
+ *     rgb(r, g, b) of constant sRGB components</li>
+ * </ul>
+ *
+ * Constant subexpressions are folded when compiling, with the same math
+ * the kernel would run.
+ */
+public final class PatternFile {
+
+  private final String name;
+  private final String description;
+  private final List<String> gradientNames = new ArrayList<String>();
+  private final List<Gradient> gradients = new ArrayList<Gradient>();
+  private final Map<String, String> bindings = new LinkedHashMap<String, String>();
+  private final String color;
+
+  private PatternFile(String name, JsonObject json) {
+    this.name = name;
+    this.description = json.has("description") ? json.get("description").getAsString() : "";
+    if (json.has("gradients")) {
+      for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("gradients").entrySet()) {
+        checkName(entry.getKey());
+        this.gradientNames.add(entry.getKey());
+        this.gradients.add(gradient(entry.getKey(), entry.getValue().getAsJsonObject()));
+      }
+    }
+    if (json.has("let")) {
+      for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject("let").entrySet()) {
+        checkName(entry.getKey());
+        this.bindings.put(entry.getKey(), entry.getValue().getAsString());
+      }
+    }
+    if (!json.has("color")) {
+      throw new IllegalArgumentException("No color expression");
+    }
+    this.color = json.get("color").getAsString();
+  }
+
+  /**
+   * Reads and checks a pattern file, named after the file without extension
+   */
+  public static PatternFile load(File file) throws IOException {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    try (Reader reader = new FileReader(file)) {
+      return load((dot > 0) ? name.substring(0, dot) : name, reader);
+    }
+  }
+
+  public static PatternFile load(String name, Reader reader) throws IOException {
+    try {
+      PatternFile pattern = new PatternFile(name, JsonParser.parseReader(reader).getAsJsonObject());
+      // Surface expression errors now rather than when first rendered
+      pattern.build(new Graph(false, pattern.gradients));
+      return pattern;
+    } catch (RuntimeException x) {
+      throw new IOException("Invalid pattern file " + name + ": " + x.getMessage(), x);
+    }
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public String getDescription() {
+    return this.description;
+  }
+
+  /**
+   * Generates the kernel, calling FastMath for the functions that have a
+   * fast version if fast is set
+   */
+  public Kernel compile(boolean fast) {
+    Graph graph = new Graph(fast, this.gradients);
+    return KernelCompiler.compile(this.name, graph, build(graph));
+  }
+
+  // Parses the expressions into the graph, returning the color channels
+  private Node[] build(Graph graph) {
+    Map<String, Parser.Value> names = new HashMap<String, Parser.Value>();
+    for (Map.Entry<String, String> binding : this.bindings.entrySet()) {
+      names.put(binding.getKey(), Parser.parse(graph, this.gradientNames, names, binding.getValue()));
+    }
+    Parser.Value value = Parser.parse(graph, this.gradientNames, names, this.color);
+    if (!value.isColor()) {
+      throw new IllegalArgumentException("color is " + value.describe() + ", not a color");
+    }
+    return value.channels;
+  }
+
+  private void checkName(String name) {
+    if (!name.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+      throw new IllegalArgumentException("Invalid name " + name);
+    }
+    for (String variable : Graph.VARIABLES) {
+      if (variable.equals(name)) {
+        throw new IllegalArgumentException(name + " is a variable");
+      }
+    }
+    if (name.equals("pi") || this.gradientNames.contains(name) || this.bindings.containsKey(name)) {
+      throw new IllegalArgumentException(name + " is already defined");
+    }
+  }
+
+  private static Gradient gradient(String name, JsonObject json) {
+    Gradient.ColorMode mode = Gradient.ColorMode.valueOf(getString(json, "mode", "rgb").toUpperCase());
+    Gradient.Interpolation interpolation = Gradient.Interpolation.valueOf(getString(json, "interpolation", "nearest").toUpperCase());
+    int resolution = json.has("resolution") ? json.get("resolution").getAsInt() : Gradient.DEFAULT_RESOLUTION;
+    JsonArray stops = json.getAsJsonArray("stops");
+    if (stops == null || stops.size() < 2) {
+      throw new IllegalArgumentException("Gradient " + name + " needs at least 2 stops");
+    }
+    Float4[] g = new Float4[stops.size()];
+    for (int i = 0; i < g.length; i++) {
+      JsonArray stop = stops.get(i).getAsJsonArray();
+      double position = stop.get(1).getAsDouble();
+      JsonElement color = stop.get(0);
+      if (color.isJsonArray()) {
+        JsonArray xyz = color.getAsJsonArray();
+        g[i] = new Float4(xyz.get(0).getAsDouble(), xyz.get(1).getAsDouble(), xyz.get(2).getAsDouble(), position);
+      } else {
+        String hex = color.getAsString();
+        if (!hex.matches("#[0-9a-fA-F]{6}")) {
+          throw new IllegalArgumentException("Gradient " + name + " has a stop color " + hex + ", not #rrggbb");
+        }
+        g[i] = new Float4(Integer.parseInt(hex.substring(1), 16), position);
+      }
+    }
+    return Gradient.get(g, mode, resolution, interpolation);
+  }
+
+  private static String getString(JsonObject object, String key, String defaultValue) {
+    return object.has(key) ? object.get(key).getAsString() : defaultValue;
+  }
+}
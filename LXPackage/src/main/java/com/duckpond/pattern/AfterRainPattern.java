@@ -26,7 +26,9 @@ import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
+import com.duckpond.Float4f;
 import com.duckpond.Gradient;
+import com.duckpond.PointBatch;
 
 /**
  * After Rain effect - Rainbow gradient with rotating motion
@@ -36,11 +38,21 @@ public class AfterRainPattern extends UmbrellaPattern {
   
   private Gradient rainbowGradientBright;
   
+  // Waves of the kernel, see UmbrellaPattern.addWave
+  private int xWave;
+  private int yWave;
+  
   public AfterRainPattern(LX lx) {
     super(lx);
     initGradients();
   }
   
+  @Override
+  protected void declareFields() {
+    this.xWave = addWave((g, l) -> g.x * 4.0, 0.20);
+    this.yWave = addWave((g, l) -> g.y * 4.0, 0.20);
+  }
+  
   private void initGradients() {
     Float4[] rainbowGradientBright = {
        new Float4(0xff0000, 0.00),
@@ -59,13 +71,42 @@ public class AfterRainPattern extends UmbrellaPattern {
        new Float4(0xff0000, 1.00)
     };
 
-    this.rainbowGradientBright = new Gradient(rainbowGradientBright, Gradient.ColorMode.RGB);
+    this.rainbowGradientBright = Gradient.get(rainbowGradientBright, Gradient.ColorMode.RGB);
+  }
+  
+  @Override
+  protected void calculateColors(PointBatch batch) {
+    double t = batch.time * 0.20;
+    double cosT = Math.cos(t);
+    double sinT = Math.sin(t);
+    Float4 out = batch.color;
+    Float4 tmp = batch.tmp;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      double b = (sinWave(xWave, point) + cosWave(yWave, point)) * 0.25;
+      double posX = (cosT * batch.globalX[i] - sinT * batch.globalY[i] + t) * 0.05;
+      rainbowGradientBright.repeat(posX, out).addLocal(tmp.set(b, b, b, b));
+      batch.set(i, out);
+    }
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-    double b = (Math.sin(globalPos.x * 4.0 + time * 0.20) + Math.cos(globalPos.y * 4.0 + time * 0.20)) * 0.25;
-    Float4 pos = globalPos.rotate2d(time * 0.20).add(new Float4(time * 0.20, 0.0, 0.0, 0.0)).mul(0.05);
-    return rainbowGradientBright.repeat(pos.x).add(new Float4(b,b,b,b));
+  protected void calculateColorsFloat(PointBatch batch) {
+    double t = batch.time * 0.20;
+    float cosT = (float) Math.cos(t);
+    float sinT = (float) Math.sin(t);
+    // Offset of the gradient position, wrapped before narrowing
+    float offset = (float) Gradient.repeatPosition(t * 0.05);
+    Float4f out = batch.colorF;
+    Float4f tmp = batch.tmpF;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      float gx = (float) batch.globalX[i];
+      float gy = (float) batch.globalY[i];
+      float b = (float) (sinWave(xWave, point) + cosWave(yWave, point)) * 0.25f;
+      float posX = (cosT * gx - sinT * gy) * 0.05f + offset;
+      rainbowGradientBright.repeat(posX, out).addLocal(tmp.set(b, b, b, b));
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
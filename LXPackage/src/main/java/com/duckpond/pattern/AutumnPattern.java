@@ -26,8 +26,10 @@ import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
+import com.duckpond.Float4f;
 import com.duckpond.Gradient;
 import com.duckpond.ColorSpace;
+import com.duckpond.PointBatch;
 
 /**
  * Autumn effect - Rainy gradient with autumn colors
@@ -35,14 +37,31 @@ import com.duckpond.ColorSpace;
 @LXCategory("DuckPond")
 public class AutumnPattern extends UmbrellaPattern {
   
+  private static final Float4 GREY = ColorSpace.rgbToOklab(0.5, 0.5, 0.5);
+  private static final Float4f GREY_F = new Float4f(GREY);
+  
   private Gradient rainyGradient;
   private Gradient autumGradient;
   
+  // Waves of the kernel, see UmbrellaPattern.addWave
+  private int x0Wave;
+  private int y0Wave;
+  private int x1Wave;
+  private int y1Wave;
+  
   public AutumnPattern(LX lx) {
     super(lx);
     initGradients();
   }
   
+  @Override
+  protected void declareFields() {
+    this.x0Wave = addWave((g, l) -> (g.x + 1.0) * 0.5, 0.050);
+    this.y0Wave = addWave((g, l) -> (g.y + 1.0) * 0.5, 0.055);
+    this.x1Wave = addWave((g, l) -> (g.x + 1.0) * 15, 0.50);
+    this.y1Wave = addWave((g, l) -> (g.y + 1.0) * 15, 0.55);
+  }
+  
   private void initGradients() {
     Float4[] rainyGradient = {
        new Float4(0x000000, 0.00),
@@ -52,7 +71,7 @@ public class AutumnPattern extends UmbrellaPattern {
        new Float4(0xffffff, 1.00)
     };
 
-    this.rainyGradient = new Gradient(rainyGradient, Gradient.ColorMode.RGB);
+    this.rainyGradient = Gradient.get(rainyGradient, Gradient.ColorMode.RGB);
 
     Float4[] autumGradient = {
        new Float4(0x000000, 0.00),
@@ -65,15 +84,36 @@ public class AutumnPattern extends UmbrellaPattern {
        new Float4(0xffffff, 1.00)
     };
 
-    this.autumGradient = new Gradient(autumGradient, Gradient.ColorMode.RGB);
+    this.autumGradient = Gradient.get(autumGradient, Gradient.ColorMode.RGB);
+  }
+  
+  @Override
+  protected void calculateColors(PointBatch batch) {
+    Float4 out = batch.color;
+    Float4 tmp = batch.tmp;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      double x0 = sinWave(x0Wave, point);
+      double y0 = cosWave(y0Wave, point);
+      double x1 = sinWave(x1Wave, point);
+      double y1 = cosWave(y1Wave, point);
+      rainyGradient.clamp(x1 * y1, out).addLocal(autumGradient.reflect(x0 * y0, tmp).mulLocal(GREY)).clampLocal();
+      batch.set(i, out);
+    }
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-    double x0 = Math.sin((globalPos.x + 1.0) * 0.5 + time * 0.050);
-    double y0 = Math.cos((globalPos.y + 1.0) * 0.5 + time * 0.055);
-    double x1 = Math.sin((globalPos.x + 1.0) * 15 + time * 0.50);
-    double y1 = Math.cos((globalPos.y + 1.0) * 15 + time * 0.55);
-    return rainyGradient.clamp(x1 * y1).add(autumGradient.reflect(x0 * y0).mul(ColorSpace.rgbToOklab(0.5,0.5,0.5))).clamp();
+  protected void calculateColorsFloat(PointBatch batch) {
+    Float4f out = batch.colorF;
+    Float4f tmp = batch.tmpF;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      float x0 = (float) sinWave(x0Wave, point);
+      float y0 = (float) cosWave(y0Wave, point);
+      float x1 = (float) sinWave(x1Wave, point);
+      float y1 = (float) cosWave(y1Wave, point);
+      rainyGradient.clamp(x1 * y1, out).addLocal(autumGradient.reflect(x0 * y0, tmp).mulLocal(GREY_F)).clampLocal();
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.pattern;
+
+import java.io.File;
+import java.io.IOException;
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.parameter.BoundedParameter;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+import heronarts.lx.pattern.LXPattern;
+import com.duckpond.FrameFile;
+
+/**
+ * Baked pattern - Plays back a loop pre-rendered by the headless runner's
+ * --bake option, instead of evaluating the kernels live
+ *
+ * Frames are streamed from a memory-mapped FrameFile straight into the
+ * colors, so playback costs little more than a copy. The crossfade frames
+ * baked past the loop point are blended in RGB into the start of the loop,
+ * so the loop is seamless. At most Memory megabytes of the file are mapped
+ * at a time, pages are read in as playback reaches them.
+ */
+@LXCategory("DuckPond")
+public final class BakedPattern extends LXPattern {
+
+  public final StringParameter file =
+      new StringParameter("File", "")
+      .setDescription("Baked frame file, absolute or relative to the LX media folder");
+
+  public final BoundedParameter memory =
+      new BoundedParameter("Memory", 16, 1, 512)
+      .setDescription("Megabytes of the frame file mapped at a time");
+
+  // Loop stream, and a second stream for the crossfade frames past the loop
+  private FrameFile frames = null;
+  private FrameFile tail = null;
+  private boolean failed = false;
+
+  // Set when the file or memory changes, the streams are reopened on the
+  // engine thread by the next run
+  private volatile boolean reopen = false;
+
+  // Position in the loop, in frames
+  private double position = 0.0;
+
+  public BakedPattern(LX lx) {
+    super(lx);
+    addParameter("file", this.file);
+    addParameter("memory", this.memory);
+  }
+
+  @Override
+  public void onParameterChanged(LXParameter parameter) {
+    super.onParameterChanged(parameter);
+    if (parameter == this.file || parameter == this.memory) {
+      this.reopen = true;
+    }
+  }
+
+  @Override
+  protected void run(double deltaMs) {
+    if (this.reopen) {
+      this.reopen = false;
+      close();
+      this.failed = false;
+    }
+    FrameFile frames = open();
+    if (frames == null) {
+      setColors(LX.rgb(0, 0, 0));
+      return;
+    }
+    int loop = (frames.loopFrames > 0) ? Math.min(frames.loopFrames, frames.frames) : frames.frames;
+    this.position = (this.position + deltaMs * frames.fps / 1000.0) % loop;
+    int frame = (int) this.position;
+
+    try {
+      byte[] bytes = frames.decode(frame);
+      int crossfade = Math.min(frames.crossfadeFrames, frames.frames - loop);
+      int count = Math.min(frames.points, colors.length);
+      if (frame < crossfade) {
+        // Fade from the frames continuing past the loop point into the start
+        byte[] past = this.tail.decode(loop + frame);
+        int weight = (int) (256 * this.position / crossfade);
+        for (int i = 0, k = 0; i < count; i++, k += FrameFile.BYTES_PER_POINT) {
+          colors[i] = 0xff000000 |
+            (blend(past[k], bytes[k], weight) << 16) |
+            (blend(past[k + 1], bytes[k + 1], weight) << 8) |
+            blend(past[k + 2], bytes[k + 2], weight);
+        }
+      } else {
+        for (int i = 0, k = 0; i < count; i++, k += FrameFile.BYTES_PER_POINT) {
+          colors[i] = 0xff000000 | ((bytes[k] & 0xff) << 16) | ((bytes[k + 1] & 0xff) << 8) | (bytes[k + 2] & 0xff);
+        }
+      }
+      for (int i = count; i < colors.length; i++) {
+        colors[i] = LX.rgb(0, 0, 0);
+      }
+    } catch (IOException x) {
+      LX.error(x, "Failed to read baked frames from " + this.file.getString());
+      close();
+      this.failed = true;
+    }
+  }
+
+  private static int blend(byte from, byte to, int weight) {
+    return ((from & 0xff) * (256 - weight) + (to & 0xff) * weight) >> 8;
+  }
+
+  // Opens the file on first use, and not again after a failure until it changes
+  private FrameFile open() {
+    if (this.frames != null || this.failed) {
+      return this.frames;
+    }
+    String path = this.file.getString();
+    if (path == null || path.isEmpty()) {
+      return null;
+    }
+    File file = new File(path);
+    if (!file.isAbsolute()) {
+      file = lx.getMediaFile(path);
+    }
+    long windowBytes = (long) (this.memory.getValue() * (1 << 20));
+    try {
+      this.frames = FrameFile.open(file, windowBytes / 2);
+      this.tail = FrameFile.open(file, windowBytes / 2);
+      if (this.frames.frames <= 0) {
+        throw new IOException("Baked frames in " + path + " are empty");
+      }
+      if (!(this.frames.fps > 0.0)) {
+        throw new IOException("Baked frames in " + path + " have no frame rate");
+      }
+      if (this.frames.points != colors.length) {
+        LX.log("Baked frames in " + path + " have " + this.frames.points + " points, the model has " + colors.length);
+      }
+    } catch (IOException x) {
+      LX.error(x, "Failed to open baked frames " + path);
+      close();
+      this.failed = true;
+    }
+    return this.frames;
+  }
+
+  private void close() {
+    close(this.frames);
+    close(this.tail);
+    this.frames = null;
+    this.tail = null;
+  }
+
+  private static void close(FrameFile frames) {
+    if (frames != null) {
+      try {
+        frames.close();
+      } catch (IOException x) {
+        // Read only, nothing is lost
+      }
+    }
+  }
+
+  @Override
+  public void dispose() {
+    close();
+    super.dispose();
+  }
+}
@@ -5,6 +5,7 @@ import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Gradient;
 import com.duckpond.Float4;
+import com.duckpond.PointBatch;
 
 @LXCategory("DuckPond")
 public class CosmicDustPattern extends UmbrellaPattern {
@@ -12,10 +13,29 @@ public class CosmicDustPattern extends UmbrellaPattern {
     private final Gradient galaxyGradient;
     private final Gradient nebulaGradient;
     
+    // Time-invariant per-point terms, see UmbrellaPattern.addPointField
+    private int globalLenField;
+    private int localLenField;
+    private int globalGalacticAngleField;
+    private int galaxyCoreField;
+    private int angleField;
+    private int depthFadeField;
+    private int stellarRegionField;
+    
+    // Waves of the kernel, see UmbrellaPattern.addWave
+    private int galaxyArmXWave;
+    private int galaxyArmYWave;
+    private int spiralArm2Wave;
+    private int spiralArm3Wave;
+    private int dust1Wave;
+    private int dust2Wave;
+    private int dust3Wave;
+    private int cosmicPulseWave;
+    
     public CosmicDustPattern(LX lx) {
         super(lx);
         
-        this.galaxyGradient = new Gradient(new Float4[] {
+        this.galaxyGradient = Gradient.get(new Float4[] {
             new Float4(0x05050d, 0.0),
             new Float4(0x1a0d33, 0.2),
             new Float4(0x4d1a66, 0.4),
@@ -24,7 +44,7 @@ public class CosmicDustPattern extends UmbrellaPattern {
             new Float4(0x1a66b3, 1.0)
         }, Gradient.ColorMode.RGB);
         
-        this.nebulaGradient = new Gradient(new Float4[] {
+        this.nebulaGradient = Gradient.get(new Float4[] {
             new Float4(0x0d051a, 0.0),
             new Float4(0x661a99, 0.2),
             new Float4(0xb34de6, 0.4),
@@ -35,54 +55,82 @@ public class CosmicDustPattern extends UmbrellaPattern {
     }
     
     @Override
-    protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-        double cosmicTime = time * 0.2;
-        
-        // Global galactic coordinates - each umbrella represents a different region - NOW DOMINANT
-        double globalGalacticAngle = Math.atan2(globalPos.y, globalPos.x);
-        double globalRadius = globalPos.len() * 0.3;
-        double galaxyRotation = cosmicTime * 0.15 + globalGalacticAngle * 1.2;
-        
-        // Major galactic features that span across umbrellas
-        double galaxyArm = Math.sin(globalPos.x * 0.2 + cosmicTime * 0.1) * Math.cos(globalPos.y * 0.15 + cosmicTime * 0.08);
-        double galaxyCore = Math.exp(-globalRadius * 0.8) * 1.5;
-        
-        double angle = Math.atan2(localPos.y, localPos.x);
-        double radius = localPos.len();
-        
-        // Spiral arms heavily influenced by global position
-        double spiralArm1 = Math.sin(angle * 1.0 + radius * 2.0 + cosmicTime * 0.8 + galaxyRotation * 2.0 + galaxyArm * 4.0) * 0.4;
-        double spiralArm2 = Math.cos(angle * 1.5 - radius * 1.5 + cosmicTime * 0.6 + globalPos.x * 1.0) * 0.32;
-        double spiralArm3 = Math.sin(angle * 0.75 + radius * 2.5 - cosmicTime * 0.4 + globalPos.y * 0.8) * 0.3;
-        double spiralPattern = (spiralArm1 + spiralArm2 + spiralArm3) / 1.02 + galaxyArm * 0.8 + galaxyCore * 0.6;
-        
-        // Dust clouds heavily vary by global position
-        double dust1 = Math.sin(localPos.x * 0.8 + cosmicTime * 0.3 + globalPos.x * 1.5) * 0.35;
-        double dust2 = Math.cos(localPos.y * 1.1 + cosmicTime * 0.5 + globalPos.y * 1.2) * 0.3;
-        double dust3 = Math.sin(localPos.len() * 0.9 + cosmicTime * 0.2 + globalRadius * 15.0) * 0.25;
-        double dustPattern = (dust1 + dust2 + dust3) / 0.9 + galaxyArm * 0.7;
-        
-        double depthFade = Math.exp(-radius * 0.8);
-        double cosmicPulse = Math.sin(cosmicTime * 0.2 + globalPos.len() * 0.1) * 0.3 + 0.7;
+    protected void declareFields() {
+        this.globalLenField = addPointField((g, l) -> g.len());
+        this.localLenField = addPointField((g, l) -> l.len());
+        this.globalGalacticAngleField = addPointField((g, l) -> Math.atan2(g.y, g.x));
+        this.galaxyCoreField = addPointField((g, l) -> Math.exp(-(g.len() * 0.3) * 0.8) * 1.5);
+        this.angleField = addPointField((g, l) -> Math.atan2(l.y, l.x));
+        this.depthFadeField = addPointField((g, l) -> Math.exp(-l.len() * 0.8));
+        this.stellarRegionField = addPointField((g, l) -> Math.sin(g.x * 0.2) * Math.cos(g.y * 0.15) * 0.3 + 0.7);
         
-        // Stellar density varies across the installation
-        double stellarRegion = Math.sin(globalPos.x * 0.2) * Math.cos(globalPos.y * 0.15) * 0.3 + 0.7;
-        
-        Float4 galaxyColor = galaxyGradient.reflect(spiralPattern * 0.5 + 0.5);
-        Float4 nebulaColor = nebulaGradient.reflect(dustPattern * 0.5 + 0.5);
-        double spiralMix = Math.abs(spiralPattern) * depthFade * stellarRegion;
-        Float4 finalColor = galaxyColor.lerp(nebulaColor, spiralMix * 0.8);
-        
-        double stellarDensity = 0.7 + Math.abs(spiralPattern) * 0.4 + Math.abs(dustPattern) * 0.3;
-        double brightness = stellarDensity * cosmicPulse * (0.8 + depthFade * 0.6) * stellarRegion * 1.4;
-        
-        // Increase contrast - enhance bright star regions while keeping dark space dark
-        double starIntensity = Math.max(Math.abs(spiralPattern), Math.abs(dustPattern));
-        double contrastBoost = Math.pow(starIntensity, 0.5); // Enhance contrast curve
-        finalColor = finalColor.mul(1.1 + contrastBoost * 1.2);
-        
-        // Apply contrast-enhanced brightness
-        double finalBrightness = brightness * (0.2 + contrastBoost * 0.8);
-        return finalColor.mul(finalBrightness);
+        this.galaxyArmXWave = addWave((g, l) -> g.x * 0.2, 0.2 * 0.1);
+        this.galaxyArmYWave = addWave((g, l) -> g.y * 0.15, 0.2 * 0.08);
+        this.spiralArm2Wave = addWave((g, l) -> Math.atan2(l.y, l.x) * 1.5 - l.len() * 1.5 + g.x * 1.0, 0.2 * 0.6);
+        this.spiralArm3Wave = addWave((g, l) -> Math.atan2(l.y, l.x) * 0.75 + l.len() * 2.5 + g.y * 0.8, -0.2 * 0.4);
+        this.dust1Wave = addWave((g, l) -> l.x * 0.8 + g.x * 1.5, 0.2 * 0.3);
+        this.dust2Wave = addWave((g, l) -> l.y * 1.1 + g.y * 1.2, 0.2 * 0.5);
+        this.dust3Wave = addWave((g, l) -> l.len() * 0.9 + g.len() * 0.3 * 15.0, 0.2 * 0.2);
+        this.cosmicPulseWave = addWave((g, l) -> g.len() * 0.1, 0.2 * 0.2);
+    }
+    
+    @Override
+    protected void calculateColors(PointBatch batch) {
+        double cosmicTime = batch.time * 0.2;
+        Float4 out = batch.color;
+        Float4 tmp = batch.tmp;
+        for (int i = 0; i < batch.size; i++) {
+            LXPoint point = batch.points[i];
+            double globalLen = field(globalLenField, point);
+            double localLen = field(localLenField, point);
+            
+            // Global galactic coordinates - each umbrella represents a different region - NOW DOMINANT
+            double globalGalacticAngle = field(globalGalacticAngleField, point);
+            double galaxyRotation = cosmicTime * 0.15 + globalGalacticAngle * 1.2;
+            
+            // Major galactic features that span across umbrellas
+            double galaxyArm = sinWave(galaxyArmXWave, point) * cosWave(galaxyArmYWave, point);
+            double galaxyCore = field(galaxyCoreField, point);
+            
+            double angle = field(angleField, point);
+            double radius = localLen;
+            
+            // Spiral arms heavily influenced by global position
+            double spiralArm1 = sin(angle * 1.0 + radius * 2.0 + cosmicTime * 0.8 + galaxyRotation * 2.0 + galaxyArm * 4.0) * 0.4;
+            double spiralArm2 = cosWave(spiralArm2Wave, point) * 0.32;
+            double spiralArm3 = sinWave(spiralArm3Wave, point) * 0.3;
+            double spiralPattern = (spiralArm1 + spiralArm2 + spiralArm3) / 1.02 + galaxyArm * 0.8 + galaxyCore * 0.6;
+            
+            // Dust clouds heavily vary by global position
+            double dust1 = sinWave(dust1Wave, point) * 0.35;
+            double dust2 = cosWave(dust2Wave, point) * 0.3;
+            double dust3 = sinWave(dust3Wave, point) * 0.25;
+            double dustPattern = (dust1 + dust2 + dust3) / 0.9 + galaxyArm * 0.7;
+            
+            double depthFade = field(depthFadeField, point);
+            double cosmicPulse = sinWave(cosmicPulseWave, point) * 0.3 + 0.7;
+            
+            // Stellar density varies across the installation
+            double stellarRegion = field(stellarRegionField, point);
+            
+            Float4 finalColor = galaxyGradient.reflect(spiralPattern * 0.5 + 0.5, out);
+            Float4 nebulaColor = nebulaGradient.reflect(dustPattern * 0.5 + 0.5, tmp);
+            double spiralMix = Math.abs(spiralPattern) * depthFade * stellarRegion;
+            finalColor.lerpLocal(nebulaColor, spiralMix * 0.8);
+            
+            double stellarDensity = 0.7 + Math.abs(spiralPattern) * 0.4 + Math.abs(dustPattern) * 0.3;
+            double brightness = stellarDensity * cosmicPulse * (0.8 + depthFade * 0.6) * stellarRegion * 1.4;
+            
+            // Increase contrast - enhance bright star regions while keeping dark space dark
+            double starIntensity = Math.max(Math.abs(spiralPattern), Math.abs(dustPattern));
+            double contrastBoost = pow(starIntensity, 0.5); // Enhance contrast curve
+            finalColor.mulLocal(1.1 + contrastBoost * 1.2);
+            
+            // Apply contrast-enhanced brightness
+            double finalBrightness = brightness * (0.2 + contrastBoost * 0.8);
+            finalColor.mulLocal(finalBrightness);
+            
+            batch.set(i, out);
+        }
     }
 }
\ No newline at end of file
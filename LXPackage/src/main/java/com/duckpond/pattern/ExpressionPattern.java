@@ -0,0 +1,322 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond.pattern;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import heronarts.lx.LX;
+import heronarts.lx.LXCategory;
+import heronarts.lx.parameter.LXParameter;
+import heronarts.lx.parameter.StringParameter;
+import com.duckpond.Float4;
+import com.duckpond.PointBatch;
+import com.duckpond.UmbrellaGeometry;
+import com.duckpond.expr.Kernel;
+import com.duckpond.expr.PatternFile;
+
+/**
+ * Expression pattern - Renders a pattern file of gradient, position and
+ * time expressions, see PatternFile
+ *
+ * The file is compiled to a kernel for each precision on first use. Time
+ * terms are evaluated once per render and position terms once per model,
+ * the kernel only computes the rest at each point. The file is checked for
+ * changes about once a second and reloaded, a file that fails to load
+ * leaves the previous one running. Loading and compiling run on a loader
+ * thread, the pattern keeps rendering its previous kernel meanwhile.
+ */
+@LXCategory("DuckPond")
+public final class ExpressionPattern extends UmbrellaPattern {
+
+  // Pattern files bundled with the package
+  private static final String BUNDLED = "/patterns/";
+
+  private static final long CHECK_INTERVAL_MS = 1000;
+
+  // Loads and compiles the files of all expression patterns, in order
+  private static final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "DuckPond Pattern Loader");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  public final StringParameter file =
+      new StringParameter("File", "Spring.json")
+      .setDescription("Pattern file, absolute or relative to the LX media folder, or the name of a bundled one");
+
+  /**
+   * A loaded pattern file and its kernels by precision, compiled on first
+   * use. Only the loader thread replaces it.
+   */
+  private static final class Loaded {
+    final PatternFile pattern;
+    final Kernel[] kernels;
+    // Precisions whose kernel failed to compile, they are not retried
+    final boolean[] failed;
+    // File on disk the pattern came from, null for bundled ones
+    final File source;
+    final long sourceModified;
+
+    Loaded(PatternFile pattern, Kernel[] kernels, boolean[] failed, File source, long sourceModified) {
+      this.pattern = pattern;
+      this.kernels = kernels;
+      this.failed = failed;
+      this.source = source;
+      this.sourceModified = sourceModified;
+    }
+
+    Loaded(File source, long sourceModified) {
+      this(null, new Kernel[Precision.values().length], new boolean[Precision.values().length], source, sourceModified);
+    }
+  }
+
+  private volatile Loaded loaded = new Loaded(null, 0);
+
+  // Engine thread side of loading
+  private Future<?> pending = null;
+  private long lastCheck = 0;
+  private boolean reload = true;
+
+  // Kernel of the current render, and its hoisted terms
+  private Kernel kernel = null;
+  private double[] frameValues = new double[0];
+  private double[] fieldValues = new double[0];
+  private UmbrellaGeometry fieldGeometry = null;
+  private Kernel fieldKernel = null;
+
+  public ExpressionPattern(LX lx) {
+    super(lx);
+    addParameter("file", this.file);
+  }
+
+  @Override
+  public void onParameterChanged(LXParameter parameter) {
+    super.onParameterChanged(parameter);
+    if (parameter == this.file) {
+      this.reload = true;
+    }
+  }
+
+  @Override
+  protected void run(double deltaMs) {
+    schedule();
+    super.run(deltaMs);
+  }
+
+  /**
+   * Waits until the file is loaded and the kernel of the current precision
+   * is compiled, for tools that need a frame of it right away. The engine
+   * never waits.
+   */
+  public void awaitKernel() throws InterruptedException, ExecutionException {
+    do {
+      schedule();
+      if (this.pending != null) {
+        this.pending.get();
+      }
+    } while (this.reload || needsKernel(this.loaded, this.precision.getEnum()));
+  }
+
+  // Hands the next load, check or compile to the loader, one at a time
+  private void schedule() {
+    if (this.pending != null && !this.pending.isDone()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Loaded loaded = this.loaded;
+    Precision precision = this.precision.getEnum();
+    if (this.reload) {
+      this.reload = false;
+      this.lastCheck = now;
+      String path = this.file.getString();
+      this.pending = loader.submit(() -> load(path, precision));
+    } else if (needsKernel(loaded, precision)) {
+      this.pending = loader.submit(() -> compile(precision));
+    } else if (loaded.source != null && now - this.lastCheck >= CHECK_INTERVAL_MS) {
+      this.lastCheck = now;
+      String path = this.file.getString();
+      this.pending = loader.submit(() -> check(path, precision));
+    }
+  }
+
+  private static boolean needsKernel(Loaded loaded, Precision precision) {
+    int i = precision.ordinal();
+    return loaded.pattern != null && loaded.kernels[i] == null && !loaded.failed[i];
+  }
+
+  // Loader thread, reloads the file if it changed on disk
+  private void check(String path, Precision precision) {
+    Loaded loaded = this.loaded;
+    if (loaded.source != null && loaded.source.lastModified() != loaded.sourceModified) {
+      load(path, precision);
+    }
+  }
+
+  // Loader thread, loads the file and compiles the kernel of a precision.
+  // The new file only replaces the previous one if that kernel compiles.
+  private void load(String path, Precision precision) {
+    if (path == null || path.isEmpty()) {
+      this.loaded = new Loaded(null, 0);
+      return;
+    }
+    File file = new File(path);
+    if (!file.isAbsolute()) {
+      file = lx.getMediaFile(path);
+    }
+    File source = null;
+    long sourceModified = 0;
+    try {
+      PatternFile pattern;
+      if (file.isFile()) {
+        // Changes are picked up even if this version fails to load
+        source = file;
+        sourceModified = file.lastModified();
+        pattern = PatternFile.load(file);
+      } else {
+        InputStream in = ExpressionPattern.class.getResourceAsStream(BUNDLED + path);
+        if (in == null) {
+          throw new FileNotFoundException(path);
+        }
+        String name = path.endsWith(".json") ? path.substring(0, path.length() - 5) : path;
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+          pattern = PatternFile.load(name, reader);
+        }
+      }
+      Loaded next = new Loaded(source, sourceModified);
+      next.kernels[precision.ordinal()] = compile(pattern, precision);
+      this.loaded = new Loaded(pattern, next.kernels, next.failed, source, sourceModified);
+    } catch (IOException | RuntimeException | LinkageError x) {
+      LX.error(x, "Failed to load pattern file " + path);
+      Loaded previous = this.loaded;
+      this.loaded = new Loaded(previous.pattern, previous.kernels, previous.failed, source, sourceModified);
+    }
+  }
+
+  // Loader thread, compiles the kernel of a precision if it is missing
+  private void compile(Precision precision) {
+    Loaded loaded = this.loaded;
+    if (!needsKernel(loaded, precision)) {
+      return;
+    }
+    Kernel[] kernels = loaded.kernels.clone();
+    boolean[] failed = loaded.failed.clone();
+    try {
+      kernels[precision.ordinal()] = compile(loaded.pattern, precision);
+    } catch (RuntimeException | LinkageError x) {
+      // The kernel of the last frame keeps rendering
+      LX.error(x, "Failed to compile pattern file " + loaded.pattern.getName() + " for " + precision);
+      failed[precision.ordinal()] = true;
+    }
+    this.loaded = new Loaded(loaded.pattern, kernels, failed, loaded.source, loaded.sourceModified);
+  }
+
+  private static Kernel compile(PatternFile pattern, Precision precision) {
+    return pattern.compile(precision == Precision.FAST);
+  }
+
+  /**
+   * The loaded pattern file, or null
+   */
+  public PatternFile getPatternFile() {
+    return this.loaded.pattern;
+  }
+
+  @Override
+  protected void beginRender(UmbrellaGeometry geometry, double time) {
+    Loaded loaded = this.loaded;
+    Kernel kernel = loaded.kernels[this.precision.getEnum().ordinal()];
+    if (loaded.pattern == null) {
+      this.kernel = null;
+    } else if (kernel != null) {
+      this.kernel = kernel;
+    }
+    // Otherwise the previous kernel renders until this one is compiled, or
+    // instead of it if it failed to compile
+    if (this.kernel == null) {
+      return;
+    }
+    if (this.frameValues.length < this.kernel.frameSize) {
+      this.frameValues = new double[this.kernel.frameSize];
+    }
+    this.kernel.frame(time, this.frameValues);
+    if (this.fieldGeometry != geometry || this.fieldKernel != this.kernel) {
+      evaluateFields(geometry, this.kernel);
+      this.fieldGeometry = geometry;
+      this.fieldKernel = this.kernel;
+    }
+  }
+
+  // Position terms of every point, by LXPoint.index
+  private void evaluateFields(UmbrellaGeometry geometry, Kernel kernel) {
+    int length = 0;
+    for (int i = 0; i < geometry.size; i++) {
+      length = Math.max(length, geometry.index[i] + 1);
+    }
+    this.fieldValues = new double[length * kernel.fieldCount];
+    if (kernel.fieldCount == 0) {
+      return;
+    }
+    for (int i = 0; i < geometry.size; i++) {
+      kernel.point(
+        geometry.globalX[i], geometry.globalY[i], geometry.globalZ[i],
+        geometry.localX[i], geometry.localY[i], geometry.localZ[i],
+        this.fieldValues, geometry.index[i] * kernel.fieldCount);
+    }
+  }
+
+  @Override
+  protected void calculateColors(PointBatch batch) {
+    Kernel kernel = this.kernel;
+    Float4 out = batch.color;
+    if (kernel == null) {
+      out.set(0.0, 0.0, 0.0, 1.0);
+      for (int i = 0; i < batch.size; i++) {
+        batch.set(i, out);
+      }
+      return;
+    }
+    double[] frame = this.frameValues;
+    double[] fields = this.fieldValues;
+    int fieldCount = kernel.fieldCount;
+    for (int i = 0; i < batch.size; i++) {
+      kernel.color(
+        batch.globalX[i], batch.globalY[i], batch.globalZ[i],
+        batch.localX[i], batch.localY[i], batch.localZ[i],
+        frame, fields, batch.points[i].index * fieldCount, out);
+      batch.set(i, out);
+    }
+  }
+}
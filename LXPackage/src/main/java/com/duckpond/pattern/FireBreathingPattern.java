@@ -5,6 +5,7 @@ import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Gradient;
 import com.duckpond.Float4;
+import com.duckpond.PointBatch;
 
 @LXCategory("DuckPond")
 public class FireBreathingPattern extends UmbrellaPattern {
@@ -12,10 +13,25 @@ public class FireBreathingPattern extends UmbrellaPattern {
     private final Gradient emberGradient;
     private final Gradient flameGradient;
     
+    // Time-invariant per-point terms, see UmbrellaPattern.addPointField
+    private int localLenField;
+    private int fireRegionField;
+    private int heatGlowField;
+    
+    // Waves of the kernel, see UmbrellaPattern.addWave
+    private int windStrengthWave;
+    private int globalWindWave;
+    private int flameZoneXWave;
+    private int flameZoneYWave;
+    private int flicker2Wave;
+    private int flicker3Wave;
+    private int emberBreathWave;
+    private int heatShimmerWave;
+    
     public FireBreathingPattern(LX lx) {
         super(lx);
         
-        this.emberGradient = new Gradient(new Float4[] {
+        this.emberGradient = Gradient.get(new Float4[] {
             new Float4(0x1a0500, 0.0),
             new Float4(0x4d1a00, 0.2),
             new Float4(0x99330d, 0.4),
@@ -24,7 +40,7 @@ public class FireBreathingPattern extends UmbrellaPattern {
             new Float4(0xe64d00, 1.0)
         }, Gradient.ColorMode.RGB);
         
-        this.flameGradient = new Gradient(new Float4[] {
+        this.flameGradient = Gradient.get(new Float4[] {
             new Float4(0x661a00, 0.0),
             new Float4(0xcc4d00, 0.25),
             new Float4(0xffb31a, 0.5),
@@ -34,52 +50,76 @@ public class FireBreathingPattern extends UmbrellaPattern {
     }
     
     @Override
-    protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-        double slowTime = time * 0.4;
-        
-        // Global fire wind patterns - different umbrellas have different wind directions - NOW DOMINANT
-        double windAngle = Math.atan2(globalPos.y, globalPos.x);
-        double windStrength = Math.sin(globalPos.len() * 0.4 + slowTime * 0.6) * 0.8 + 0.5;
-        double globalWind = Math.sin(windAngle + slowTime * 0.8) * windStrength * 2.0;
-        
-        // Major flame zones that span across umbrellas
-        double flameZone = Math.sin(globalPos.x * 0.3 + slowTime * 0.4) * Math.cos(globalPos.y * 0.25 + slowTime * 0.3);
-        double fireRegion = Math.sin(globalPos.x * 0.4) * Math.cos(globalPos.y * 0.35) * 0.8 + 0.6;
-        
-        // Local flicker heavily influenced by global wind
-        double flicker1 = Math.sin(localPos.x * 1.25 + slowTime * 1.3 + globalWind * 2.5 + flameZone * 4.0) * 0.35;
-        double flicker2 = Math.cos(localPos.y * 0.9 + slowTime * 0.9 + windAngle * 2.0) * 0.25;
-        double flicker3 = Math.sin(localPos.len() * 0.75 + slowTime * 1.1 + globalPos.len() * 1.0) * 0.3;
-        double flameMotion = (flicker1 + flicker2 + flicker3) / 0.9 + globalWind * 0.6;
-        
-        // Breathing embers synchronized across regions
-        double emberBreath = Math.sin(slowTime * 0.4 + globalPos.x * 0.2) * 0.4 + 0.6;
-        emberBreath *= fireRegion + flameZone * 0.5;
-        
-        double distanceFromCenter = localPos.len();
-        double emberCore = Math.exp(-distanceFromCenter * 1.5) * emberBreath;
-        
-        // Flame rise affected by global wind
-        double flameRise = Math.sin(distanceFromCenter * 2.0 + slowTime + flameMotion + globalWind) * 0.5 + 0.5;
-        double flameMix = Math.pow(flameRise, 2.0) * (1.0 - distanceFromCenter * 0.3) * fireRegion;
+    protected void declareFields() {
+        this.localLenField = addPointField((g, l) -> l.len());
+        this.fireRegionField = addPointField((g, l) -> Math.sin(g.x * 0.4) * Math.cos(g.y * 0.35) * 0.8 + 0.6);
+        this.heatGlowField = addPointField((g, l) -> Math.max(0.0, 1.0 - l.len() * 0.8));
         
-        Float4 emberColor = emberGradient.reflect(emberCore + flameMotion * 0.3);
-        Float4 flameColor = flameGradient.reflect(flameRise);
-        Float4 finalColor = emberColor.lerp(flameColor, flameMix * 0.7);
-        
-        double intensity = (0.8 + emberBreath * 0.4 + Math.abs(flameMotion) * 0.15) * fireRegion * 1.4;
-        double heatGlow = Math.max(0.0, 1.0 - distanceFromCenter * 0.8);
-        
-        // Heat shimmer varies by global position
-        double heatShimmer = Math.sin(slowTime * 4.0 + globalPos.len() * 0.5) * 0.12 * fireRegion + 0.94;
-        
-        // Increase contrast - make fire core much brighter while keeping edges darker
-        double fireIntensity = emberCore + Math.abs(flameMotion) * 0.5;
-        double contrastBoost = Math.pow(fireIntensity, 0.4);
-        finalColor = finalColor.mul(1.0 + contrastBoost * 1.8);
-        
-        // Apply contrast-enhanced brightness
-        double finalBrightness = intensity * (0.8 + heatGlow * 0.4) * heatShimmer * (0.2 + contrastBoost * 0.8);
-        return finalColor.mul(finalBrightness);
+        this.windStrengthWave = addWave((g, l) -> g.len() * 0.4, 0.4 * 0.6);
+        this.globalWindWave = addWave((g, l) -> Math.atan2(g.y, g.x), 0.4 * 0.8);
+        this.flameZoneXWave = addWave((g, l) -> g.x * 0.3, 0.4 * 0.4);
+        this.flameZoneYWave = addWave((g, l) -> g.y * 0.25, 0.4 * 0.3);
+        this.flicker2Wave = addWave((g, l) -> l.y * 0.9 + Math.atan2(g.y, g.x) * 2.0, 0.4 * 0.9);
+        this.flicker3Wave = addWave((g, l) -> l.len() * 0.75 + g.len() * 1.0, 0.4 * 1.1);
+        this.emberBreathWave = addWave((g, l) -> g.x * 0.2, 0.4 * 0.4);
+        this.heatShimmerWave = addWave((g, l) -> g.len() * 0.5, 0.4 * 4.0);
+    }
+    
+    @Override
+    protected void calculateColors(PointBatch batch) {
+        double slowTime = batch.time * 0.4;
+        Float4 out = batch.color;
+        Float4 tmp = batch.tmp;
+        for (int i = 0; i < batch.size; i++) {
+            LXPoint point = batch.points[i];
+            double lx = batch.localX[i];
+            double localLen = field(localLenField, point);
+            
+            // Global fire wind patterns - different umbrellas have different wind directions - NOW DOMINANT
+            double windStrength = sinWave(windStrengthWave, point) * 0.8 + 0.5;
+            double globalWind = sinWave(globalWindWave, point) * windStrength * 2.0;
+            
+            // Major flame zones that span across umbrellas
+            double flameZone = sinWave(flameZoneXWave, point) * cosWave(flameZoneYWave, point);
+            double fireRegion = field(fireRegionField, point);
+            
+            // Local flicker heavily influenced by global wind
+            double flicker1 = sin(lx * 1.25 + slowTime * 1.3 + globalWind * 2.5 + flameZone * 4.0) * 0.35;
+            double flicker2 = cosWave(flicker2Wave, point) * 0.25;
+            double flicker3 = sinWave(flicker3Wave, point) * 0.3;
+            double flameMotion = (flicker1 + flicker2 + flicker3) / 0.9 + globalWind * 0.6;
+            
+            // Breathing embers synchronized across regions
+            double emberBreath = sinWave(emberBreathWave, point) * 0.4 + 0.6;
+            emberBreath *= fireRegion + flameZone * 0.5;
+            
+            double distanceFromCenter = localLen;
+            double emberCore = exp(-distanceFromCenter * 1.5) * emberBreath;
+            
+            // Flame rise affected by global wind
+            double flameRise = sin(distanceFromCenter * 2.0 + slowTime + flameMotion + globalWind) * 0.5 + 0.5;
+            double flameMix = pow(flameRise, 2.0) * (1.0 - distanceFromCenter * 0.3) * fireRegion;
+            
+            Float4 finalColor = emberGradient.reflect(emberCore + flameMotion * 0.3, out);
+            Float4 flameColor = flameGradient.reflect(flameRise, tmp);
+            finalColor.lerpLocal(flameColor, flameMix * 0.7);
+            
+            double intensity = (0.8 + emberBreath * 0.4 + Math.abs(flameMotion) * 0.15) * fireRegion * 1.4;
+            double heatGlow = field(heatGlowField, point);
+            
+            // Heat shimmer varies by global position
+            double heatShimmer = sinWave(heatShimmerWave, point) * 0.12 * fireRegion + 0.94;
+            
+            // Increase contrast - make fire core much brighter while keeping edges darker
+            double fireIntensity = emberCore + Math.abs(flameMotion) * 0.5;
+            double contrastBoost = pow(fireIntensity, 0.4);
+            finalColor.mulLocal(1.0 + contrastBoost * 1.8);
+            
+            // Apply contrast-enhanced brightness
+            double finalBrightness = intensity * (0.8 + heatGlow * 0.4) * heatShimmer * (0.2 + contrastBoost * 0.8);
+            finalColor.mulLocal(finalBrightness);
+            
+            batch.set(i, out);
+        }
     }
 }
\ No newline at end of file
@@ -24,9 +24,10 @@ package com.duckpond.pattern;
 
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
-import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
+import com.duckpond.Float4f;
 import com.duckpond.Gradient;
+import com.duckpond.PointBatch;
 
 /**
  * In The Jungle effect - Jungle colors with dark light overlay
@@ -52,7 +53,7 @@ public class InTheJunglePattern extends UmbrellaPattern {
        new Float4(0xb67b65,1.00)
     };
 
-    this.inTheJungle = new Gradient(inTheJungle, Gradient.ColorMode.RGB);
+    this.inTheJungle = Gradient.get(inTheJungle, Gradient.ColorMode.RGB);
 
     Float4[] darkLight = {
        new Float4(0x000000,0.00),
@@ -62,16 +63,58 @@ public class InTheJunglePattern extends UmbrellaPattern {
        new Float4(0x000000,1.00)
     };
 
-    this.darkLight = new Gradient(darkLight, Gradient.ColorMode.RGB);
+    this.darkLight = Gradient.get(darkLight, Gradient.ColorMode.RGB);
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-    double a = Math.max(0.0, Math.cos(globalPos.x + Math.sin(time * 0.10))+Math.sin(globalPos.y + Math.cos(time* 0.10))-1.0);
-    Float4 pos = globalPos.rotate2d(time * 0.30).add(new Float4(time * 0.30, 0.0, 0.0, 0.0)).mul(0.05);
-    double l = 1.0 - localPos.len() + 0.5;
-    Float4 c0 = inTheJungle.reflect(pos.x).mul(l);
-    Float4 c1 = darkLight.clamp(a);
-    return Float4.lerp(c0, c1, a);
+  protected void calculateColors(PointBatch batch) {
+    double sx = sin(batch.time * 0.10);
+    double cy = cos(batch.time * 0.10);
+    double t = batch.time * 0.30;
+    double cosT = Math.cos(t);
+    double sinT = Math.sin(t);
+    Float4 out = batch.color;
+    Float4 tmp = batch.tmp;
+    for (int i = 0; i < batch.size; i++) {
+      double gx = batch.globalX[i];
+      double gy = batch.globalY[i];
+      double lx = batch.localX[i];
+      double ly = batch.localY[i];
+      double lz = batch.localZ[i];
+      double a = Math.max(0.0, cos(gx + sx) + sin(gy + cy) - 1.0);
+      double posX = (cosT * gx - sinT * gy + t) * 0.05;
+      double l = 1.0 - Math.sqrt(lx * lx + ly * ly + lz * lz) + 0.5;
+      inTheJungle.reflect(posX, out).mulLocal(l);
+      out.lerpLocal(darkLight.clamp(a, tmp), a);
+      batch.set(i, out);
+    }
+  }
+  
+  @Override
+  protected void calculateColorsFloat(PointBatch batch) {
+    float sx = (float) sin(batch.time * 0.10);
+    float cy = (float) cos(batch.time * 0.10);
+    double t = batch.time * 0.30;
+    float cosT = (float) Math.cos(t);
+    float sinT = (float) Math.sin(t);
+    // Offset of the gradient position, wrapped before narrowing
+    float offset = (float) Gradient.reflectPosition(t * 0.05);
+    boolean flip = (((int) Math.floor(t * 0.05)) & 1) == 1;
+    Float4f out = batch.colorF;
+    Float4f tmp = batch.tmpF;
+    for (int i = 0; i < batch.size; i++) {
+      float gx = (float) batch.globalX[i];
+      float gy = (float) batch.globalY[i];
+      float lx = (float) batch.localX[i];
+      float ly = (float) batch.localY[i];
+      float lz = (float) batch.localZ[i];
+      float a = Math.max(0f, cosf(gx + sx) + sinf(gy + cy) - 1f);
+      float rot = (cosT * gx - sinT * gy) * 0.05f;
+      float posX = offset + (flip ? -rot : rot);
+      float l = 1f - (float) Math.sqrt(lx * lx + ly * ly + lz * lz) + 0.5f;
+      inTheJungle.reflect(posX, out).mulLocal(l);
+      out.lerpLocal(darkLight.clamp(a, tmp), a);
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
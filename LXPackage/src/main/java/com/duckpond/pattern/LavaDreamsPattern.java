@@ -5,18 +5,42 @@ import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Gradient;
 import com.duckpond.Float4;
+import com.duckpond.PointBatch;
 import com.duckpond.ColorSpace;
 
 @LXCategory("DuckPond")
 public class LavaDreamsPattern extends UmbrellaPattern {
     
+    private static final Float4 GLOW_COLOR = ColorSpace.rgbToOklab(1.0, 0.6, 0.2, 1.0);
+    private static final Float4 BUBBLE_COLOR = ColorSpace.rgbToOklab(1.0, 0.8, 0.4, 1.0);
+    
     private final Gradient moltenGradient;
     private final Gradient crustGradient;
     
+    // Time-invariant per-point terms, see UmbrellaPattern.addPointField
+    private int globalLenField;
+    private int localLenField;
+    private int volcanicRegionField;
+    private int magmaChamberField;
+    private int slopeField;
+    private int bubbleActivityField;
+    private int heatIntensityField;
+    
+    // Waves of the kernel, see UmbrellaPattern.addWave
+    private int globalFlowWave;
+    private int volcanicZoneXWave;
+    private int volcanicZoneYWave;
+    private int flow3Wave;
+    private int bubble1Wave;
+    private int bubble2Wave;
+    private int crust1Wave;
+    private int crust2Wave;
+    private int volcanicPulseWave;
+    
     public LavaDreamsPattern(LX lx) {
         super(lx);
         
-        this.moltenGradient = new Gradient(new Float4[] {
+        this.moltenGradient = Gradient.get(new Float4[] {
             new Float4(0x260500, 0.0),
             new Float4(0x661a00, 0.2),
             new Float4(0xcc3300, 0.4),
@@ -25,7 +49,7 @@ public class LavaDreamsPattern extends UmbrellaPattern {
             new Float4(0xe64d0d, 1.0)
         }, Gradient.ColorMode.RGB);
         
-        this.crustGradient = new Gradient(new Float4[] {
+        this.crustGradient = Gradient.get(new Float4[] {
             new Float4(0x140d05, 0.0),
             new Float4(0x331a0d, 0.25),
             new Float4(0x66260d, 0.5),
@@ -35,74 +59,104 @@ public class LavaDreamsPattern extends UmbrellaPattern {
     }
     
     @Override
-    protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-        double geologicalTime = time * 0.2;
-        
-        // Global volcanic activity - different regions have different activity levels - NOW DOMINANT
-        double volcanicRegion = Math.sin(globalPos.x * 0.3) * Math.cos(globalPos.y * 0.25) * 0.7 + 0.5;
-        double globalFlow = Math.sin(globalPos.len() * 0.3 + geologicalTime * 0.3) * volcanicRegion * 1.5;
-        
-        // Major volcanic features that span across umbrellas
-        double volcanicZone = Math.sin(globalPos.x * 0.15 + geologicalTime * 0.2) * Math.cos(globalPos.y * 0.12 + geologicalTime * 0.15);
-        double magmaChamber = Math.exp(-globalPos.len() * 0.2) * 1.2;
-        
-        // Lava flows heavily influenced by global topography
-        double slope = Math.atan2(globalPos.y, globalPos.x) * 1.2;
-        double flow1 = Math.sin(localPos.x * 0.75 + geologicalTime * 0.7 + slope * 2.0 + volcanicZone * 3.0) * 0.4;
-        double flow2 = Math.cos(localPos.y * 0.9 + geologicalTime * 0.5 + globalFlow * 2.0) * 0.35;
-        double flow3 = Math.sin(localPos.len() * 1.1 + geologicalTime * 0.6 + globalPos.len() * 0.5) * 0.3;
-        double lavaFlow = (flow1 + flow2 + flow3) / 1.05 + globalFlow * 0.8 + magmaChamber * 0.6;
-        
-        // Bubble activity heavily varies across the volcanic field
-        double bubbleActivity = volcanicRegion * (Math.sin(globalPos.x * 0.5) * 0.6 + 0.6);
-        double bubble1 = Math.sin(localPos.x * 2.0 + geologicalTime * 1.5 + globalPos.y * 1.0) * 0.2;
-        double bubble2 = Math.cos(localPos.y * 2.5 + geologicalTime * 1.8 + globalPos.x * 0.8) * 0.15;
-        double bubble3 = Math.sin((localPos.x + localPos.y) * 1.75 + geologicalTime * 1.2 + globalFlow * 5.0) * 0.175;
-        double bubbling = (bubble1 + bubble2 + bubble3) / 0.525 * bubbleActivity + volcanicZone * 0.7;
-        
-        // Crust formation varies by global elevation
-        double elevation = globalPos.len() * 0.1;
-        double crust1 = Math.sin(localPos.len() * 2.5 + geologicalTime * 0.3 + elevation * 3.0) * 0.5;
-        double crust2 = Math.cos(localPos.x * 1.2 - geologicalTime * 0.4 + globalPos.y * 0.1) * 0.4;
-        double crustPattern = (crust1 + crust2) / 1.9;
-        
-        double distance = localPos.len();
-        double heatIntensity = Math.exp(-distance * 1.2);
-        
-        // Volcanic pulse synchronized across regions but with different intensities
-        double volcanicPulse = Math.sin(geologicalTime * 0.3 + globalPos.x * 0.02) * 0.4 + 0.6;
-        volcanicPulse *= volcanicRegion;
-        
-        double coreTemp = heatIntensity * volcanicPulse;
-        double surfaceTemp = (1.0 - heatIntensity) * 0.7;
-        
-        Float4 moltenColor = moltenGradient.reflect(lavaFlow * 0.5 + 0.5);
-        Float4 crustColor = crustGradient.reflect(crustPattern * 0.5 + 0.5);
-        double moltenMix = coreTemp * (0.7 + Math.abs(bubbling) * 0.3);
-        Float4 baseColor = moltenColor.lerp(crustColor, 1.0 - moltenMix);
-        
-        double heatGlow = Math.max(0.0, coreTemp - 0.3) * 1.5 * volcanicRegion;
-        if (heatGlow > 0.0) {
-            Float4 glowColor = ColorSpace.rgbToOklab(1.0, 0.6, 0.2, 1.0);
-            baseColor = baseColor.lerp(glowColor, heatGlow * 0.4);
-        }
-        
-        double bubbleHighlight = Math.max(0.0, bubbling) * coreTemp;
-        if (bubbleHighlight > 0.3) {
-            Float4 bubbleColor = ColorSpace.rgbToOklab(1.0, 0.8, 0.4, 1.0);
-            baseColor = baseColor.lerp(bubbleColor, (bubbleHighlight - 0.3) * 0.5);
+    protected void declareFields() {
+        this.globalLenField = addPointField((g, l) -> g.len());
+        this.localLenField = addPointField((g, l) -> l.len());
+        this.volcanicRegionField = addPointField((g, l) -> Math.sin(g.x * 0.3) * Math.cos(g.y * 0.25) * 0.7 + 0.5);
+        this.magmaChamberField = addPointField((g, l) -> Math.exp(-g.len() * 0.2) * 1.2);
+        this.slopeField = addPointField((g, l) -> Math.atan2(g.y, g.x) * 1.2);
+        this.bubbleActivityField = addPointField((g, l) -> (Math.sin(g.x * 0.3) * Math.cos(g.y * 0.25) * 0.7 + 0.5) * (Math.sin(g.x * 0.5) * 0.6 + 0.6));
+        this.heatIntensityField = addPointField((g, l) -> Math.exp(-l.len() * 1.2));
+        
+        this.globalFlowWave = addWave((g, l) -> g.len() * 0.3, 0.2 * 0.3);
+        this.volcanicZoneXWave = addWave((g, l) -> g.x * 0.15, 0.2 * 0.2);
+        this.volcanicZoneYWave = addWave((g, l) -> g.y * 0.12, 0.2 * 0.15);
+        this.flow3Wave = addWave((g, l) -> l.len() * 1.1 + g.len() * 0.5, 0.2 * 0.6);
+        this.bubble1Wave = addWave((g, l) -> l.x * 2.0 + g.y * 1.0, 0.2 * 1.5);
+        this.bubble2Wave = addWave((g, l) -> l.y * 2.5 + g.x * 0.8, 0.2 * 1.8);
+        this.crust1Wave = addWave((g, l) -> l.len() * 2.5 + g.len() * 0.1 * 3.0, 0.2 * 0.3);
+        this.crust2Wave = addWave((g, l) -> l.x * 1.2 + g.y * 0.1, -0.2 * 0.4);
+        this.volcanicPulseWave = addWave((g, l) -> g.x * 0.02, 0.2 * 0.3);
+    }
+    
+    @Override
+    protected void calculateColors(PointBatch batch) {
+        double geologicalTime = batch.time * 0.2;
+        Float4 out = batch.color;
+        Float4 tmp = batch.tmp;
+        for (int i = 0; i < batch.size; i++) {
+            LXPoint point = batch.points[i];
+            double lx = batch.localX[i];
+            double ly = batch.localY[i];
+            double globalLen = field(globalLenField, point);
+            double localLen = field(localLenField, point);
+            
+            // Global volcanic activity - different regions have different activity levels - NOW DOMINANT
+            double volcanicRegion = field(volcanicRegionField, point);
+            double globalFlow = sinWave(globalFlowWave, point) * volcanicRegion * 1.5;
+            
+            // Major volcanic features that span across umbrellas
+            double volcanicZone = sinWave(volcanicZoneXWave, point) * cosWave(volcanicZoneYWave, point);
+            double magmaChamber = field(magmaChamberField, point);
+            
+            // Lava flows heavily influenced by global topography
+            double slope = field(slopeField, point);
+            double flow1 = sin(lx * 0.75 + geologicalTime * 0.7 + slope * 2.0 + volcanicZone * 3.0) * 0.4;
+            double flow2 = cos(ly * 0.9 + geologicalTime * 0.5 + globalFlow * 2.0) * 0.35;
+            double flow3 = sinWave(flow3Wave, point) * 0.3;
+            double lavaFlow = (flow1 + flow2 + flow3) / 1.05 + globalFlow * 0.8 + magmaChamber * 0.6;
+            
+            // Bubble activity heavily varies across the volcanic field
+            double bubbleActivity = field(bubbleActivityField, point);
+            double bubble1 = sinWave(bubble1Wave, point) * 0.2;
+            double bubble2 = cosWave(bubble2Wave, point) * 0.15;
+            double bubble3 = sin((lx + ly) * 1.75 + geologicalTime * 1.2 + globalFlow * 5.0) * 0.175;
+            double bubbling = (bubble1 + bubble2 + bubble3) / 0.525 * bubbleActivity + volcanicZone * 0.7;
+            
+            // Crust formation varies by global elevation
+            double elevation = globalLen * 0.1;
+            double crust1 = sinWave(crust1Wave, point) * 0.5;
+            double crust2 = cosWave(crust2Wave, point) * 0.4;
+            double crustPattern = (crust1 + crust2) / 1.9;
+            
+            double distance = localLen;
+            double heatIntensity = field(heatIntensityField, point);
+            
+            // Volcanic pulse synchronized across regions but with different intensities
+            double volcanicPulse = sinWave(volcanicPulseWave, point) * 0.4 + 0.6;
+            volcanicPulse *= volcanicRegion;
+            
+            double coreTemp = heatIntensity * volcanicPulse;
+            double surfaceTemp = (1.0 - heatIntensity) * 0.7;
+            
+            Float4 baseColor = moltenGradient.reflect(lavaFlow * 0.5 + 0.5, out);
+            Float4 crustColor = crustGradient.reflect(crustPattern * 0.5 + 0.5, tmp);
+            double moltenMix = coreTemp * (0.7 + Math.abs(bubbling) * 0.3);
+            baseColor.lerpLocal(crustColor, 1.0 - moltenMix);
+            
+            double heatGlow = Math.max(0.0, coreTemp - 0.3) * 1.5 * volcanicRegion;
+            if (heatGlow > 0.0) {
+                baseColor.lerpLocal(GLOW_COLOR, heatGlow * 0.4);
+            }
+            
+            double bubbleHighlight = Math.max(0.0, bubbling) * coreTemp;
+            if (bubbleHighlight > 0.3) {
+                baseColor.lerpLocal(BUBBLE_COLOR, (bubbleHighlight - 0.3) * 0.5);
+            }
+            
+            double intensity = (0.6 + coreTemp * 0.7 + Math.abs(lavaFlow) * 0.15) * volcanicRegion * 1.4;
+            double thermalRadiation = sin(geologicalTime * 2.5 + distance * 8.0 + globalFlow * 10.0) * 0.06 + 0.97;
+            
+            // Increase contrast - make molten core extremely bright while keeping crust very dark
+            double moltenIntensity = Math.max(coreTemp, Math.abs(lavaFlow) * 0.5);
+            double contrastBoost = pow(moltenIntensity, 0.3);
+            baseColor.mulLocal(0.8 + contrastBoost * 2.2);
+            
+            // Apply contrast-enhanced brightness
+            double finalBrightness = intensity * thermalRadiation * (0.1 + contrastBoost * 0.9);
+            baseColor.mulLocal(finalBrightness);
+            
+            batch.set(i, out);
         }
-        
-        double intensity = (0.6 + coreTemp * 0.7 + Math.abs(lavaFlow) * 0.15) * volcanicRegion * 1.4;
-        double thermalRadiation = Math.sin(geologicalTime * 2.5 + distance * 8.0 + globalFlow * 10.0) * 0.06 + 0.97;
-        
-        // Increase contrast - make molten core extremely bright while keeping crust very dark
-        double moltenIntensity = Math.max(coreTemp, Math.abs(lavaFlow) * 0.5);
-        double contrastBoost = Math.pow(moltenIntensity, 0.3);
-        baseColor = baseColor.mul(0.8 + contrastBoost * 2.2);
-        
-        // Apply contrast-enhanced brightness
-        double finalBrightness = intensity * thermalRadiation * (0.1 + contrastBoost * 0.9);
-        return baseColor.mul(finalBrightness);
     }
 }
\ No newline at end of file
@@ -5,18 +5,37 @@ import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Gradient;
 import com.duckpond.Float4;
+import com.duckpond.PointBatch;
 import com.duckpond.ColorSpace;
 
 @LXCategory("DuckPond")
 public class MidnightMiragePattern extends UmbrellaPattern {
     
+    private static final Float4 HEAT_COLOR = ColorSpace.rgbToOklab(0.6, 0.5, 0.9, 1.0);
+    
     private final Gradient deepNightGradient;
     private final Gradient mirageShimmer;
     
+    // Time-invariant per-point terms, see UmbrellaPattern.addPointField
+    private int localLenField;
+    private int mirageBandField;
+    private int temperatureRegionField;
+    
+    // Waves of the kernel, see UmbrellaPattern.addWave
+    private int heatDistortionWave;
+    private int globalMirageWave;
+    private int heatZoneXWave;
+    private int heatZoneYWave;
+    private int atmosphericLayerWave;
+    private int wave3Wave;
+    private int radialPulseWave;
+    private int heatWaveWave;
+    private int brightnessWave;
+    
     public MidnightMiragePattern(LX lx) {
         super(lx);
         
-        this.deepNightGradient = new Gradient(new Float4[] {
+        this.deepNightGradient = Gradient.get(new Float4[] {
             new Float4(0x0d0d26, 0.0),
             new Float4(0x1a0d4d, 0.2),
             new Float4(0x261a66, 0.4),
@@ -25,7 +44,7 @@ public class MidnightMiragePattern extends UmbrellaPattern {
             new Float4(0x332680, 1.0)
         }, Gradient.ColorMode.RGB);
         
-        this.mirageShimmer = new Gradient(new Float4[] {
+        this.mirageShimmer = Gradient.get(new Float4[] {
             new Float4(0x1a1a33, 0.0),
             new Float4(0x664db3, 0.33),
             new Float4(0xb3b3e6, 0.67),
@@ -34,57 +53,82 @@ public class MidnightMiragePattern extends UmbrellaPattern {
     }
     
     @Override
-    protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-        double slowTime = time * 0.3;
-        
-        // Global desert heat patterns - mirages appear at different locations - NOW DOMINANT
-        double desertAngle = Math.atan2(globalPos.y, globalPos.x);
-        double heatDistortion = Math.sin(globalPos.len() * 0.2 + slowTime * 0.4) * 1.2;
-        double globalMirage = Math.sin(desertAngle + slowTime * 0.6) * Math.cos(globalPos.x * 0.15) * 1.0;
-        
-        // Major heat zones that span across umbrellas
-        double heatZone = Math.sin(globalPos.x * 0.25 + slowTime * 0.3) * Math.cos(globalPos.y * 0.2 + slowTime * 0.25);
-        double atmosphericLayer = Math.sin(globalPos.y * 0.2 + slowTime * 0.4) * 0.6 + 0.6;
-        
-        // Local waves heavily influenced by global heat patterns
-        double wave1 = Math.sin(localPos.x * 0.6 + slowTime + globalMirage * 3.0 + heatZone * 4.0) * 0.5;
-        double wave2 = Math.cos(localPos.y * 0.4 + slowTime * 0.7 + heatDistortion * 2.0) * 0.35;
-        double wave3 = Math.sin(localPos.len() * 1.0 + slowTime * 0.5 + globalPos.len() * 0.4) * 0.25;
-        double wavePattern = (wave1 + wave2 + wave3) / 1.1 + globalMirage * 0.8;
-        
-        // Radial pulse heavily varies across the desert
-        double radialPulse = Math.sin(slowTime * 0.3 + globalPos.x * 0.1) * 0.6;
-        double distance = localPos.len() + radialPulse;
-        
-        // Shimmer intensity heavily varies by global temperature regions
-        double temperatureRegion = Math.sin(globalPos.x * 0.4) * Math.cos(globalPos.y * 0.3) * 0.7 + 0.5;
-        double shimmer = Math.sin(distance * 1.5 + slowTime * 1.2 + globalMirage * 5.0) * 0.2 + 0.3;
-        shimmer = shimmer * temperatureRegion + heatZone * 0.8;
-        
-        // Heat waves create different mirage qualities
-        double heatWave = Math.sin(globalPos.len() * 0.1 + slowTime * 0.25) * atmosphericLayer;
+    protected void declareFields() {
+        this.localLenField = addPointField((g, l) -> l.len());
+        this.mirageBandField = addPointField((g, l) -> Math.cos(g.x * 0.15));
+        this.temperatureRegionField = addPointField((g, l) -> Math.sin(g.x * 0.4) * Math.cos(g.y * 0.3) * 0.7 + 0.5);
         
-        Float4 baseColor = deepNightGradient.reflect(wavePattern * 0.5 + 0.5);
-        Float4 shimmerColor = mirageShimmer.reflect(shimmer);
-        
-        double mixRatio = Math.pow(1.0 - Math.min(distance, 1.0), 2.0) * temperatureRegion;
-        Float4 finalColor = baseColor.lerp(shimmerColor, mixRatio * 0.6);
-        
-        // Add heat distortion effect
-        if (Math.abs(heatWave) > 0.2) {
-            Float4 heatColor = ColorSpace.rgbToOklab(0.6, 0.5, 0.9, 1.0);
-            finalColor = finalColor.lerp(heatColor, Math.abs(heatWave - 0.2) * 0.3);
+        this.heatDistortionWave = addWave((g, l) -> g.len() * 0.2, 0.3 * 0.4);
+        this.globalMirageWave = addWave((g, l) -> Math.atan2(g.y, g.x), 0.3 * 0.6);
+        this.heatZoneXWave = addWave((g, l) -> g.x * 0.25, 0.3 * 0.3);
+        this.heatZoneYWave = addWave((g, l) -> g.y * 0.2, 0.3 * 0.25);
+        this.atmosphericLayerWave = addWave((g, l) -> g.y * 0.2, 0.3 * 0.4);
+        this.wave3Wave = addWave((g, l) -> l.len() * 1.0 + g.len() * 0.4, 0.3 * 0.5);
+        this.radialPulseWave = addWave((g, l) -> g.x * 0.1, 0.3 * 0.3);
+        this.heatWaveWave = addWave((g, l) -> g.len() * 0.1, 0.3 * 0.25);
+        this.brightnessWave = addWave((g, l) -> g.y * 0.02, 0.3 * 0.4);
+    }
+    
+    @Override
+    protected void calculateColors(PointBatch batch) {
+        double slowTime = batch.time * 0.3;
+        Float4 out = batch.color;
+        Float4 tmp = batch.tmp;
+        for (int i = 0; i < batch.size; i++) {
+            LXPoint point = batch.points[i];
+            double lx = batch.localX[i];
+            double ly = batch.localY[i];
+            double localLen = field(localLenField, point);
+            
+            // Global desert heat patterns - mirages appear at different locations - NOW DOMINANT
+            double heatDistortion = sinWave(heatDistortionWave, point) * 1.2;
+            double globalMirage = sinWave(globalMirageWave, point) * field(mirageBandField, point) * 1.0;
+            
+            // Major heat zones that span across umbrellas
+            double heatZone = sinWave(heatZoneXWave, point) * cosWave(heatZoneYWave, point);
+            double atmosphericLayer = sinWave(atmosphericLayerWave, point) * 0.6 + 0.6;
+            
+            // Local waves heavily influenced by global heat patterns
+            double wave1 = sin(lx * 0.6 + slowTime + globalMirage * 3.0 + heatZone * 4.0) * 0.5;
+            double wave2 = cos(ly * 0.4 + slowTime * 0.7 + heatDistortion * 2.0) * 0.35;
+            double wave3 = sinWave(wave3Wave, point) * 0.25;
+            double wavePattern = (wave1 + wave2 + wave3) / 1.1 + globalMirage * 0.8;
+            
+            // Radial pulse heavily varies across the desert
+            double radialPulse = sinWave(radialPulseWave, point) * 0.6;
+            double distance = localLen + radialPulse;
+            
+            // Shimmer intensity heavily varies by global temperature regions
+            double temperatureRegion = field(temperatureRegionField, point);
+            double shimmer = sin(distance * 1.5 + slowTime * 1.2 + globalMirage * 5.0) * 0.2 + 0.3;
+            shimmer = shimmer * temperatureRegion + heatZone * 0.8;
+            
+            // Heat waves create different mirage qualities
+            double heatWave = sinWave(heatWaveWave, point) * atmosphericLayer;
+            
+            Float4 finalColor = deepNightGradient.reflect(wavePattern * 0.5 + 0.5, out);
+            Float4 shimmerColor = mirageShimmer.reflect(shimmer, tmp);
+            
+            double mixRatio = pow(1.0 - Math.min(distance, 1.0), 2.0) * temperatureRegion;
+            finalColor.lerpLocal(shimmerColor, mixRatio * 0.6);
+            
+            // Add heat distortion effect
+            if (Math.abs(heatWave) > 0.2) {
+                finalColor.lerpLocal(HEAT_COLOR, Math.abs(heatWave - 0.2) * 0.3);
+            }
+            
+            double brightness = (1.0 + sinWave(brightnessWave, point) * 0.3) * atmosphericLayer * 1.4;
+            
+            // Increase contrast - make mirages much brighter while keeping night areas very dark
+            double mirageIntensity = Math.max(Math.abs(shimmer - 0.6), Math.abs(heatWave)) * temperatureRegion;
+            double contrastBoost = pow(mirageIntensity, 0.4);
+            finalColor.mulLocal(0.7 + contrastBoost * 2.0);
+            
+            // Apply contrast-enhanced brightness
+            double finalBrightness = brightness * (0.1 + contrastBoost * 0.9);
+            finalColor.mulLocal(finalBrightness);
+            
+            batch.set(i, out);
         }
-        
-        double brightness = (1.0 + Math.sin(slowTime * 0.4 + globalPos.y * 0.02) * 0.3) * atmosphericLayer * 1.4;
-        
-        // Increase contrast - make mirages much brighter while keeping night areas very dark
-        double mirageIntensity = Math.max(Math.abs(shimmer - 0.6), Math.abs(heatWave)) * temperatureRegion;
-        double contrastBoost = Math.pow(mirageIntensity, 0.4);
-        finalColor = finalColor.mul(0.7 + contrastBoost * 2.0);
-        
-        // Apply contrast-enhanced brightness
-        double finalBrightness = brightness * (0.1 + contrastBoost * 0.9);
-        return finalColor.mul(finalBrightness);
     }
 }
\ No newline at end of file
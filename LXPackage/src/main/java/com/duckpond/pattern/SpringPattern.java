@@ -26,7 +26,9 @@ import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
+import com.duckpond.Float4f;
 import com.duckpond.Gradient;
+import com.duckpond.PointBatch;
 
 /**
  * Spring effect - Rainbow gradient with local coordinate modulation
@@ -36,11 +38,21 @@ public class SpringPattern extends UmbrellaPattern {
   
   private Gradient rainbowGradientBright;
   
+  // Waves of the kernel, see UmbrellaPattern.addWave
+  private int xWave;
+  private int yWave;
+  
   public SpringPattern(LX lx) {
     super(lx);
     initGradients();
   }
   
+  @Override
+  protected void declareFields() {
+    this.xWave = addWave((g, l) -> (l.x + 1.0) * 0.25, 0.050);
+    this.yWave = addWave((g, l) -> (l.y + 1.0) * 0.25, 0.055);
+  }
+  
   private void initGradients() {
     Float4[] rainbowGradientBright = {
        new Float4(0xff0000, 0.00),
@@ -59,14 +71,38 @@ public class SpringPattern extends UmbrellaPattern {
        new Float4(0xff0000, 1.00)
     };
 
-    this.rainbowGradientBright = new Gradient(rainbowGradientBright, Gradient.ColorMode.RGB);
+    this.rainbowGradientBright = Gradient.get(rainbowGradientBright, Gradient.ColorMode.RGB);
+  }
+  
+  @Override
+  protected void calculateColors(PointBatch batch) {
+    Float4 out = batch.color;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      double lx = batch.localX[i];
+      double ly = batch.localY[i];
+      double lz = batch.localZ[i];
+      double x = sinWave(xWave, point);
+      double y = cosWave(yWave, point);
+      double l = 1.0 - Math.sqrt(lx * lx + ly * ly + lz * lz) + 0.5;
+      rainbowGradientBright.reflect(x * y, out).mulLocal(l);
+      batch.set(i, out);
+    }
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-    double x = Math.sin((localPos.x + 1.0) * 0.25 + time * 0.050);
-    double y = Math.cos((localPos.y + 1.0) * 0.25 + time * 0.055);
-    double l = 1.0 - localPos.len() + 0.5;
-    return rainbowGradientBright.reflect(x * y).mul(l);
+  protected void calculateColorsFloat(PointBatch batch) {
+    Float4f out = batch.colorF;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      float lx = (float) batch.localX[i];
+      float ly = (float) batch.localY[i];
+      float lz = (float) batch.localZ[i];
+      float x = (float) sinWave(xWave, point);
+      float y = (float) cosWave(yWave, point);
+      float l = 1f - (float) Math.sqrt(lx * lx + ly * ly + lz * lz) + 0.5f;
+      rainbowGradientBright.reflect(x * y, out).mulLocal(l);
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
@@ -26,8 +26,10 @@ import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
+import com.duckpond.Float4f;
 import com.duckpond.Gradient;
 import com.duckpond.ColorSpace;
+import com.duckpond.PointBatch;
 
 /**
  * Summer effect - Rainbow gradient with global coordinate sparkles
@@ -35,28 +37,66 @@ import com.duckpond.ColorSpace;
 @LXCategory("DuckPond")
 public class SummerPattern extends UmbrellaPattern {
   
+  private static final Float4 WHITE = ColorSpace.rgbToOklab(1.0, 1.0, 1.0);
+  private static final Float4f WHITE_F = new Float4f(WHITE);
+  
   private Gradient rainbowGradient;
   
+  // Waves of the kernel, see UmbrellaPattern.addWave
+  private int x0Wave;
+  private int y0Wave;
+  private int x1Wave;
+  private int y1Wave;
+  
   public SummerPattern(LX lx) {
     super(lx);
     initGradients();
   }
   
+  @Override
+  protected void declareFields() {
+    this.x0Wave = addWave((g, l) -> (g.x + 1.0) * 0.5, 0.050);
+    this.y0Wave = addWave((g, l) -> (g.y + 1.0) * 0.5, 0.055);
+    this.x1Wave = addWave((g, l) -> (g.x + 1.0) * 10, 0.50);
+    this.y1Wave = addWave((g, l) -> (g.y + 1.0) * 10, 0.55);
+  }
+  
   private void initGradients() {
     Float4[] rainbowGradient = {
        new Float4(0.0, 1.0, 1.0, 0.00),
        new Float4(1.0, 1.0, 1.0, 1.00)
     };
 
-    this.rainbowGradient = new Gradient(rainbowGradient, Gradient.ColorMode.HSV);
+    this.rainbowGradient = Gradient.get(rainbowGradient, Gradient.ColorMode.HSV);
+  }
+  
+  @Override
+  protected void calculateColors(PointBatch batch) {
+    Float4 out = batch.color;
+    Float4 tmp = batch.tmp;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      double x0 = sinWave(x0Wave, point);
+      double y0 = cosWave(y0Wave, point);
+      double x1 = sinWave(x1Wave, point);
+      double y1 = cosWave(y1Wave, point);
+      rainbowGradient.reflect(x0 * y0, out).addLocal(tmp.set(WHITE).mulLocal(x1 * y1)).clampLocal();
+      batch.set(i, out);
+    }
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-    double x0 = Math.sin((globalPos.x + 1.0) * 0.5 + time * 0.050);
-    double y0 = Math.cos((globalPos.y + 1.0) * 0.5 + time * 0.055);
-    double x1 = Math.sin((globalPos.x + 1.0) * 10 + time * 0.50);
-    double y1 = Math.cos((globalPos.y + 1.0) * 10 + time * 0.55);
-    return rainbowGradient.reflect(x0 * y0).add(ColorSpace.rgbToOklab(1.0,1.0,1.0).mul(x1 * y1)).clamp();
+  protected void calculateColorsFloat(PointBatch batch) {
+    Float4f out = batch.colorF;
+    Float4f tmp = batch.tmpF;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      float x0 = (float) sinWave(x0Wave, point);
+      float y0 = (float) cosWave(y0Wave, point);
+      float x1 = (float) sinWave(x1Wave, point);
+      float y1 = (float) cosWave(y1Wave, point);
+      rainbowGradient.reflect(x0 * y0, out).addLocal(tmp.set(WHITE_F).mulLocal(x1 * y1)).clampLocal();
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Gradient;
 import com.duckpond.Float4;
+import com.duckpond.PointBatch;
 
 @LXCategory("DuckPond")
 public class SunsetPlayaPattern extends UmbrellaPattern {
@@ -12,10 +13,31 @@ public class SunsetPlayaPattern extends UmbrellaPattern {
     private final Gradient desertSunsetGradient;
     private final Gradient dustStormGradient;
     
+    // Time-invariant per-point terms, see UmbrellaPattern.addPointField
+    private int globalLenField;
+    private int sunAngleField;
+    private int atmosphericRegionField;
+    private int sunFacingField;
+    private int atmosphereFadeField;
+    
+    // Waves of the kernel, see UmbrellaPattern.addWave
+    private int sunHeightWave;
+    private int atmosphericZoneXWave;
+    private int atmosphericZoneYWave;
+    private int globalHorizonWave;
+    private int horizonLayerWave;
+    private int desertHeatWave;
+    private int heatWave2Wave;
+    private int heatWave3Wave;
+    private int windDirectionWave;
+    private int dustSwirl2Wave;
+    private int sunsetPhaseWave;
+    private int goldenGlowWave;
+    
     public SunsetPlayaPattern(LX lx) {
         super(lx);
         
-        this.desertSunsetGradient = new Gradient(new Float4[] {
+        this.desertSunsetGradient = Gradient.get(new Float4[] {
             new Float4(0x331a4d, 0.0),
             new Float4(0x993366, 0.2),
             new Float4(0xe66633, 0.4),
@@ -24,7 +46,7 @@ public class SunsetPlayaPattern extends UmbrellaPattern {
             new Float4(0x662633, 1.0)
         }, Gradient.ColorMode.RGB);
         
-        this.dustStormGradient = new Gradient(new Float4[] {
+        this.dustStormGradient = Gradient.get(new Float4[] {
             new Float4(0x4d4033, 0.0),
             new Float4(0xb3804d, 0.25),
             new Float4(0xe6b366, 0.5),
@@ -34,65 +56,95 @@ public class SunsetPlayaPattern extends UmbrellaPattern {
     }
     
     @Override
-    protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-        double playaTime = time * 0.25;
-        
-        // Global sun position and atmospheric layers - NOW DOMINANT
-        double sunAngle = Math.atan2(globalPos.y, globalPos.x);
-        double sunDistance = globalPos.len() * 0.2;
-        double sunHeight = Math.sin(playaTime * 0.3 + sunDistance) * 0.6 + 0.5;
-        
-        // Major atmospheric zones that span across umbrellas
-        double atmosphericZone = Math.sin(globalPos.x * 0.2 + playaTime * 0.2) * Math.cos(globalPos.y * 0.15 + playaTime * 0.15);
-        double atmosphericRegion = Math.sin(globalPos.x * 0.2) * Math.cos(globalPos.y * 0.15) * 0.7 + 0.5;
-        
-        // Horizon heavily varies by global position
-        double globalHorizon = Math.sin(sunAngle + playaTime * 0.2) * 0.4;
-        double horizonLayer = localPos.y * 0.5 + globalHorizon + Math.sin(playaTime * 0.3 + globalPos.x * 0.1) * 0.6;
-        
-        // Heat waves heavily intensified by global desert conditions
-        double desertHeat = atmosphericRegion * (Math.sin(globalPos.len() * 0.25 + playaTime * 0.3) * 0.6 + 0.7);
-        double heatWave1 = Math.sin(localPos.x * 1.5 + playaTime * 0.8 + sunAngle * 2.0 + atmosphericZone * 3.0) * 0.15;
-        double heatWave2 = Math.cos(localPos.y * 1.25 + playaTime * 0.6 + globalPos.x * 0.5) * 0.1;
-        double heatWave3 = Math.sin(localPos.len() * 0.75 + playaTime * 0.4 + sunDistance * 15.0) * 0.125;
-        double heatDistortion = (heatWave1 + heatWave2 + heatWave3) / 0.375 * desertHeat + atmosphericZone * 0.8;
-        
-        // Dust storms heavily vary by wind patterns across the playa
-        double windDirection = sunAngle + Math.sin(globalPos.len() * 0.15 + playaTime * 0.25) * 1.5;
-        double dustSwirl1 = Math.sin(localPos.x * 0.6 + playaTime * 0.5 + windDirection * 2.0) * 0.3;
-        double dustSwirl2 = Math.cos(localPos.y * 0.4 + playaTime * 0.7 + globalPos.y * 0.2) * 0.2;
-        double dustPattern = (dustSwirl1 + dustSwirl2) / 0.5 + atmosphericZone * 0.6;
-        
-        // Sun's influence varies across the installation
-        double sunInfluence = Math.exp(-Math.abs(sunAngle - Math.atan2(localPos.y, localPos.x)) * 2.0) * sunHeight;
-        double sunsetPosition = horizonLayer + heatDistortion + sunInfluence * 0.3;
-        
-        // Sunset phase synchronized but with regional variations
-        double sunsetPhase = Math.sin(playaTime * 0.15 + globalPos.x * 0.01) * 0.5 + 0.5;
-        sunsetPhase *= atmosphericRegion;
-        
-        Float4 sunsetColor = desertSunsetGradient.reflect(sunsetPosition * 0.5 + 0.5);
-        Float4 dustColor = dustStormGradient.reflect(dustPattern * 0.5 + 0.5);
-        
-        double dustMix = Math.abs(dustPattern) * 0.4 + sunsetPhase * 0.3;
-        Float4 finalColor = sunsetColor.lerp(dustColor, dustMix);
-        
-        // Golden hour glow varies by proximity to "sun"
-        double goldenGlow = (Math.sin(playaTime * 0.2 + globalPos.y * 0.01) * 0.2 + 0.8) * (0.7 + sunInfluence * 0.3);
-        
-        double distance = localPos.len();
-        double atmosphere = Math.exp(-distance * 0.5) * 0.5 + 0.5;
-        atmosphere *= atmosphericRegion;
-        
-        double intensity = goldenGlow * atmosphere * (1.0 + Math.abs(heatDistortion) * 0.3) * 1.4;
-        
-        // Increase contrast - make sunset glow much brighter while keeping distant areas darker
-        double sunsetIntensity = Math.max(sunInfluence, Math.abs(heatDistortion)) * sunsetPhase;
-        double contrastBoost = Math.pow(sunsetIntensity, 0.4);
-        finalColor = finalColor.mul(0.8 + contrastBoost * 1.7);
-        
-        // Apply contrast-enhanced brightness
-        double finalBrightness = intensity * (0.2 + contrastBoost * 0.8);
-        return finalColor.mul(finalBrightness);
+    protected void declareFields() {
+        this.globalLenField = addPointField((g, l) -> g.len());
+        this.sunAngleField = addPointField((g, l) -> Math.atan2(g.y, g.x));
+        this.atmosphericRegionField = addPointField((g, l) -> Math.sin(g.x * 0.2) * Math.cos(g.y * 0.15) * 0.7 + 0.5);
+        this.sunFacingField = addPointField((g, l) -> Math.exp(-Math.abs(Math.atan2(g.y, g.x) - Math.atan2(l.y, l.x)) * 2.0));
+        this.atmosphereFadeField = addPointField((g, l) -> Math.exp(-l.len() * 0.5) * 0.5 + 0.5);
+        
+        this.sunHeightWave = addWave((g, l) -> g.len() * 0.2, 0.25 * 0.3);
+        this.atmosphericZoneXWave = addWave((g, l) -> g.x * 0.2, 0.25 * 0.2);
+        this.atmosphericZoneYWave = addWave((g, l) -> g.y * 0.15, 0.25 * 0.15);
+        this.globalHorizonWave = addWave((g, l) -> Math.atan2(g.y, g.x), 0.25 * 0.2);
+        this.horizonLayerWave = addWave((g, l) -> g.x * 0.1, 0.25 * 0.3);
+        this.desertHeatWave = addWave((g, l) -> g.len() * 0.25, 0.25 * 0.3);
+        this.heatWave2Wave = addWave((g, l) -> l.y * 1.25 + g.x * 0.5, 0.25 * 0.6);
+        this.heatWave3Wave = addWave((g, l) -> l.len() * 0.75 + g.len() * 0.2 * 15.0, 0.25 * 0.4);
+        this.windDirectionWave = addWave((g, l) -> g.len() * 0.15, 0.25 * 0.25);
+        this.dustSwirl2Wave = addWave((g, l) -> l.y * 0.4 + g.y * 0.2, 0.25 * 0.7);
+        this.sunsetPhaseWave = addWave((g, l) -> g.x * 0.01, 0.25 * 0.15);
+        this.goldenGlowWave = addWave((g, l) -> g.y * 0.01, 0.25 * 0.2);
+    }
+    
+    @Override
+    protected void calculateColors(PointBatch batch) {
+        double playaTime = batch.time * 0.25;
+        Float4 out = batch.color;
+        Float4 tmp = batch.tmp;
+        for (int i = 0; i < batch.size; i++) {
+            LXPoint point = batch.points[i];
+            double lx = batch.localX[i];
+            double ly = batch.localY[i];
+            double globalLen = field(globalLenField, point);
+            
+            // Global sun position and atmospheric layers - NOW DOMINANT
+            double sunAngle = field(sunAngleField, point);
+            double sunHeight = sinWave(sunHeightWave, point) * 0.6 + 0.5;
+            
+            // Major atmospheric zones that span across umbrellas
+            double atmosphericZone = sinWave(atmosphericZoneXWave, point) * cosWave(atmosphericZoneYWave, point);
+            double atmosphericRegion = field(atmosphericRegionField, point);
+            
+            // Horizon heavily varies by global position
+            double globalHorizon = sinWave(globalHorizonWave, point) * 0.4;
+            double horizonLayer = ly * 0.5 + globalHorizon + sinWave(horizonLayerWave, point) * 0.6;
+            
+            // Heat waves heavily intensified by global desert conditions
+            double desertHeat = atmosphericRegion * (sinWave(desertHeatWave, point) * 0.6 + 0.7);
+            double heatWave1 = sin(lx * 1.5 + playaTime * 0.8 + sunAngle * 2.0 + atmosphericZone * 3.0) * 0.15;
+            double heatWave2 = cosWave(heatWave2Wave, point) * 0.1;
+            double heatWave3 = sinWave(heatWave3Wave, point) * 0.125;
+            double heatDistortion = (heatWave1 + heatWave2 + heatWave3) / 0.375 * desertHeat + atmosphericZone * 0.8;
+            
+            // Dust storms heavily vary by wind patterns across the playa
+            double windDirection = sunAngle + sinWave(windDirectionWave, point) * 1.5;
+            double dustSwirl1 = sin(lx * 0.6 + playaTime * 0.5 + windDirection * 2.0) * 0.3;
+            double dustSwirl2 = cosWave(dustSwirl2Wave, point) * 0.2;
+            double dustPattern = (dustSwirl1 + dustSwirl2) / 0.5 + atmosphericZone * 0.6;
+            
+            // Sun's influence varies across the installation
+            double sunInfluence = field(sunFacingField, point) * sunHeight;
+            double sunsetPosition = horizonLayer + heatDistortion + sunInfluence * 0.3;
+            
+            // Sunset phase synchronized but with regional variations
+            double sunsetPhase = sinWave(sunsetPhaseWave, point) * 0.5 + 0.5;
+            sunsetPhase *= atmosphericRegion;
+            
+            Float4 finalColor = desertSunsetGradient.reflect(sunsetPosition * 0.5 + 0.5, out);
+            Float4 dustColor = dustStormGradient.reflect(dustPattern * 0.5 + 0.5, tmp);
+            
+            double dustMix = Math.abs(dustPattern) * 0.4 + sunsetPhase * 0.3;
+            finalColor.lerpLocal(dustColor, dustMix);
+            
+            // Golden hour glow varies by proximity to "sun"
+            double goldenGlow = (sinWave(goldenGlowWave, point) * 0.2 + 0.8) * (0.7 + sunInfluence * 0.3);
+            
+            double atmosphere = field(atmosphereFadeField, point);
+            atmosphere *= atmosphericRegion;
+            
+            double intensity = goldenGlow * atmosphere * (1.0 + Math.abs(heatDistortion) * 0.3) * 1.4;
+            
+            // Increase contrast - make sunset glow much brighter while keeping distant areas darker
+            double sunsetIntensity = Math.max(sunInfluence, Math.abs(heatDistortion)) * sunsetPhase;
+            double contrastBoost = pow(sunsetIntensity, 0.4);
+            finalColor.mulLocal(0.8 + contrastBoost * 1.7);
+            
+            // Apply contrast-enhanced brightness
+            double finalBrightness = intensity * (0.2 + contrastBoost * 0.8);
+            finalColor.mulLocal(finalBrightness);
+            
+            batch.set(i, out);
+        }
     }
 }
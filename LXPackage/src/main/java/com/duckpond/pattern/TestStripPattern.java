@@ -22,6 +22,7 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 package com.duckpond.pattern;
 
+import java.util.List;
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXModel;
@@ -29,6 +30,7 @@ import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
 import com.duckpond.Gradient;
 import com.duckpond.ColorSpace;
+import com.duckpond.PointBatch;
 
 /**
  * Test Strip pattern - Cycles through LEDs one at a time for testing
@@ -55,13 +57,10 @@ public class TestStripPattern extends UmbrellaPattern {
       colors[i] = LX.rgb(0, 0, 0);
     }
     
-    // Process all umbrellas by tag
-    int umbrellaIndex = 0;
-    for (LXModel umbrella : model.sub("umbrella")) {
-      if (umbrellaIndex == currentUmbrella) {
-        processTestUmbrella(umbrella);
-      }
-      umbrellaIndex++;
+    // Process the current umbrella by tag
+    List<LXModel> umbrellas = model.sub("umbrella");
+    if (currentUmbrella < umbrellas.size()) {
+      processTestUmbrella(umbrellas.get(currentUmbrella));
     }
     
     // Update LED position based on time
@@ -70,24 +69,15 @@ public class TestStripPattern extends UmbrellaPattern {
       currentLED++;
       
       // Check if we need to move to next umbrella
-      int umbrellaCount = 0;
-      for (LXModel umbrella : model.sub("umbrella")) {
-        if (umbrellaCount == currentUmbrella) {
-          if (currentLED >= umbrella.points.length) {
-            currentLED = 0;
-            currentUmbrella++;
-          }
-          break;
+      if (currentUmbrella < umbrellas.size()) {
+        if (currentLED >= umbrellas.get(currentUmbrella).points.length) {
+          currentLED = 0;
+          currentUmbrella++;
         }
-        umbrellaCount++;
       }
       
       // Reset if we've gone through all umbrellas
-      int totalUmbrellas = 0;
-      for (LXModel umbrella : model.sub("umbrella")) {
-        totalUmbrellas++;
-      }
-      if (currentUmbrella >= totalUmbrellas) {
+      if (currentUmbrella >= umbrellas.size()) {
         currentUmbrella = 0;
       }
     }
@@ -102,8 +92,11 @@ public class TestStripPattern extends UmbrellaPattern {
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
+  protected void calculateColors(PointBatch batch) {
     // Not used in test pattern
-    return ColorSpace.rgbToOklab(0, 0, 0);
+    Float4 out = ColorSpace.rgbToOklab(0, 0, 0, 1.0, batch.color);
+    for (int i = 0; i < batch.size; i++) {
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
@@ -22,14 +22,29 @@ SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
 package com.duckpond.pattern;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
 import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.pattern.LXPattern;
-import heronarts.lx.model.LXModel;
 import heronarts.lx.model.LXPoint;
+import heronarts.lx.parameter.BooleanParameter;
 import heronarts.lx.parameter.BoundedParameter;
+import heronarts.lx.parameter.DiscreteParameter;
+import heronarts.lx.parameter.EnumParameter;
 import heronarts.lx.parameter.LXParameter;
+import com.duckpond.ColorBatch;
+import com.duckpond.ColorSpace;
+import com.duckpond.FastMath;
 import com.duckpond.Float4;
+import com.duckpond.PointBatch;
+import com.duckpond.PointField;
+import com.duckpond.PointFieldCache;
+import com.duckpond.RenderMetrics;
+import com.duckpond.RenderPool;
+import com.duckpond.UmbrellaGeometry;
 
 /**
  * Base class for umbrella patterns. Provides common functionality
@@ -40,121 +55,644 @@ public abstract class UmbrellaPattern extends LXPattern {
   
   protected double runTime = 0.0;
   
+  public enum Precision {
+    EXACT("Exact"),
+    FAST("Fast");
+    
+    private final String label;
+    
+    private Precision(String label) {
+      this.label = label;
+    }
+    
+    @Override
+    public String toString() {
+      return this.label;
+    }
+  }
+  
+  // Umbrellas larger than this are split across several parallel tasks
+  private static final int MAX_CHUNK_POINTS = 64;
+  
+  // Whether a pattern class implements one of the kernels, whose defaults
+  // call each other, checked once per class
+  private static final ClassValue<Boolean> hasKernel = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> cls) {
+      for (; cls != UmbrellaPattern.class; cls = cls.getSuperclass()) {
+        if (declares(cls, "calculateColors", PointBatch.class) ||
+            declares(cls, "calculatePointColor", LXPoint.class, Float4.class, Float4.class, double.class) ||
+            declares(cls, "calculatePointColor", LXPoint.class, Float4.class, Float4.class, double.class, Float4.class, Float4.class)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  };
+  
+  private static boolean declares(Class<?> cls, String name, Class<?>... parameterTypes) {
+    try {
+      cls.getDeclaredMethod(name, parameterTypes);
+      return true;
+    } catch (NoSuchMethodException x) {
+      return false;
+    }
+  }
+  
+  private UmbrellaGeometry geometry = null;
+  
+  private final Scratch scratch = new Scratch();
+  
+  // Latched from the precision parameter once per frame
+  private boolean fastMath = false;
+  
+  // The Float switch, latched once per frame
+  private boolean floatKernel = false;
+  
+  // Time-invariant per-point fields, values are looked up once per geometry
+  private final List<PointField> pointFields = new ArrayList<PointField>();
+  private boolean fieldsDeclared = false;
+  private boolean declaringFields = false;
+  private UmbrellaGeometry pointFieldGeometry = null;
+  private double[][] pointFieldValues = null;
+  
+  // Travelling waves, the point fields holding the sine and cosine of their
+  // spatial phase and the sine and cosine of their time phase this frame
+  private int[] waveFields = new int[0];
+  private double[] waveFrequencies = new double[0];
+  private double[][] waveSinPhase = new double[0][];
+  private double[][] waveCosPhase = new double[0][];
+  private double[] waveSin = new double[0];
+  private double[] waveCos = new double[0];
+  
+  // Animation time handed to the kernels, ahead of runTime for keyframes
+  private double renderTime = 0.0;
+  
+  // Oklab destination of the kernels, L, a, b per point, null for colors
+  private double[] renderTarget = null;
+  
+  // Points the kernels are evaluated at, null for all of them
+  private boolean[] renderSample = null;
+  
+  // Oklab samples of the spoke level of detail when rendering into colors
+  private double[] lodBuffer = null;
+  
+  // Keyframes bracketing runTime, rebuilt whenever the geometry changes
+  private UmbrellaGeometry keyframeGeometry = null;
+  private double[] keyframePrev = null;
+  private double[] keyframeNext = null;
+  private double keyframePrevTime = 0.0;
+  private double keyframeNextTime = 0.0;
+  
+  // Parallel tasks, rebuilt whenever the geometry changes
+  private UmbrellaGeometry chunkGeometry = null;
+  private RenderChunk[] chunks = null;
+  private final RenderFrame frame = new RenderFrame();
+  
+  // Registered on the first frame, once the pattern is constructed
+  private RenderMetrics metrics = null;
+  
   public final BoundedParameter speed = 
       new BoundedParameter("Speed", 0, -10, 10)
       .setDescription("Animation speed")
       .setUnits(LXParameter.Units.NONE);
 
+  public final BooleanParameter parallel =
+      new BooleanParameter("Parallel", false)
+      .setDescription("Render umbrellas in parallel on the shared DuckPond render pool");
+
+  public final EnumParameter<Precision> precision =
+      new EnumParameter<Precision>("Precision", Precision.EXACT)
+      .setDescription("Math precision of the pattern, Fast trades accuracy for frame rate");
+
+  public final BoundedParameter keyframeRate =
+      new BoundedParameter("Keyframes", 0, 0, 60)
+      .setDescription("Rate of fully rendered keyframes, frames in between are interpolated in Oklab. 0 renders every frame")
+      .setUnits(LXParameter.Units.HERTZ);
+
+  public final BooleanParameter singlePrecision =
+      new BooleanParameter("Float", false)
+      .setDescription("Run the pattern's float kernel, with single precision gradients and color conversion");
+
+  public final DiscreteParameter lodFactor =
+      new DiscreteParameter("LOD", 1, 1, 9)
+      .setDescription("Evaluate every k-th LED along each spoke plus its tip, LEDs in between are interpolated in Oklab. 1 evaluates every LED");
+
   protected UmbrellaPattern(LX lx) {
     super(lx);
     addParameter("speed", this.speed);
+    addParameter("parallel", this.parallel);
+    addParameter("precision", this.precision);
+    addParameter("keyframeRate", this.keyframeRate);
+    addParameter("lodFactor", this.lodFactor);
+    addParameter("singlePrecision", this.singlePrecision);
+    if (!hasKernel.get(getClass())) {
+      throw new IllegalStateException(getClass().getName() + " must override calculateColors or calculatePointColor");
+    }
   }
-
+  
   @Override
   protected void run(double deltaMs) {
+    if (this.metrics == null) {
+      this.metrics = RenderMetrics.register(this);
+    }
+    this.metrics.beginFrame();
+    
     // Update animation time based on speed
     double tmFactor = Math.pow(1024, speed.getNormalized() - 0.5);
     runTime += (deltaMs * (1.0 / 1000.0)) * tmFactor;
+    fastMath = precision.getEnum() == Precision.FAST;
+    floatKernel = this.singlePrecision.isOn();
     
-    // Process all umbrellas by tag
-    for (LXModel umbrella : model.sub("umbrella")) {
-      processUmbrella(umbrella);
+    // Process all umbrellas from the shared geometry
+    UmbrellaGeometry geometry = getGeometry();
+    updatePointFields(geometry);
+    double rate = this.keyframeRate.getValue();
+    if (rate > 0.0) {
+      renderKeyframes(geometry, tmFactor / rate);
+    } else {
+      this.keyframeGeometry = null;
+      render(geometry, runTime, null);
     }
+    
+    this.metrics.endFrame(geometry.size);
+  }
+  
+  @Override
+  public void dispose() {
+    if (this.metrics != null) {
+      RenderMetrics.unregister(this.metrics);
+    }
+    super.dispose();
   }
   
   /**
-   * Process a single umbrella fixture
+   * Render all points at the given animation time, into colors or into an
+   * Oklab target buffer.
    */
-  protected void processUmbrella(LXModel umbrella) {
-    // Calculate center and bounds for this umbrella
-    Float4 center = calculateCenter(umbrella);
-    Float4 size = calculateSize(umbrella);
-    Float4 factor = calculateNormalizationFactor(size);
+  private void render(UmbrellaGeometry geometry, double time, double[] target) {
+    int factor = this.lodFactor.getValuei();
+    UmbrellaGeometry.SpokeLod lod = (factor > 1) ? geometry.getSpokeLod(factor) : null;
+    
+    this.renderTime = time;
+    this.renderTarget = target;
+    this.renderSample = null;
+    if (lod != null) {
+      // Samples go to the Oklab target, or a buffer when rendering into colors
+      if (target == null) {
+        if (this.lodBuffer == null || this.lodBuffer.length != geometry.size * 3) {
+          this.lodBuffer = new double[geometry.size * 3];
+        }
+        this.renderTarget = this.lodBuffer;
+      }
+      this.renderSample = lod.sample;
+    }
     
-    // Process each point in the umbrella
-    for (LXPoint point : umbrella.points) {
-      Float4 globalPos = new Float4(point.x, point.y, point.z);
-      Float4 localPos = toLocal(globalPos, center, factor);
-      
-      Float4 colorOklab = calculatePointColor(point, globalPos, localPos, runTime);
-      Float4 colorRgb = com.duckpond.ColorSpace.toSrgb(colorOklab);
-      int r = (int) Math.max(0, Math.min(255, colorRgb.x * 255.0));
-      int g = (int) Math.max(0, Math.min(255, colorRgb.y * 255.0));
-      int b = (int) Math.max(0, Math.min(255, colorRgb.z * 255.0));
-      
-      colors[point.index] = LX.rgb(r, g, b);
+    rotateWaves(time);
+    beginRender(geometry, time);
+    if (this.parallel.isOn()) {
+      renderParallel(geometry);
+    } else {
+      for (int u = 0; u < geometry.umbrellaCount; u++) {
+        processUmbrella(geometry, u);
+      }
+    }
+    if (lod != null) {
+      resolveSpokeLod(geometry, lod, this.renderTarget, target);
     }
+    this.renderTarget = null;
+    this.renderSample = null;
   }
   
   /**
-   * Calculate the color for a specific point. To be implemented by subclasses.
+   * Called on the engine thread before the kernels render all points at
+   * the given animation time, for subclasses to evaluate what the points
+   * share. Runs twice in frames that render two keyframes.
    */
-  protected abstract Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time);
+  protected void beginRender(UmbrellaGeometry geometry, double time) {
+  }
   
   /**
-   * Transform global coordinates to local normalized coordinates
+   * Fill the points skipped by the spoke level of detail by blending their
+   * two sampled neighbors in Oklab, into the target or into colors.
+   * Sampled points are only read, so samples and target may be the same.
    */
-  protected Float4 toLocal(Float4 globalPos, Float4 center, Float4 factor) {
-    return new Float4(
-      (globalPos.x - center.x) * factor.x,
-      (globalPos.y - center.y) * factor.y,
-      (globalPos.z - center.z) * factor.z
-    );
+  private void resolveSpokeLod(UmbrellaGeometry geometry, UmbrellaGeometry.SpokeLod lod, double[] samples, double[] target) {
+    for (int i = 0; i < geometry.size; i++) {
+      double L, a, b;
+      if (lod.sample[i]) {
+        if (target != null) {
+          continue;
+        }
+        L = samples[i * 3];
+        a = samples[i * 3 + 1];
+        b = samples[i * 3 + 2];
+      } else {
+        int p = lod.prev[i] * 3;
+        int n = lod.next[i] * 3;
+        double t = lod.t[i];
+        L = samples[p] + (samples[n] - samples[p]) * t;
+        a = samples[p + 1] + (samples[n + 1] - samples[p + 1]) * t;
+        b = samples[p + 2] + (samples[n + 2] - samples[p + 2]) * t;
+      }
+      if (target == null) {
+        colors[geometry.index[i]] = ColorSpace.oklab2rgb(L, a, b);
+      } else {
+        target[i * 3] = L;
+        target[i * 3 + 1] = a;
+        target[i * 3 + 2] = b;
+      }
+    }
   }
   
   /**
-   * Calculate the center of an umbrella model
+   * Render keyframes spaced the given animation time apart, and blend the
+   * two around runTime in Oklab the same way Float4.lerp does. The next
+   * keyframe is rendered ahead of time as soon as runTime passes the
+   * previous one, so there is no added latency.
    */
-  protected Float4 calculateCenter(LXModel umbrella) {
-    if (umbrella.points.length == 0) {
-      return new Float4(0, 0, 0);
+  private void renderKeyframes(UmbrellaGeometry geometry, double interval) {
+    if (this.keyframeGeometry != geometry) {
+      this.keyframePrev = new double[geometry.size * 3];
+      this.keyframeNext = new double[geometry.size * 3];
+      this.keyframeGeometry = null;
+    }
+    if (this.keyframeGeometry == null || runTime < this.keyframePrevTime || runTime >= this.keyframeNextTime + interval) {
+      // Start over, runTime is not within reach of the current keyframes
+      this.keyframePrevTime = runTime;
+      this.keyframeNextTime = runTime + interval;
+      render(geometry, this.keyframePrevTime, this.keyframePrev);
+      render(geometry, this.keyframeNextTime, this.keyframeNext);
+      this.keyframeGeometry = geometry;
+    } else if (runTime >= this.keyframeNextTime) {
+      double[] swap = this.keyframePrev;
+      this.keyframePrev = this.keyframeNext;
+      this.keyframeNext = swap;
+      this.keyframePrevTime = this.keyframeNextTime;
+      this.keyframeNextTime = this.keyframePrevTime + interval;
+      render(geometry, this.keyframeNextTime, this.keyframeNext);
     }
     
-    Float4 min = new Float4(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-    Float4 max = new Float4(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+    double t = (runTime - this.keyframePrevTime) / (this.keyframeNextTime - this.keyframePrevTime);
+    double[] prev = this.keyframePrev;
+    double[] next = this.keyframeNext;
+    for (int i = 0, k = 0; i < geometry.size; i++, k += 3) {
+      colors[geometry.index[i]] = ColorSpace.oklab2rgb(
+        prev[k] + (next[k] - prev[k]) * t,
+        prev[k + 1] + (next[k + 1] - prev[k + 1]) * t,
+        prev[k + 2] + (next[k + 2] - prev[k + 2]) * t);
+    }
+  }
+  
+  /**
+   * Returns the umbrella geometry for the current model, refreshing the
+   * cached reference only when the model or its generation has changed.
+   */
+  protected UmbrellaGeometry getGeometry() {
+    if (this.geometry == null || !this.geometry.isValid(model)) {
+      this.geometry = UmbrellaGeometry.get(model);
+    }
+    return this.geometry;
+  }
+  
+  /**
+   * Declares the point fields and waves of the pattern with addPointField
+   * and addWave. Called once before the first frame, when the subclass is
+   * fully constructed.
+   */
+  protected void declareFields() {
+  }
+  
+  /**
+   * Declares a time-invariant per-point field, to be called from
+   * declareFields(). The field is evaluated once per model revision with exact
+   * math, and read from the kernel with field(). Every instance of a
+   * pattern class must declare the same fields in the same order, since
+   * the values are shared between them.
+   *
+   * @return Slot of the field, to pass to field()
+   */
+  protected final int addPointField(PointField field) {
+    if (!this.declaringFields) {
+      throw new IllegalStateException("Point fields must be declared in declareFields()");
+    }
+    this.pointFields.add(field);
+    return this.pointFields.size() - 1;
+  }
+  
+  /**
+   * Value of a field declared with addPointField at a point
+   */
+  protected final double field(int field, LXPoint point) {
+    return this.pointFieldValues[field][point.index];
+  }
+  
+  private void updatePointFields(UmbrellaGeometry geometry) {
+    if (!this.fieldsDeclared) {
+      this.fieldsDeclared = true;
+      this.declaringFields = true;
+      try {
+        declareFields();
+      } finally {
+        this.declaringFields = false;
+      }
+    }
+    if (this.pointFields.isEmpty()) {
+      return;
+    }
+    if (this.pointFieldGeometry == geometry) {
+      return;
+    }
+    // Looked up once per geometry, the pattern keeps the values even if
+    // the cache evicts them
+    this.pointFieldValues = PointFieldCache.get(new PointFieldCache.Key(getClass(), geometry), this.pointFields);
+    this.pointFieldGeometry = geometry;
+    for (int w = 0; w < this.waveFields.length; w++) {
+      this.waveSinPhase[w] = this.pointFieldValues[this.waveFields[w]];
+      this.waveCosPhase[w] = this.pointFieldValues[this.waveFields[w] + 1];
+    }
+  }
+  
+  /**
+   * Declares a travelling wave with the phase phase(position) + time *
+   * frequency, to be called from declareFields(). The sine and cosine of
+   * the spatial phase are cached as two point fields, and each frame
+   * rotates them by the time phase, so that sinWave() and cosWave() cost
+   * a few multiplies instead of a sin or cos. Waves use exact math with
+   * either precision.
+   *
+   * @return Slot of the wave, to pass to sinWave() and cosWave()
+   */
+  protected final int addWave(PointField phase, double frequency) {
+    int field = addPointField((g, l) -> Math.sin(phase.evaluate(g, l)));
+    addPointField((g, l) -> Math.cos(phase.evaluate(g, l)));
+    int wave = this.waveFields.length;
+    this.waveFields = Arrays.copyOf(this.waveFields, wave + 1);
+    this.waveFields[wave] = field;
+    this.waveFrequencies = Arrays.copyOf(this.waveFrequencies, wave + 1);
+    this.waveFrequencies[wave] = frequency;
+    this.waveSinPhase = Arrays.copyOf(this.waveSinPhase, wave + 1);
+    this.waveCosPhase = Arrays.copyOf(this.waveCosPhase, wave + 1);
+    this.waveSin = new double[wave + 1];
+    this.waveCos = new double[wave + 1];
+    return wave;
+  }
+  
+  /**
+   * Sine of a wave declared with addWave at a point, at the render time
+   */
+  protected final double sinWave(int wave, LXPoint point) {
+    int i = point.index;
+    return this.waveSinPhase[wave][i] * this.waveCos[wave] + this.waveCosPhase[wave][i] * this.waveSin[wave];
+  }
+  
+  /**
+   * Cosine of a wave declared with addWave at a point, at the render time
+   */
+  protected final double cosWave(int wave, LXPoint point) {
+    int i = point.index;
+    return this.waveCosPhase[wave][i] * this.waveCos[wave] - this.waveSinPhase[wave][i] * this.waveSin[wave];
+  }
+  
+  // Time phase of every wave, sin(p + q) = sin p cos q + cos p sin q
+  private void rotateWaves(double time) {
+    for (int w = 0; w < this.waveFrequencies.length; w++) {
+      double phase = time * this.waveFrequencies[w];
+      this.waveSin[w] = Math.sin(phase);
+      this.waveCos[w] = Math.cos(phase);
+    }
+  }
+  
+  /**
+   * Process a single umbrella fixture
+   */
+  protected void processUmbrella(UmbrellaGeometry geometry, int umbrella) {
+    renderPoints(geometry, geometry.umbrellaStart[umbrella], geometry.umbrellaStart[umbrella + 1], this.scratch);
+  }
+  
+  /**
+   * Render all umbrellas on the shared render pool. Kernels only touch
+   * their arguments, so each task just needs its own scratch buffers.
+   */
+  private void renderParallel(UmbrellaGeometry geometry) {
+    if (this.chunkGeometry != geometry) {
+      this.chunks = buildChunks(geometry);
+      this.chunkGeometry = geometry;
+    }
+    for (RenderChunk chunk : this.chunks) {
+      chunk.reinitialize();
+    }
+    this.frame.reinitialize();
+    RenderPool.invoke(this.frame);
+  }
+  
+  private RenderChunk[] buildChunks(UmbrellaGeometry geometry) {
+    int count = 0;
+    for (int u = 0; u < geometry.umbrellaCount; u++) {
+      count += chunkCount(geometry, u);
+    }
+    RenderChunk[] chunks = new RenderChunk[count];
+    int c = 0;
+    for (int u = 0; u < geometry.umbrellaCount; u++) {
+      int start = geometry.umbrellaStart[u];
+      int size = geometry.umbrellaStart[u + 1] - start;
+      int parts = chunkCount(geometry, u);
+      for (int p = 0; p < parts; p++) {
+        chunks[c++] = new RenderChunk(geometry, start + size * p / parts, start + size * (p + 1) / parts);
+      }
+    }
+    return chunks;
+  }
+  
+  private static int chunkCount(UmbrellaGeometry geometry, int umbrella) {
+    int size = geometry.umbrellaStart[umbrella + 1] - geometry.umbrellaStart[umbrella];
+    return (size + MAX_CHUNK_POINTS - 1) / MAX_CHUNK_POINTS;
+  }
+  
+  /**
+   * Render the points [start, end) of the geometry into colors, or into
+   * the Oklab render target when there is one. Points outside the render
+   * sample are skipped. The float kernel's results are converted to
+   * colors in one ColorBatch call.
+   */
+  private void renderPoints(UmbrellaGeometry geometry, int start, int end, Scratch scratch) {
+    double[] target = this.renderTarget;
+    PointBatch batch = scratch.batch;
+    batch.load(geometry, start, end, this.renderSample);
+    batch.time = this.renderTime;
+    if (batch.size == 0) {
+      return;
+    }
     
-    for (LXPoint point : umbrella.points) {
-      min = min.min(new Float4(point));
-      max = max.max(new Float4(point));
+    int[] source = batch.source;
+    if (this.floatKernel) {
+      calculateColorsFloat(batch);
+      float[] L = batch.Lf;
+      float[] a = batch.af;
+      float[] b = batch.bf;
+      if (target == null) {
+        int[] packed = batch.packed;
+        ColorBatch.get().oklab2rgb(L, a, b, packed, 0, batch.size);
+        for (int k = 0; k < batch.size; k++) {
+          colors[geometry.index[source[k]]] = packed[k];
+        }
+      } else {
+        for (int k = 0; k < batch.size; k++) {
+          int i = source[k];
+          target[i * 3] = L[k];
+          target[i * 3 + 1] = a[k];
+          target[i * 3 + 2] = b[k];
+        }
+      }
+      return;
     }
     
-    return new Float4(
-      (max.x + min.x) * 0.5,
-      (max.y + min.y) * 0.5,
-      (max.z + min.z) * 0.5
-    );
+    calculateColors(batch);
+    double[] L = batch.L;
+    double[] a = batch.a;
+    double[] b = batch.b;
+    if (target == null) {
+      for (int k = 0; k < batch.size; k++) {
+        colors[geometry.index[source[k]]] = ColorSpace.oklab2rgb(L[k], a[k], b[k]);
+      }
+    } else {
+      for (int k = 0; k < batch.size; k++) {
+        int i = source[k];
+        target[i * 3] = L[k];
+        target[i * 3 + 1] = a[k];
+        target[i * 3 + 2] = b[k];
+      }
+    }
+  }
+  
+  /*
+   * Math functions for the kernels, following the precision parameter.
+   * See FastMath for the error bounds of the Fast setting.
+   */
+  
+  protected final double sin(double x) {
+    return fastMath ? FastMath.sin(x) : Math.sin(x);
+  }
+  
+  protected final double cos(double x) {
+    return fastMath ? FastMath.cos(x) : Math.cos(x);
+  }
+  
+  protected final double atan2(double y, double x) {
+    return fastMath ? FastMath.atan2(y, x) : Math.atan2(y, x);
+  }
+  
+  protected final double exp(double x) {
+    return fastMath ? FastMath.exp(x) : Math.exp(x);
+  }
+  
+  protected final double pow(double x, double y) {
+    return fastMath ? FastMath.pow(x, y) : Math.pow(x, y);
+  }
+  
+  protected final float sinf(float x) {
+    return fastMath ? FastMath.sinf(x) : (float) Math.sin(x);
+  }
+  
+  protected final float cosf(float x) {
+    return fastMath ? FastMath.cosf(x) : (float) Math.cos(x);
   }
   
   /**
-   * Calculate the size of an umbrella model
+   * Calculate the Oklab colors of a batch of points, which is a run of one
+   * umbrella. This is the kernel the render loop calls, built-in patterns
+   * override it to hoist their time terms out of the point loop and to
+   * avoid a virtual call per LED. The default runs the per-point kernel
+   * below on every point of the batch.
    */
-  protected Float4 calculateSize(LXModel umbrella) {
-    if (umbrella.points.length == 0) {
-      return new Float4(1, 1, 1);
+  protected void calculateColors(PointBatch batch) {
+    Float4 globalPos = batch.globalPos;
+    Float4 localPos = batch.localPos;
+    Float4 out = batch.color;
+    Float4 tmp = batch.tmp;
+    double time = batch.time;
+    for (int i = 0; i < batch.size; i++) {
+      globalPos.x = batch.globalX[i];
+      globalPos.y = batch.globalY[i];
+      globalPos.z = batch.globalZ[i];
+      localPos.x = batch.localX[i];
+      localPos.y = batch.localY[i];
+      localPos.z = batch.localZ[i];
+      calculatePointColor(batch.points[i], globalPos, localPos, time, out, tmp);
+      batch.set(i, out);
     }
+  }
+  
+  /**
+   * Calculate the color for a specific point. Subclasses implement either
+   * this method, the allocation-free variant below or calculateColors, the
+   * constructor fails if they implement none of them.
+   * The position arguments are reused between points and must not be retained.
+   */
+  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
+    Float4 out = new Float4(0.0);
+    calculatePointColor(point, globalPos, localPos, time, out, new Float4(0.0));
+    return out;
+  }
+  
+  /**
+   * Calculate the Oklab color for a specific point into out. The tmp buffer
+   * is free scratch space for the kernel, its contents on entry are undefined.
+   * The default implementation adapts the allocating variant above.
+   */
+  protected void calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time, Float4 out, Float4 tmp) {
+    out.set(calculatePointColor(point, globalPos, localPos, time));
+  }
+  
+  /**
+   * Float version of calculateColors, run instead of it when Float is on,
+   * writing the Oklab colors to Lf, af and bf of the batch. Patterns that
+   * override it must compute the same look as their double kernel. Time
+   * stays double so that phases don't lose precision over a long run,
+   * kernels should derive their time terms from it before narrowing. The
+   * default runs the double kernel and narrows its results, so patterns
+   * without a float kernel still get the batched float conversion.
+   */
+  protected void calculateColorsFloat(PointBatch batch) {
+    calculateColors(batch);
+    for (int i = 0; i < batch.size; i++) {
+      batch.Lf[i] = (float) batch.L[i];
+      batch.af[i] = (float) batch.a[i];
+      batch.bf[i] = (float) batch.b[i];
+    }
+  }
+  
+  // Scratch buffers handed to the kernels
+  private static class Scratch {
+    final PointBatch batch = new PointBatch();
+  }
+  
+  private class RenderChunk extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
     
-    Float4 min = new Float4(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
-    Float4 max = new Float4(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+    private final transient UmbrellaGeometry geometry;
+    private final int start;
+    private final int end;
+    private final transient Scratch scratch = new Scratch();
     
-    for (LXPoint point : umbrella.points) {
-      min = min.min(new Float4(point));
-      max = max.max(new Float4(point));
+    RenderChunk(UmbrellaGeometry geometry, int start, int end) {
+      this.geometry = geometry;
+      this.start = start;
+      this.end = end;
     }
     
-    return new Float4(
-      max.x - min.x,
-      max.y - min.y,
-      max.z - min.z
-    );
+    @Override
+    protected void compute() {
+      renderPoints(this.geometry, this.start, this.end, this.scratch);
+    }
   }
   
-  /**
-   * Calculate normalization factor for coordinate transformation
-   */
-  protected Float4 calculateNormalizationFactor(Float4 size) {
-    double xf = size.x != 0 ? 2.0 / size.x : 1.0;
-    double yf = size.y != 0 ? 2.0 / size.y : 1.0;
-    double zf = size.z != 0 ? 2.0 / size.z : 1.0;
-    return new Float4(xf, yf, zf);
+  private class RenderFrame extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    
+    @Override
+    protected void compute() {
+      invokeAll(chunks);
+    }
   }
-}
\ No newline at end of file
+}
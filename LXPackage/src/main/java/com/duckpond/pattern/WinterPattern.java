@@ -26,7 +26,9 @@ import heronarts.lx.LX;
 import heronarts.lx.LXCategory;
 import heronarts.lx.model.LXPoint;
 import com.duckpond.Float4;
+import com.duckpond.Float4f;
 import com.duckpond.Gradient;
+import com.duckpond.PointBatch;
 
 /**
  * Winter effect - Winter gradient with rainy overlay
@@ -37,11 +39,25 @@ public class WinterPattern extends UmbrellaPattern {
   private Gradient winterGradient;
   private Gradient rainyGradient;
   
+  // Waves of the kernel, see UmbrellaPattern.addWave
+  private int x0Wave;
+  private int y0Wave;
+  private int x1Wave;
+  private int y1Wave;
+  
   public WinterPattern(LX lx) {
     super(lx);
     initGradients();
   }
   
+  @Override
+  protected void declareFields() {
+    this.x0Wave = addWave((g, l) -> (g.x + 1.0) * 0.5, 0.050);
+    this.y0Wave = addWave((g, l) -> (g.y + 1.0) * 0.5, 0.055);
+    this.x1Wave = addWave((g, l) -> (l.x + 1.0) * 0.25, 0.050);
+    this.y1Wave = addWave((g, l) -> (l.y + 1.0) * 0.25, 0.055);
+  }
+  
   private void initGradients() {
     Float4[] winterGradient = {
        new Float4(0xa3eed6,0.00),
@@ -51,7 +67,7 @@ public class WinterPattern extends UmbrellaPattern {
        new Float4(0x4b51f5,1.00)
     };
 
-    this.winterGradient = new Gradient(winterGradient, Gradient.ColorMode.RGB);
+    this.winterGradient = Gradient.get(winterGradient, Gradient.ColorMode.RGB);
 
     Float4[] rainyGradient = {
        new Float4(0x000000, 0.00),
@@ -61,16 +77,44 @@ public class WinterPattern extends UmbrellaPattern {
        new Float4(0xffffff, 1.00)
     };
 
-    this.rainyGradient = new Gradient(rainyGradient, Gradient.ColorMode.RGB);
+    this.rainyGradient = Gradient.get(rainyGradient, Gradient.ColorMode.RGB);
+  }
+  
+  @Override
+  protected void calculateColors(PointBatch batch) {
+    Float4 out = batch.color;
+    Float4 tmp = batch.tmp;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      double lx = batch.localX[i];
+      double ly = batch.localY[i];
+      double lz = batch.localZ[i];
+      double x0 = sinWave(x0Wave, point);
+      double y0 = cosWave(y0Wave, point);
+      double x1 = sinWave(x1Wave, point);
+      double y1 = cosWave(y1Wave, point);
+      double l = 1.0 - Math.sqrt(lx * lx + ly * ly + lz * lz) + 0.5;
+      winterGradient.reflect(x1 * y1, out).mulLocal(l).mulLocal(rainyGradient.reflect(x0 * y0, tmp));
+      batch.set(i, out);
+    }
   }
   
   @Override
-  protected Float4 calculatePointColor(LXPoint point, Float4 globalPos, Float4 localPos, double time) {
-    double x0 = Math.sin((globalPos.x + 1.0) * 0.5 + time * 0.050);
-    double y0 = Math.cos((globalPos.y + 1.0) * 0.5 + time * 0.055);
-    double x1 = Math.sin((localPos.x + 1.0) * 0.25 + time * 0.050);
-    double y1 = Math.cos((localPos.y + 1.0) * 0.25 + time * 0.055);
-    double l = 1.0 - localPos.len() + 0.5;
-    return winterGradient.reflect(x1 * y1).mul(l).mul(rainyGradient.reflect(x0 * y0));
+  protected void calculateColorsFloat(PointBatch batch) {
+    Float4f out = batch.colorF;
+    Float4f tmp = batch.tmpF;
+    for (int i = 0; i < batch.size; i++) {
+      LXPoint point = batch.points[i];
+      float lx = (float) batch.localX[i];
+      float ly = (float) batch.localY[i];
+      float lz = (float) batch.localZ[i];
+      float x0 = (float) sinWave(x0Wave, point);
+      float y0 = (float) cosWave(y0Wave, point);
+      float x1 = (float) sinWave(x1Wave, point);
+      float y1 = (float) cosWave(y1Wave, point);
+      float l = 1f - (float) Math.sqrt(lx * lx + ly * ly + lz * lz) + 0.5f;
+      winterGradient.reflect(x1 * y1, out).mulLocal(l).mulLocal(rainyGradient.reflect(x0 * y0, tmp));
+      batch.set(i, out);
+    }
   }
 }
\ No newline at end of file
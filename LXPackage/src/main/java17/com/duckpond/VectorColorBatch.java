@@ -0,0 +1,255 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ColorBatch on the jdk.incubator.vector API, in the preferred vector
+ * shape of the CPU.
+ *
+ * The Oklab matrices and the gradient blends run the same float operations
+ * in the same order as the scalar code, so packed colors and gradient
+ * samples are identical. The sRGB curves use the vector pow and cbrt,
+ * which may differ from java.lang.Math in the last bit. Transfer table
+ * lookups are gathers, and the tail of each range that doesn't fill a
+ * vector falls back to the scalar loops.
+ *
+ * Masks stay in float lanes throughout, and gathers always start at
+ * offset 0 of their array. Gradient entries are looked up by a scalar loop
+ * into a staging array instead of gathered. Mask casts between float and
+ * int lanes, gathers at an offset, and the gradient gathers made C2 in JDK
+ * 21.0.1 crash the JVM on AVX-512.
+ */
+final class VectorColorBatch extends ColorBatch {
+
+  private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+  private static final int LANES = FLOATS.length();
+
+  // The transfer codes widened for int gathers
+  private static final int[] transferCode = new int[ColorSpace.transferCode.length];
+
+  static {
+    for (int i = 0; i < transferCode.length; i++) {
+      transferCode[i] = ColorSpace.transferCode[i] & 0xff;
+    }
+  }
+
+  // Gather offsets, one array per rendering thread
+  private static final ThreadLocal<int[]> gatherIndex = ThreadLocal.withInitial(() -> new int[2 * LANES]);
+
+  // Gradient entries looked up for one vector of positions
+  private static final ThreadLocal<float[]> gradientEntries = ThreadLocal.withInitial(() -> new float[3 * LANES]);
+
+  VectorColorBatch() {
+    if (INTS.length() != LANES) {
+      throw new IllegalStateException("Float and int vectors differ in length");
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "vector x" + LANES;
+  }
+
+  @Override
+  public void oklab2rgb(float[] L, float[] a, float[] b, int[] out, int start, int end) {
+    int[] index = gatherIndex.get();
+    int i = start;
+    for (int bound = start + FLOATS.loopBound(end - start); i < bound; i += LANES) {
+      FloatVector vL = FloatVector.fromArray(FLOATS, L, i);
+      FloatVector va = FloatVector.fromArray(FLOATS, a, i);
+      FloatVector vb = FloatVector.fromArray(FLOATS, b, i);
+
+      FloatVector l_ = vL.add(va.mul(0.3963377774f)).add(vb.mul(0.2158037573f));
+      FloatVector m_ = vL.sub(va.mul(0.1055613458f)).sub(vb.mul(0.0638541728f));
+      FloatVector s_ = vL.sub(va.mul(0.0894841775f)).sub(vb.mul(1.2914855480f));
+
+      FloatVector l = l_.mul(l_).mul(l_);
+      FloatVector m = m_.mul(m_).mul(m_);
+      FloatVector s = s_.mul(s_).mul(s_);
+
+      IntVector r = transfer(l.mul(4.0767416621f).sub(m.mul(3.3077115913f)).add(s.mul(0.2309699292f)), index);
+      IntVector g = transfer(l.mul(-1.2684380046f).add(m.mul(2.6097574011f)).sub(s.mul(0.3413193965f)), index);
+      IntVector b_ = transfer(l.mul(-0.0041960863f).sub(m.mul(0.7034186147f)).add(s.mul(1.7076147010f)), index);
+
+      r.lanewise(VectorOperators.LSHL, 16)
+        .or(g.lanewise(VectorOperators.LSHL, 8))
+        .or(b_)
+        .or(0xff000000)
+        .intoArray(out, i);
+    }
+    super.oklab2rgb(L, a, b, out, i, end);
+  }
+
+  /**
+   * Vector version of ColorSpace.transferf. Codes are selected as floats,
+   * masks are never cast between float and int lanes.
+   */
+  private static IntVector transfer(FloatVector x, int[] index) {
+    VectorMask<Float> black = x.compare(VectorOperators.GT, 0f).not();
+    VectorMask<Float> white = x.compare(VectorOperators.GE, ColorSpace.TRANSFER_LIMIT_F);
+
+    // Out of range lanes look up bucket 0 and are replaced below
+    IntVector bucket = (IntVector) x.blend(0f, black.or(white))
+      .mul((float) ColorSpace.TRANSFER_SIZE)
+      .convert(VectorOperators.F2I, 0);
+    bucket.intoArray(index, 0);
+
+    FloatVector code = (FloatVector) IntVector.fromArray(INTS, transferCode, 0, index, 0).convert(VectorOperators.I2F, 0);
+    FloatVector step = FloatVector.fromArray(FLOATS, ColorSpace.transferStepF, 0, index, 0);
+    code = code.add(1f, x.compare(VectorOperators.GE, step)).blend(0f, black).blend(255f, white);
+    return (IntVector) code.convert(VectorOperators.F2I, 0);
+  }
+
+  @Override
+  public void oklab2srgb(float[] L, float[] a, float[] b, float[] r, float[] g, float[] bOut, int start, int end) {
+    int i = start;
+    for (int bound = start + FLOATS.loopBound(end - start); i < bound; i += LANES) {
+      FloatVector vL = FloatVector.fromArray(FLOATS, L, i);
+      FloatVector va = FloatVector.fromArray(FLOATS, a, i);
+      FloatVector vb = FloatVector.fromArray(FLOATS, b, i);
+
+      FloatVector l_ = vL.add(va.mul(0.3963377774f)).add(vb.mul(0.2158037573f));
+      FloatVector m_ = vL.sub(va.mul(0.1055613458f)).sub(vb.mul(0.0638541728f));
+      FloatVector s_ = vL.sub(va.mul(0.0894841775f)).sub(vb.mul(1.2914855480f));
+
+      FloatVector l = l_.mul(l_).mul(l_);
+      FloatVector m = m_.mul(m_).mul(m_);
+      FloatVector s = s_.mul(s_).mul(s_);
+
+      delinearize(l.mul(4.0767416621f).sub(m.mul(3.3077115913f)).add(s.mul(0.2309699292f))).intoArray(r, i);
+      delinearize(l.mul(-1.2684380046f).add(m.mul(2.6097574011f)).sub(s.mul(0.3413193965f))).intoArray(g, i);
+      delinearize(l.mul(-0.0041960863f).sub(m.mul(0.7034186147f)).add(s.mul(1.7076147010f))).intoArray(bOut, i);
+    }
+    super.oklab2srgb(L, a, b, r, g, bOut, i, end);
+  }
+
+  /**
+   * Linear to clamped sRGB
+   */
+  private static FloatVector delinearize(FloatVector x) {
+    FloatVector curve = x.lanewise(VectorOperators.POW, 1f / 2.4f).mul(1.055f).sub(0.055f);
+    return curve.blend(x.mul(12.92f), x.compare(VectorOperators.LE, 0.0031308f)).max(0f).min(1f);
+  }
+
+  @Override
+  public void srgb2oklab(float[] r, float[] g, float[] b, float[] L, float[] a, float[] bOut, int start, int end) {
+    int i = start;
+    for (int bound = start + FLOATS.loopBound(end - start); i < bound; i += LANES) {
+      FloatVector vr = linearize(FloatVector.fromArray(FLOATS, r, i));
+      FloatVector vg = linearize(FloatVector.fromArray(FLOATS, g, i));
+      FloatVector vb = linearize(FloatVector.fromArray(FLOATS, b, i));
+
+      FloatVector l = vr.mul(0.4122214708f).add(vg.mul(0.5363325363f)).add(vb.mul(0.0514459929f));
+      FloatVector m = vr.mul(0.2119034982f).add(vg.mul(0.6806995451f)).add(vb.mul(0.1073969566f));
+      FloatVector s = vr.mul(0.0883024619f).add(vg.mul(0.2817188376f)).add(vb.mul(0.6299787005f));
+
+      FloatVector l_ = l.lanewise(VectorOperators.CBRT);
+      FloatVector m_ = m.lanewise(VectorOperators.CBRT);
+      FloatVector s_ = s.lanewise(VectorOperators.CBRT);
+
+      l_.mul(0.2104542553f).add(m_.mul(0.7936177850f)).sub(s_.mul(0.0040720468f)).intoArray(L, i);
+      l_.mul(1.9779984951f).sub(m_.mul(2.4285922050f)).add(s_.mul(0.4505937099f)).intoArray(a, i);
+      l_.mul(0.0259040371f).add(m_.mul(0.7827717662f)).sub(s_.mul(0.8086757660f)).intoArray(bOut, i);
+    }
+    super.srgb2oklab(r, g, b, L, a, bOut, i, end);
+  }
+
+  /**
+   * sRGB to linear
+   */
+  private static FloatVector linearize(FloatVector x) {
+    FloatVector curve = x.add(0.055f).div(1.055f).lanewise(VectorOperators.POW, 2.4f);
+    return curve.blend(x.div(12.92f), x.compare(VectorOperators.LE, 0.04045f));
+  }
+
+  @Override
+  public void sample(Gradient gradient, Wrap wrap, float[] pos, float[] L, float[] a, float[] b, int start, int end) {
+    float[] table = gradient.getFloatTable();
+    int last = gradient.getResolution() - 1;
+    boolean linear = gradient.getInterpolation() == Gradient.Interpolation.LINEAR;
+    int[] index = gatherIndex.get();
+    float[] entries = gradientEntries.get();
+    int i = start;
+    for (int bound = start + FLOATS.loopBound(end - start); i < bound; i += LANES) {
+      FloatVector p = FloatVector.fromArray(FLOATS, pos, i);
+      if (wrap == Wrap.CLAMP) {
+        p = p.min(1f).max(0f);
+      } else {
+        // floor, for positions well within int range
+        FloatVector floor = (FloatVector) p.convert(VectorOperators.F2I, 0).convert(VectorOperators.I2F, 0);
+        floor = floor.sub(1f, p.compare(VectorOperators.LT, floor));
+        p = p.sub(floor);
+        if (wrap == Wrap.REFLECT) {
+          FloatVector odd = (FloatVector) floor.convert(VectorOperators.F2I, 0).lanewise(VectorOperators.AND, 1)
+            .convert(VectorOperators.I2F, 0);
+          p = p.blend(FloatVector.broadcast(FLOATS, 1f).sub(p), odd.compare(VectorOperators.EQ, 1f));
+        }
+      }
+
+      FloatVector f = p.mul((float) last);
+      IntVector entry = (IntVector) f.convert(VectorOperators.F2I, 0);
+      entry.intoArray(index, 0);
+      lookup(table, index, 0, entries);
+      FloatVector L0 = FloatVector.fromArray(FLOATS, entries, 0);
+      FloatVector a0 = FloatVector.fromArray(FLOATS, entries, LANES);
+      FloatVector b0 = FloatVector.fromArray(FLOATS, entries, 2 * LANES);
+      if (linear) {
+        FloatVector entryF = (FloatVector) entry.convert(VectorOperators.I2F, 0);
+        FloatVector t = f.sub(entryF);
+        IntVector next = (IntVector) entryF.add(1f).min((float) last).convert(VectorOperators.F2I, 0);
+        next.intoArray(index, LANES);
+        lookup(table, index, LANES, entries);
+        FloatVector L1 = FloatVector.fromArray(FLOATS, entries, 0);
+        FloatVector a1 = FloatVector.fromArray(FLOATS, entries, LANES);
+        FloatVector b1 = FloatVector.fromArray(FLOATS, entries, 2 * LANES);
+        L0 = L0.add(L1.sub(L0).mul(t));
+        a0 = a0.add(a1.sub(a0).mul(t));
+        b0 = b0.add(b1.sub(b0).mul(t));
+      }
+      L0.intoArray(L, i);
+      a0.intoArray(a, i);
+      b0.intoArray(b, i);
+    }
+    super.sample(gradient, wrap, pos, L, a, b, i, end);
+  }
+
+  /**
+   * Copies the L, a and b of the table entries at index[offset] onwards
+   * into consecutive vectors of out
+   */
+  private static void lookup(float[] table, int[] index, int offset, float[] out) {
+    for (int k = 0; k < LANES; k++) {
+      int e = index[offset + k] * 4;
+      out[k] = table[e];
+      out[LANES + k] = table[e + 1];
+      out[2 * LANES + k] = table[e + 2];
+    }
+  }
+}
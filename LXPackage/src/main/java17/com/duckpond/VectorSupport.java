@@ -0,0 +1,53 @@
+/*
+Copyright 2019 Tinic Uro
+
+Permission is hereby granted, free of charge, to any person obtaining a
+copy of this software and associated documentation files (the
+"Software"), to deal in the Software without restriction, including
+without limitation the rights to use, copy, modify, merge, publish,
+distribute, sublicense, and/or sell copies of the Software, and to
+permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included
+in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package com.duckpond;
+
+/**
+ * Entry point to the implementations in the Java 17 layer of the jar.
+ *
+ * The vector API is an incubator module, so the vectorized classes are
+ * only loaded when the JVM was started with
+ * --add-modules jdk.incubator.vector.
+ */
+class VectorSupport {
+
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+  private VectorSupport() {
+  }
+
+  /**
+   * The ColorBatch on the jdk.incubator.vector API, or null if the runtime
+   * can't provide one
+   */
+  static ColorBatch createColorBatch() {
+    if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+      return null;
+    }
+    try {
+      return (ColorBatch) Class.forName("com.duckpond.VectorColorBatch").getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError x) {
+      return null;
+    }
+  }
+}
@@ -42,6 +42,11 @@ while [[ $# -gt 0 ]]; do
             PROFILE="-Pdistribution"
             shift
             ;;
+        benchmark)
+            GOAL="verify"
+            PROFILE="-Pbenchmark"
+            shift
+            ;;
         --project-file=*)
             PROJECT_FILE="${1#*=}"
             PROFILE="-Prun-project -Dproject.file=$PROJECT_FILE"
@@ -50,7 +55,7 @@ while [[ $# -gt 0 ]]; do
             ;;
         *)
             echo "Unknown option: $1"
-            echo "Usage: $0 [clean|compile|package|install|run|distribution] [--project-file=file.lxp]"
+            echo "Usage: $0 [clean|compile|package|install|run|distribution|benchmark] [--project-file=file.lxp]"
             exit 1
             ;;
     esac
@@ -75,6 +80,8 @@ if [ $? -eq 0 ]; then
         echo "Usage:"
         echo "  ./DuckPondBarHeadless                    # Run with default project"
         echo "  ./DuckPondBarHeadless myproject.lxp      # Run with custom project"
+        echo "  ./DuckPondBarHeadless --lean --media ~/Chromatik   # Lean, with the project's fixtures"
+        echo "  ./DuckPondBarHeadless --help             # List runner options"
         echo "  mvn exec:java                            # Run via Maven"
     fi
     